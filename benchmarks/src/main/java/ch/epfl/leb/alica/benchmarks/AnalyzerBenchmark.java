@@ -0,0 +1,131 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.frames.PixelType;
+import ij.gui.Roi;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput and latency distribution of
+ * {@link Analyzer#processImage(Object, int, int, double, long)}.
+ * 
+ * The analyzer is selected with the analyzer parameter (see
+ * {@link Products}) and fed with synthetic frames of every combination of
+ * pixel type, frame size and ROI size. The ROI is a centered square whose
+ * side is the given fraction of the frame side; a fraction of 1 analyzes
+ * the whole frame without ROI.
+ * 
+ * As in a live session, the batch output is read every
+ * {@value #FRAMES_PER_BATCH} frames, so that analyzers which accumulate
+ * results until they are read do not grow without bound.
+ * 
+ * @author Marcel Stefko
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzerBenchmark {
+    
+    /**
+     * Number of frames after which the batch output is read.
+     */
+    public static final int FRAMES_PER_BATCH = 64;
+    
+    /**
+     * Number of distinct frames which are cycled through.
+     */
+    private static final int FRAME_COUNT = 16;
+    
+    private static final double PIXEL_SIZE_UM = 0.1;
+    private static final long FRAME_INTERVAL_MS = 10;
+    
+    @Param({Products.BASELINE})
+    public String analyzer;
+    
+    @Param({"BYTE", "SHORT", "FLOAT"})
+    public PixelType pixel_type;
+    
+    @Param({"256", "512", "1024", "2048"})
+    public int frame_size;
+    
+    @Param({"1.0", "0.5", "0.25"})
+    public double roi_fraction;
+    
+    private Analyzer instance;
+    private Object[] images;
+    private int frame_index;
+    private long time_ms;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        instance = Products.createAnalyzer(analyzer);
+        images = SyntheticFrames.createImages(pixel_type, frame_size, frame_size,
+                FRAME_COUNT, 42);
+        if (roi_fraction < 1.0) {
+            int side = (int) Math.round(frame_size * roi_fraction);
+            int offset = (frame_size - side) / 2;
+            instance.setROI(new Roi(offset, offset, side, side));
+        } else {
+            instance.setROI(null);
+        }
+        frame_index = 0;
+        time_ms = 0;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        instance.dispose();
+    }
+    
+    /**
+     * Analyzes the next frame.
+     * 
+     * @return The batch output if it was read, to be consumed by JMH.
+     */
+    @Benchmark
+    public double processImage() {
+        Object image = images[frame_index % FRAME_COUNT];
+        time_ms += FRAME_INTERVAL_MS;
+        instance.processImage(image, frame_size, frame_size, PIXEL_SIZE_UM, time_ms);
+        frame_index++;
+        if (frame_index % FRAMES_PER_BATCH == 0) {
+            return instance.getBatchOutput();
+        }
+        return 0.0;
+    }
+}
@@ -0,0 +1,133 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerSetupPanel;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.analyzers.RoiMask;
+import ch.epfl.leb.alica.interfaces.analyzers.RoiMaskCache;
+import ij.gui.Roi;
+
+/**
+ * Setup panel of the reference analyzer, which computes the mean intensity
+ * within the ROI.
+ * 
+ * Its results give the cost of a single pass over the pixels, against which
+ * the other analyzers can be compared.
+ * 
+ * @author Marcel Stefko
+ */
+public class BaselineAnalyzerSetupPanel extends AnalyzerSetupPanel {
+    
+    @Override
+    public Analyzer initAnalyzer() {
+        return new BaselineAnalyzer();
+    }
+    
+    @Override
+    public String getName() {
+        return "Baseline";
+    }
+    
+    /**
+     * Mean intensity within the ROI, averaged over the frames of a batch.
+     */
+    static class BaselineAnalyzer implements Analyzer {
+        
+        private final RoiMaskCache roi_masks = new RoiMaskCache();
+        private double last_mean = Double.NaN;
+        private double batch_sum = 0.0;
+        private int batch_count = 0;
+        
+        @Override
+        public void processImage(Object image, int image_width, int image_height,
+                double pixel_size_um, long time_ms) {
+            RoiMask mask = roi_masks.getMask(image_width, image_height);
+            double sum = 0.0;
+            for (int y = mask.getY(); y < mask.getY() + mask.getHeight(); y++) {
+                int offset = y * image_width;
+                for (int s = mask.getFirstSpan(y); s < mask.getEndSpan(y); s++) {
+                    for (int x = mask.getSpanStart(s); x < mask.getSpanEnd(s); x++) {
+                        sum += getPixel(image, offset + x);
+                    }
+                }
+            }
+            long count = mask.getPixelCount();
+            double mean = count == 0 ? Double.NaN : sum / count;
+            synchronized (this) {
+                last_mean = mean;
+                batch_sum += mean;
+                batch_count++;
+            }
+        }
+        
+        private static double getPixel(Object image, int index) {
+            if (image instanceof short[]) {
+                return ((short[]) image)[index] & 0xffff;
+            } else if (image instanceof byte[]) {
+                return ((byte[]) image)[index] & 0xff;
+            } else if (image instanceof float[]) {
+                return ((float[]) image)[index];
+            }
+            throw new IllegalArgumentException("Unsupported pixel array " + image.getClass());
+        }
+        
+        @Override
+        public synchronized double getIntermittentOutput() {
+            return last_mean;
+        }
+        
+        @Override
+        public synchronized double getBatchOutput() {
+            if (batch_count == 0) {
+                return Double.NaN;
+            }
+            double retval = batch_sum / batch_count;
+            batch_sum = 0.0;
+            batch_count = 0;
+            return retval;
+        }
+        
+        @Override
+        public void setROI(Roi roi) {
+            roi_masks.setROI(roi);
+        }
+        
+        @Override
+        public void dispose() {
+        }
+        
+        @Override
+        public String getName() {
+            return "Baseline";
+        }
+        
+        @Override
+        public AnalyzerStatusPanel getStatusPanel() {
+            return null;
+        }
+        
+        @Override
+        public String getShortReturnDescription() {
+            return "mean intensity";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerSetupPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+
+/**
+ * Setup panel of the reference controller, a clamped proportional
+ * controller.
+ * 
+ * @author Marcel Stefko
+ */
+public class BaselineControllerSetupPanel extends ControllerSetupPanel {
+    
+    @Override
+    public Controller initController(double max_controller_output, double tick_rate_ms) {
+        return new BaselineController(max_controller_output);
+    }
+    
+    @Override
+    public String getName() {
+        return "Baseline";
+    }
+    
+    /**
+     * Changes the output proportionally to the relative error.
+     */
+    static class BaselineController implements Controller {
+        
+        private static final double GAIN = 0.1;
+        
+        private final double max_output;
+        private double setpoint = 0.0;
+        private double output = 0.0;
+        
+        BaselineController(double max_output) {
+            this.max_output = max_output;
+        }
+        
+        @Override
+        public void setSetpoint(double new_setpoint) {
+            this.setpoint = new_setpoint;
+        }
+        
+        @Override
+        public double getSetpoint() {
+            return setpoint;
+        }
+        
+        @Override
+        public double nextValue(double value) {
+            if (Double.isNaN(value) || setpoint == 0.0) {
+                return output;
+            }
+            double next = output + GAIN * max_output * (setpoint - value) / setpoint;
+            output = Math.max(0.0, Math.min(max_output, next));
+            return output;
+        }
+        
+        @Override
+        public double getCurrentOutput() {
+            return output;
+        }
+        
+        @Override
+        public String getName() {
+            return "Baseline";
+        }
+        
+        @Override
+        public ControllerStatusPanel getStatusPanel() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link Controller#nextValue(double)}.
+ * 
+ * The controller is selected with the controller parameter (see
+ * {@link Products}) and fed with analyzer outputs scattered around its
+ * setpoint, every {@value #NAN_INTERVAL}th of which is NaN as when no frame
+ * was analyzed during a tick.
+ * 
+ * @author Marcel Stefko
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerBenchmark {
+    
+    /**
+     * Every NAN_INTERVAL-th input is NaN.
+     */
+    public static final int NAN_INTERVAL = 16;
+    
+    /**
+     * Number of distinct inputs, a power of two.
+     */
+    private static final int INPUT_COUNT = 1024;
+    
+    @Param({Products.BASELINE})
+    public String controller;
+    
+    @Param({"100.0"})
+    public double max_controller_output;
+    
+    @Param({"500.0"})
+    public double tick_rate_ms;
+    
+    @Param({"10.0"})
+    public double setpoint;
+    
+    private Controller instance;
+    private double[] inputs;
+    private int input_index;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        instance = Products.createController(controller, max_controller_output, tick_rate_ms);
+        instance.setSetpoint(setpoint);
+        Random random = new Random(42);
+        inputs = new double[INPUT_COUNT];
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            if (i % NAN_INTERVAL == NAN_INTERVAL - 1) {
+                inputs[i] = Double.NaN;
+            } else {
+                inputs[i] = Math.max(0.0, setpoint * (1.0 + 0.3 * random.nextGaussian()));
+            }
+        }
+        input_index = 0;
+    }
+    
+    /**
+     * Runs one controller tick.
+     * 
+     * @return The controller output, to be consumed by JMH.
+     */
+    @Benchmark
+    public double nextValue() {
+        double input = inputs[input_index & (INPUT_COUNT - 1)];
+        input_index++;
+        return instance.nextValue(input);
+    }
+}
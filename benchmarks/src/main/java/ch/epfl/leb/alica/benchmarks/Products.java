@@ -0,0 +1,139 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.ProductParameters;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerBuilder;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerFactory;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerSetupPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerBuilder;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerFactory;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerSetupPanel;
+
+/**
+ * Creates the analyzers and controllers under test.
+ * 
+ * A product is specified either by "baseline", by the fully qualified name
+ * of a setup panel or builder class on the classpath, or by the name of a
+ * product discovered by the factories in the ALICA_ jars of the working
+ * directory. Builders are preferred over setup panels, and both are used
+ * with their default settings.
+ * 
+ * @author Marcel Stefko
+ */
+public final class Products {
+    
+    /**
+     * Name of the reference products shipped with the benchmarks.
+     */
+    public static final String BASELINE = "baseline";
+    
+    private Products() {
+    }
+    
+    /**
+     * Creates an analyzer.
+     * 
+     * @param spec "baseline", a setup panel or builder class name or a
+     * product name.
+     * @return The analyzer initialized by the builder or setup panel.
+     */
+    public static Analyzer createAnalyzer(String spec) {
+        if (BASELINE.equals(spec)) {
+            return new BaselineAnalyzerSetupPanel().initAnalyzer();
+        }
+        Class<?> product_class = loadClass(spec);
+        if (product_class != null && AnalyzerBuilder.class.isAssignableFrom(product_class)) {
+            return newInstance(product_class, AnalyzerBuilder.class).build(new ProductParameters());
+        } else if (product_class != null) {
+            return newInstance(product_class, AnalyzerSetupPanel.class).initAnalyzer();
+        }
+        AnalyzerFactory factory = new AnalyzerFactory();
+        if (factory.getBuilderNameList().contains(spec)) {
+            return factory.build(spec, new ProductParameters());
+        }
+        checkProduct(spec, factory.getProductNameList().contains(spec), "analyzer");
+        factory.selectProduct(spec);
+        return factory.build();
+    }
+    
+    /**
+     * Creates a controller.
+     * 
+     * @param spec "baseline", a setup panel or builder class name or a
+     * product name.
+     * @param max_controller_output Maximal output value of the controller.
+     * @param tick_rate_ms Tick rate of the controller.
+     * @return The controller initialized by the builder or setup panel.
+     */
+    public static Controller createController(String spec, double max_controller_output,
+            double tick_rate_ms) {
+        if (BASELINE.equals(spec)) {
+            return new BaselineControllerSetupPanel().initController(
+                    max_controller_output, tick_rate_ms);
+        }
+        Class<?> product_class = loadClass(spec);
+        if (product_class != null && ControllerBuilder.class.isAssignableFrom(product_class)) {
+            return newInstance(product_class, ControllerBuilder.class).build(
+                    new ProductParameters(), max_controller_output, tick_rate_ms);
+        } else if (product_class != null) {
+            return newInstance(product_class, ControllerSetupPanel.class).initController(
+                    max_controller_output, tick_rate_ms);
+        }
+        ControllerFactory factory = new ControllerFactory();
+        factory.setMaxControllerOutput(max_controller_output);
+        factory.setControllerTickRateMs(tick_rate_ms);
+        if (factory.getBuilderNameList().contains(spec)) {
+            return factory.build(spec, new ProductParameters());
+        }
+        checkProduct(spec, factory.getProductNameList().contains(spec), "controller");
+        factory.selectProduct(spec);
+        return factory.build();
+    }
+    
+    private static void checkProduct(String spec, boolean found, String kind) {
+        if (!found) {
+            throw new IllegalArgumentException("No " + kind + " class or product named " + spec);
+        }
+    }
+    
+    private static Class<?> loadClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+    
+    private static <T> T newInstance(Class<?> product_class, Class<T> base) {
+        if (!base.isAssignableFrom(product_class)) {
+            throw new IllegalArgumentException(product_class.getName() + " is not a " + base.getSimpleName());
+        }
+        try {
+            return base.cast(product_class.newInstance());
+        } catch (InstantiationException ex) {
+            throw new IllegalStateException("Unable to create " + product_class.getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to create " + product_class.getName(), ex);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.benchmarks;
+
+import ch.epfl.leb.alica.interfaces.frames.PixelType;
+import java.util.Random;
+
+/**
+ * Generates reproducible single-molecule-like images for the benchmarks.
+ * 
+ * Each image consists of a constant background with Gaussian noise and a
+ * number of Gaussian spots at random positions, so that analyzers which
+ * threshold or fit the image do a realistic amount of work.
+ * 
+ * @author Marcel Stefko
+ */
+public final class SyntheticFrames {
+    
+    private static final double BACKGROUND = 100.0;
+    private static final double NOISE_SIGMA = 10.0;
+    private static final double SPOT_AMPLITUDE = 500.0;
+    private static final double SPOT_SIGMA = 1.5;
+    private static final int SPOT_RADIUS = 5;
+    
+    /**
+     * Average number of spots per 256x256 pixels.
+     */
+    private static final int SPOTS_PER_TILE = 50;
+    
+    private SyntheticFrames() {
+    }
+    
+    /**
+     * Creates a series of images.
+     * 
+     * @param pixel_type Type of the pixel arrays.
+     * @param width Image width in pixels.
+     * @param height Image height in pixels.
+     * @param count Number of images.
+     * @param seed Seed of the random generator.
+     * @return The images as 1D pixel arrays (byte[], short[] or float[]).
+     */
+    public static Object[] createImages(PixelType pixel_type, int width, int height,
+            int count, long seed) {
+        Random random = new Random(seed);
+        Object[] images = new Object[count];
+        for (int i = 0; i < count; i++) {
+            images[i] = createImage(pixel_type, width, height, random);
+        }
+        return images;
+    }
+    
+    /**
+     * Creates an image.
+     * 
+     * @param pixel_type Type of the pixel array.
+     * @param width Image width in pixels.
+     * @param height Image height in pixels.
+     * @param random Source of the noise and spot positions.
+     * @return The image as a 1D pixel array (byte[], short[] or float[]).
+     */
+    public static Object createImage(PixelType pixel_type, int width, int height,
+            Random random) {
+        double[] intensity = new double[width * height];
+        for (int i = 0; i < intensity.length; i++) {
+            intensity[i] = BACKGROUND + NOISE_SIGMA * random.nextGaussian();
+        }
+        int spot_count = (int) ((long) SPOTS_PER_TILE * width * height / (256 * 256));
+        for (int s = 0; s < spot_count; s++) {
+            double cx = random.nextDouble() * width;
+            double cy = random.nextDouble() * height;
+            int x0 = Math.max(0, (int) cx - SPOT_RADIUS);
+            int x1 = Math.min(width - 1, (int) cx + SPOT_RADIUS);
+            int y0 = Math.max(0, (int) cy - SPOT_RADIUS);
+            int y1 = Math.min(height - 1, (int) cy + SPOT_RADIUS);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    double dx = x - cx;
+                    double dy = y - cy;
+                    intensity[y * width + x] += SPOT_AMPLITUDE *
+                            Math.exp(-(dx * dx + dy * dy) / (2 * SPOT_SIGMA * SPOT_SIGMA));
+                }
+            }
+        }
+        return toPixelArray(pixel_type, intensity);
+    }
+    
+    private static Object toPixelArray(PixelType pixel_type, double[] intensity) {
+        switch (pixel_type) {
+            case BYTE:
+                // scale into the 8-bit range
+                byte[] bytes = new byte[intensity.length];
+                for (int i = 0; i < intensity.length; i++) {
+                    bytes[i] = (byte) clamp(intensity[i] / 4.0, 255);
+                }
+                return bytes;
+            case SHORT:
+                short[] shorts = new short[intensity.length];
+                for (int i = 0; i < intensity.length; i++) {
+                    shorts[i] = (short) clamp(intensity[i], 65535);
+                }
+                return shorts;
+            case FLOAT:
+                float[] floats = new float[intensity.length];
+                for (int i = 0; i < intensity.length; i++) {
+                    floats[i] = (float) Math.max(0.0, intensity[i]);
+                }
+                return floats;
+            default:
+                throw new IllegalArgumentException("Unsupported pixel type " + pixel_type);
+        }
+    }
+    
+    private static int clamp(double value, int max) {
+        return (int) Math.max(0, Math.min(max, Math.round(value)));
+    }
+}
@@ -19,55 +19,504 @@
  */
 package ch.epfl.leb.alica.interfaces;
 
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicy;
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicyAware;
+import ch.epfl.leb.alica.interfaces.plugins.PluginDiscovery;
+import ch.epfl.leb.alica.interfaces.plugins.PluginListener;
 import ij.IJ;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
 
 /**
  * A template for factories that are set up using a JPanel.
  * 
  * This template is currently used by the Analyzer and Controller interfaces.
  * 
+ * Products found by a {@link PluginDiscovery} are registered and
+ * unregistered when their plugin jar is loaded or unloaded, e.g. by a
+ * {@link ch.epfl.leb.alica.interfaces.plugins.PluginWatcher}, and
+ * {@link ProductChangeListener}s are notified. The selection is kept by
+ * name, so a product whose jar is updated stays selected.
+ * 
  * @author Marcel Stefko
  * @param <ProductSetupPanel> A JPanel for setting up the parameters.
  */
 public abstract class AbstractFactory<ProductSetupPanel> {
     
+    /**
+     * System property which enables the instrumentation of the built
+     * products by default when set to true.
+     */
+    public static final String INSTRUMENTATION_PROPERTY = "alica.instrumentation";
+    
     /**
      * The name of analyzer/controller.
      */
     String selected_name;
     
     /**
-     * A map of names and setup panels.
+     * Whether built products are wrapped to record their latencies.
+     */
+    private boolean instrumented = Boolean.getBoolean(INSTRUMENTATION_PROPERTY);
+    
+    /**
+     * The policy passed to the built products, or null for the default one.
+     */
+    private volatile ExecutionPolicy execution_policy = null;
+    
+    /**
+     * A map of names and product descriptors. Setup panels are only created
+     * once they are needed.
+     */
+    private final LinkedHashMap<String, ProductDescriptor<ProductSetupPanel>> products;
+    
+    /**
+     * A map of names and builders, which create products without a setup
+     * panel.
+     */
+    private final LinkedHashMap<String, ProductBuilder> builders;
+    
+    /**
+     * Names of the products and builders of each plugin jar.
+     */
+    private final HashMap<File, List<String>> jar_products;
+    private final HashMap<File, List<String>> jar_builders;
+    
+    /**
+     * Listeners registered with plugin discoveries, which only keep weak
+     * references to them.
+     */
+    private final List<PluginListener> plugin_listeners;
+    
+    private final CopyOnWriteArrayList<ProductChangeListener> change_listeners;
+    
+    /**
+     * Completes when the products were discovered.
      */
-    private final LinkedHashMap<String, ProductSetupPanel> setup_panels;
+    private volatile Future<Void> discovery_future;
     
     /**
-     * Initializes the map which stores different setup panels.
+     * Initializes the maps which store different setup panels and builders.
      */
     public AbstractFactory() {
-        setup_panels = new LinkedHashMap<String, ProductSetupPanel>();
+        products = new LinkedHashMap<String, ProductDescriptor<ProductSetupPanel>>();
+        builders = new LinkedHashMap<String, ProductBuilder>();
+        jar_products = new HashMap<File, List<String>>();
+        jar_builders = new HashMap<File, List<String>>();
+        plugin_listeners = new CopyOnWriteArrayList<PluginListener>();
+        change_listeners = new CopyOnWriteArrayList<ProductChangeListener>();
+        FutureTask<Void> done = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        done.run();
+        discovery_future = done;
+    }
+    
+    /**
+     * Runs the discovery of the products on a new background thread.
+     * Products appear in {@link #getProductNameList()} and are reported to
+     * the {@link ProductChangeListener}s as they are found.
+     * 
+     * @param discovery Adds the discovered products and builders.
+     */
+    protected void discoverInBackground(final Runnable discovery) {
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    discovery.run();
+                } catch (RuntimeException ex) {
+                    Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex);
+                    throw ex;
+                }
+            }
+        }, null);
+        discovery_future = task;
+        Thread thread = new Thread(task, "ALICA product discovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Returns a future which completes once all products were discovered.
+     * It is already done for factories which discovered their products in
+     * their constructor. Do not wait for it on the event dispatch thread,
+     * which the discovery needs to create setup panels.
+     * 
+     * @return The completion of the discovery.
+     */
+    public Future<Void> getDiscoveryFuture() {
+        return discovery_future;
+    }
+    
+    /**
+     * Registers a listener which is notified when products are added or
+     * removed.
+     * 
+     * @param listener The listener.
+     */
+    public void addProductChangeListener(ProductChangeListener listener) {
+        change_listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener.
+     * 
+     * @param listener The listener.
+     */
+    public void removeProductChangeListener(ProductChangeListener listener) {
+        change_listeners.remove(listener);
     }
     
+    /**
+     * Returns the name under which a setup panel is listed.
+     * 
+     * @param panel The setup panel of a product.
+     * @return ID of the product belonging to the panel.
+     */
+    protected abstract String getProductName(ProductSetupPanel panel);
+    
     /**
      * Adds a new setup panel to the list.
      * 
      * @param name ID of the product belonging to the panel and displayed in 
      * the GUI.
      * @param panel The JPanel to setup the analyzer/controller.
+     * @return False if a product with the same name already exists.
+     */
+    protected boolean addSetupPanel(String name, ProductSetupPanel panel) {
+        return addProduct(ProductDescriptor.ofInstance(name, panel));
+    }
+    
+    /**
+     * Adds a new product to the list without creating its setup panel.
+     * 
+     * @param descriptor The descriptor of the product.
+     * @return False if a product with the same name already exists.
+     */
+    protected boolean addProduct(ProductDescriptor<ProductSetupPanel> descriptor) {
+        String name = descriptor.getName();
+        synchronized (this) {
+            if (products.containsKey(name)) {
+                String message = "Unable to load " + name + " because such panel already exists.";
+                Logger.getLogger("Loading ALICA_ACpack").log(Level.SEVERE, message);
+                return false;
+            }
+            products.put(name, descriptor);
+        }
+        for (ProductChangeListener listener: change_listeners) {
+            listener.productAdded(this, name);
+        }
+        return true;
+    }
+    
+    /**
+     * Removes a product from the list.
+     * 
+     * @param name The product identifier.
+     */
+    protected void removeProduct(String name) {
+        synchronized (this) {
+            if (products.remove(name) == null) {
+                return;
+            }
+        }
+        for (ProductChangeListener listener: change_listeners) {
+            listener.productRemoved(this, name);
+        }
+    }
+    
+    /**
+     * Adds the products found by a plugin discovery.
+     * 
+     * Products whose name is cached in the plugin index are added without
+     * creating their setup panel. The other setup panels are created to
+     * obtain their name, which is then cached for the next startup. Without
+     * a display, setup panels are never created and such products are
+     * skipped; use a {@link ProductBuilder} instead.
+     * 
+     * The products are added jar by jar. If the discovery did not scan its
+     * jars yet, each jar is scanned when its turn comes.
+     * 
+     * @param discovery The plugin discovery.
+     * @param base The base class of the setup panels.
+     */
+    protected void addDiscoveredProducts(PluginDiscovery discovery, final Class<ProductSetupPanel> base) {
+        PluginListener listener = new PluginListener() {
+            @Override
+            public void jarLoaded(PluginDiscovery discovery, File jar) {
+                for (Class<? extends ProductSetupPanel> c: discovery.getClasses(jar, base)) {
+                    addDiscoveredProduct(discovery, c);
+                }
+                discovery.saveIndex();
+            }
+            
+            @Override
+            public void jarUnloaded(PluginDiscovery discovery, File jar) {
+                for (String name: removeJar(jar_products, jar)) {
+                    removeProduct(name);
+                }
+            }
+        };
+        plugin_listeners.add(listener);
+        discovery.addPluginListener(listener);
+        // jar by jar, so that products are listed as soon as their jar is scanned
+        for (File jar: discovery.getJars()) {
+            for (Class<? extends ProductSetupPanel> c: discovery.getClasses(jar, base)) {
+                addDiscoveredProduct(discovery, c);
+            }
+        }
+        discovery.saveIndex();
+    }
+    
+    /**
+     * Adds a discovered product, creating its setup panel to obtain its name
+     * if it is not cached.
+     */
+    private void addDiscoveredProduct(PluginDiscovery discovery, Class<? extends ProductSetupPanel> c) {
+        String name = discovery.getCachedName(c);
+        if (name != null) {
+            if (addProduct(ProductDescriptor.<ProductSetupPanel>ofClass(name, c))) {
+                addToJar(jar_products, discovery.getJar(c), name);
+            }
+            return;
+        }
+        if (GraphicsEnvironment.isHeadless()) {
+            Logger.getLogger(AbstractFactory.class.getName()).log(Level.INFO,
+                    "Skipping setup panel " + c.getName() + " in headless mode.");
+            return;
+        }
+        ProductSetupPanel panel = createSetupPanel(c);
+        if (panel == null) {
+            return;
+        }
+        name = getProductName(panel);
+        discovery.cacheName(c, name);
+        if (addSetupPanel(name, panel)) {
+            addToJar(jar_products, discovery.getJar(c), name);
+        }
+    }
+    
+    /**
+     * Creates a setup panel on the event dispatch thread, as Swing
+     * components must not be created on the discovery thread.
+     * 
+     * @return The setup panel, or null if it could not be created.
+     */
+    private ProductSetupPanel createSetupPanel(final Class<? extends ProductSetupPanel> c) {
+        final ArrayList<ProductSetupPanel> retval = new ArrayList<ProductSetupPanel>(1);
+        Runnable create = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retval.add(c.newInstance());
+                } catch (InstantiationException ex) {
+                    Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex);
+                } catch (IllegalAccessException ex) {
+                    Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        };
+        if (SwingUtilities.isEventDispatchThread()) {
+            create.run();
+        } else {
+            try {
+                SwingUtilities.invokeAndWait(create);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (InvocationTargetException ex) {
+                Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                return null;
+            }
+        }
+        return retval.isEmpty() ? null : retval.get(0);
+    }
+    
+    /**
+     * Adds a builder, which creates the product without a setup panel.
+     * 
+     * @param builder The builder, listed under its name.
+     * @return False if a builder with the same name already exists.
      */
-    protected void addSetupPanel(String name, ProductSetupPanel panel) {
-        if (setup_panels.containsKey(name)) {
-            String message = "Unable to load " + name + " because such panel already exists.";
+    protected synchronized boolean addBuilder(ProductBuilder builder) {
+        String name = builder.getName();
+        if (builders.containsKey(name)) {
+            String message = "Unable to load " + name + " because such builder already exists.";
             Logger.getLogger("Loading ALICA_ACpack").log(Level.SEVERE, message);
+            return false;
+        }
+        builders.put(name, builder);
+        return true;
+    }
+    
+    /**
+     * Adds the builders found by a plugin discovery.
+     * 
+     * @param discovery The plugin discovery.
+     * @param base The base class of the builders.
+     */
+    protected void addDiscoveredBuilders(PluginDiscovery discovery, final Class<? extends ProductBuilder> base) {
+        PluginListener listener = new PluginListener() {
+            @Override
+            public void jarLoaded(PluginDiscovery discovery, File jar) {
+                for (Class<? extends ProductBuilder> c: discovery.getClasses(jar, base)) {
+                    addDiscoveredBuilder(discovery, c);
+                }
+            }
+            
+            @Override
+            public void jarUnloaded(PluginDiscovery discovery, File jar) {
+                List<String> names = removeJar(jar_builders, jar);
+                synchronized (AbstractFactory.this) {
+                    for (String name: names) {
+                        builders.remove(name);
+                    }
+                }
+            }
+        };
+        plugin_listeners.add(listener);
+        discovery.addPluginListener(listener);
+        for (File jar: discovery.getJars()) {
+            for (Class<? extends ProductBuilder> c: discovery.getClasses(jar, base)) {
+                addDiscoveredBuilder(discovery, c);
+            }
+        }
+    }
+    
+    private void addDiscoveredBuilder(PluginDiscovery discovery, Class<? extends ProductBuilder> c) {
+        ProductBuilder builder;
+        try {
+            builder = c.newInstance();
+        } catch (InstantiationException ex) {
+            Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        } catch (IllegalAccessException ex) {
+            Logger.getLogger(AbstractFactory.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        if (addBuilder(builder)) {
+            addToJar(jar_builders, discovery.getJar(c), builder.getName());
+        }
+    }
+    
+    private synchronized void addToJar(HashMap<File, List<String>> names, File jar, String name) {
+        if (jar == null) {
             return;
         }
-        setup_panels.put(name, panel);
+        List<String> list = names.get(jar);
+        if (list == null) {
+            list = new ArrayList<String>();
+            names.put(jar, list);
+        }
+        list.add(name);
+    }
+    
+    private synchronized List<String> removeJar(HashMap<File, List<String>> names, File jar) {
+        List<String> retval = names.remove(jar);
+        return retval == null ? Collections.<String>emptyList() : retval;
+    }
+    
+    /**
+     * Returns the names of the products which can be built without a setup
+     * panel.
+     * 
+     * @return The names of all builders.
+     */
+    public synchronized Set<String> getBuilderNameList() {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(builders.keySet()));
+    }
+    
+    /**
+     * Returns a builder.
+     * 
+     * @param <B> Type of the builder.
+     * @param name The product identifier.
+     * @param type The builder class of the factory.
+     * @return The builder of the product.
+     * @throws IllegalArgumentException If there is no such builder.
+     */
+    protected synchronized <B extends ProductBuilder> B getBuilder(String name, Class<B> type) {
+        ProductBuilder builder = builders.get(name);
+        if (builder == null) {
+            throw new IllegalArgumentException("No such builder: "+name);
+        }
+        return type.cast(builder);
+    }
+    
+    /**
+     * Sets whether the built products are wrapped in a decorator which
+     * records latency histograms and counters of their calls and exposes
+     * them over JMX. Defaults to the alica.instrumentation system property.
+     * 
+     * @param instrumented True to instrument the products built from now on.
+     * @see ch.epfl.leb.alica.interfaces.metrics.InstrumentedAnalyzer
+     * @see ch.epfl.leb.alica.interfaces.metrics.InstrumentedController
+     */
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+    
+    /**
+     * Sets the execution policy under which the built products run.
+     * 
+     * @param policy The policy, or null for the default execution policy.
+     * @see ExecutionPolicyAware
+     */
+    public void setExecutionPolicy(ExecutionPolicy policy) {
+        this.execution_policy = policy;
+    }
+    
+    /**
+     * Returns the execution policy under which the built products run.
+     * 
+     * @return The policy of the factory, or the default one.
+     */
+    public ExecutionPolicy getExecutionPolicy() {
+        ExecutionPolicy policy = execution_policy;
+        return policy == null ? ExecutionPolicy.getDefault() : policy;
+    }
+    
+    /**
+     * Passes the execution policy of the factory to a built product, if it
+     * implements {@link ExecutionPolicyAware}.
+     * 
+     * @param <T> Type of the product.
+     * @param product The built product.
+     * @return The product.
+     */
+    protected <T> T applyExecutionPolicy(T product) {
+        if (product instanceof ExecutionPolicyAware) {
+            ((ExecutionPolicyAware) product).setExecutionPolicy(getExecutionPolicy());
+        }
+        return product;
+    }
+    
+    /**
+     * Returns whether the built products are instrumented.
+     * 
+     * @return True if the products are wrapped to record their latencies.
+     */
+    public boolean isInstrumented() {
+        return instrumented;
     }
     
     /**
@@ -75,26 +524,52 @@ public abstract class AbstractFactory<ProductSetupPanel> {
      * 
      * @return The name of currently selected product.
      */
-    public String getSelectedProductName() {
+    public synchronized String getSelectedProductName() {
         return selected_name;
     }
     
     /**
      * Returns a list of all possible analyzer/controller names.
      * 
+     * The returned set is a snapshot; products added or removed later are
+     * reported to the {@link ProductChangeListener}s.
+     * 
      * @return A list of all possible product keys.
      */
-    public Set<String> getProductNameList() {
-        return setup_panels.keySet();
+    public synchronized Set<String> getProductNameList() {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(products.keySet()));
+    }
+    
+    /**
+     * Returns the descriptor of a product, without creating its setup panel.
+     * 
+     * @param name The product identifier.
+     * @return The descriptor of the product, or null if there is no such
+     * product.
+     */
+    public synchronized ProductDescriptor<ProductSetupPanel> getProductDescriptor(String name) {
+        return products.get(name);
     }
     
     /**
      * Returns a group of all the possible setup panels for the available analyzers/controllers.
      * 
+     * This creates the setup panels of all products. Use
+     * {@link #getProductNameList()} and {@link #getSelectedSetupPanel()} if
+     * only the selected one is needed.
+     * 
      * @return A collection of all possible product setup panels.
      */
     public Collection<ProductSetupPanel> getProductSetupPanelCollection() {
-        return setup_panels.values();
+        ArrayList<ProductDescriptor<ProductSetupPanel>> descriptors;
+        synchronized (this) {
+            descriptors = new ArrayList<ProductDescriptor<ProductSetupPanel>>(products.values());
+        }
+        ArrayList<ProductSetupPanel> retval = new ArrayList<ProductSetupPanel>();
+        for (ProductDescriptor<ProductSetupPanel> descriptor: descriptors) {
+            retval.add(descriptor.getSetupPanel());
+        }
+        return retval;
     }
     
     /**
@@ -102,12 +577,12 @@ public abstract class AbstractFactory<ProductSetupPanel> {
      * 
      * @param name The product identifier.
      */
-    public void selectProduct(String name) {
+    public synchronized void selectProduct(String name) {
         if (name == null) {
             selected_name = null;
             return;
         }
-        if (!setup_panels.containsKey(name)) {
+        if (!products.containsKey(name)) {
             throw new IllegalArgumentException("No such product: "+name);
         }
         selected_name = name;
@@ -116,11 +591,20 @@ public abstract class AbstractFactory<ProductSetupPanel> {
     /**
      * Returns the setup panel of the currently selected analyzer/controller.
      * 
+     * The setup panel is created when it is first requested.
+     * 
      * @return The setup panel of currently selected analyzer/product.
      */
     public ProductSetupPanel getSelectedSetupPanel() {
-        if (selected_name==null)
+        ProductDescriptor<ProductSetupPanel> descriptor;
+        synchronized (this) {
+            if (selected_name==null)
+                return null;
+            descriptor = products.get(selected_name);
+        }
+        // the product may have been removed with its plugin jar
+        if (descriptor == null)
             return null;
-        return setup_panels.get(selected_name);
+        return descriptor.getSetupPanel();
     }
 }
@@ -38,12 +38,20 @@ public interface Analyzer {
      * Processes an image and adjust the analyzer's internal state to reflect the results of the calculation.
      * 
      * This method is called after each new image acquisition by the
-     * AnalysisWorker. You can use the synchronized(this) statement within the
-     * body of an implementation of an Analyzer to ensure that no output readout
-     * happens during code execution.
+     * AnalysisWorker, or asynchronously by the analysis thread of a
+     * {@link ch.epfl.leb.alica.interfaces.frames.FramePipeline}. In both cases
+     * it is only called from a single thread at a time. You can use the
+     * synchronized(this) statement within the body of an implementation of an
+     * Analyzer to ensure that no output readout happens during code execution.
+     * Analyzers extending
+     * {@link ch.epfl.leb.alica.interfaces.analyzers.AbstractPublishingAnalyzer}
+     * instead publish their results without locking, so that readers never
+     * wait for the analysis of a frame.
      * 
      * When implementing new Analyzers, try to keep the computation time as
-     * short as possible.
+     * short as possible. Analyzers which implement
+     * {@link ch.epfl.leb.alica.interfaces.frames.FrameAnalyzer} can also be
+     * fed with frames backed by native buffers, without a copy to a Java array.
      * 
      * @param image The image to be processed as 1D raw pixel data.
      * @param image_width Image width in pixels.
@@ -88,6 +96,10 @@ public interface Analyzer {
     /**
      * Sets the region of interest in the image so that only a portion of the whole image is analyzed.
      * 
+     * Implementations can keep the ROI in a
+     * {@link ch.epfl.leb.alica.interfaces.analyzers.RoiMaskCache} to loop
+     * over the covered pixels without testing each of them.
+     * 
      * @param roi The Roi object corresponding to the region.
      * @see ij.gui.Roi
      */
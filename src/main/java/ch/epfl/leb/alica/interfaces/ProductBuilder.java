@@ -0,0 +1,53 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces;
+
+/**
+ * Builds a product from parameters, without a setup panel.
+ * 
+ * Builders are the headless counterpart of the setup panels: they do not
+ * depend on Swing, so analyzers and controllers can be configured from a
+ * properties file on machines without a display. Plugins are discovered in
+ * the same way as setup panels.
+ * 
+ * @author Marcel Stefko
+ * @see ch.epfl.leb.alica.interfaces.analyzers.AnalyzerBuilder
+ * @see ch.epfl.leb.alica.interfaces.controllers.ControllerBuilder
+ */
+public abstract class ProductBuilder {
+    
+    /**
+     * Returns the name of the product. A product which also has a setup
+     * panel should use the same name.
+     * 
+     * @return ID of the product.
+     */
+    public abstract String getName();
+    
+    /**
+     * Returns the parameters understood by the builder, set to their
+     * default values.
+     * 
+     * @return The default parameters, empty unless overridden.
+     */
+    public ProductParameters getDefaultParameters() {
+        return new ProductParameters();
+    }
+}
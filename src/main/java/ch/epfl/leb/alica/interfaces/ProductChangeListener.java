@@ -0,0 +1,49 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces;
+
+/**
+ * Notified when products are added to or removed from a factory, e.g. to
+ * update the product list of the GUI when a plugin jar is loaded.
+ * 
+ * Callbacks may come from any thread; Swing components must be updated on
+ * the event dispatch thread.
+ * 
+ * @author Marcel Stefko
+ */
+public interface ProductChangeListener {
+    
+    /**
+     * Called after a product was added.
+     * 
+     * @param factory The factory listing the product.
+     * @param name Name of the product.
+     */
+    public void productAdded(AbstractFactory<?> factory, String name);
+    
+    /**
+     * Called after a product was removed, e.g. because its plugin jar was
+     * removed or updated.
+     * 
+     * @param factory The factory which listed the product.
+     * @param name Name of the product.
+     */
+    public void productRemoved(AbstractFactory<?> factory, String name);
+}
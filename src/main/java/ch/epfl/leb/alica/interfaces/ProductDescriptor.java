@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces;
+
+/**
+ * Describes a product of a factory without creating its setup panel.
+ *
+ * The setup panel is created by the supplier when it is first requested, and
+ * the same panel is returned afterwards.
+ *
+ * @author Marcel Stefko
+ * @param <ProductSetupPanel> A JPanel for setting up the parameters.
+ */
+public class ProductDescriptor<ProductSetupPanel> {
+
+    /**
+     * The name of the product, as displayed in the GUI.
+     */
+    private final String name;
+
+    /**
+     * The class of the setup panel.
+     */
+    private final Class<?> product_class;
+
+    /**
+     * Creates the setup panel on demand.
+     */
+    private final ProductSupplier<? extends ProductSetupPanel> supplier;
+
+    /**
+     * The setup panel, once it was created.
+     */
+    private ProductSetupPanel setup_panel = null;
+
+    /**
+     * Initializes the descriptor.
+     *
+     * @param name ID of the product displayed in the GUI.
+     * @param product_class The class of the setup panel.
+     * @param supplier Creates the setup panel when it is first needed.
+     */
+    public ProductDescriptor(String name, Class<?> product_class,
+            ProductSupplier<? extends ProductSetupPanel> supplier) {
+        if (name == null || product_class == null || supplier == null) {
+            throw new NullPointerException();
+        }
+        this.name = name;
+        this.product_class = product_class;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Describes a product whose setup panel was already created.
+     *
+     * @param <ProductSetupPanel> A JPanel for setting up the parameters.
+     * @param name ID of the product displayed in the GUI.
+     * @param setup_panel The setup panel of the product.
+     * @return The descriptor of the product.
+     */
+    public static <ProductSetupPanel> ProductDescriptor<ProductSetupPanel> ofInstance(
+            String name, final ProductSetupPanel setup_panel) {
+        ProductDescriptor<ProductSetupPanel> retval = new ProductDescriptor<ProductSetupPanel>(
+                name, setup_panel.getClass(), new ProductSupplier<ProductSetupPanel>() {
+            @Override
+            public ProductSetupPanel create() {
+                return setup_panel;
+            }
+        });
+        retval.setup_panel = setup_panel;
+        return retval;
+    }
+
+    /**
+     * Describes a product whose setup panel is created with the public no-arg
+     * constructor of its class.
+     *
+     * @param <ProductSetupPanel> A JPanel for setting up the parameters.
+     * @param name ID of the product displayed in the GUI.
+     * @param product_class The class of the setup panel.
+     * @return The descriptor of the product.
+     */
+    public static <ProductSetupPanel> ProductDescriptor<ProductSetupPanel> ofClass(
+            String name, final Class<? extends ProductSetupPanel> product_class) {
+        return new ProductDescriptor<ProductSetupPanel>(name, product_class,
+                new ProductSupplier<ProductSetupPanel>() {
+            @Override
+            public ProductSetupPanel create() {
+                try {
+                    return product_class.newInstance();
+                } catch (InstantiationException ex) {
+                    throw new IllegalStateException("Unable to create " + product_class.getName(), ex);
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException("Unable to create " + product_class.getName(), ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the name of the product.
+     *
+     * @return ID of the product displayed in the GUI.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the class of the setup panel, without creating it.
+     *
+     * @return The class of the setup panel.
+     */
+    public Class<?> getProductClass() {
+        return product_class;
+    }
+
+    /**
+     * Returns the setup panel, creating it if this was not done yet.
+     *
+     * @return The setup panel of the product.
+     * @throws IllegalStateException If the setup panel can not be created.
+     */
+    public synchronized ProductSetupPanel getSetupPanel() {
+        if (setup_panel == null) {
+            setup_panel = supplier.create();
+        }
+        return setup_panel;
+    }
+
+    /**
+     * Returns whether the setup panel was already created.
+     *
+     * @return True if {@link #getSetupPanel()} will not create a new panel.
+     */
+    public synchronized boolean isSetupPanelCreated() {
+        return setup_panel != null;
+    }
+}
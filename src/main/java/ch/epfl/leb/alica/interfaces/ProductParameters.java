@@ -0,0 +1,269 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Parameters of an analyzer or controller built without its setup panel.
+ * 
+ * Values are stored as given, and converted by the typed getters. Values
+ * read from a properties file are strings, which are parsed when they are
+ * requested, so both sources can be used the same way.
+ * 
+ * @author Marcel Stefko
+ * @see ProductBuilder
+ */
+public class ProductParameters {
+    
+    private final LinkedHashMap<String, Object> values;
+    
+    /**
+     * Creates an empty set of parameters.
+     */
+    public ProductParameters() {
+        values = new LinkedHashMap<String, Object>();
+    }
+    
+    /**
+     * Creates parameters from properties.
+     * 
+     * @param properties The properties to copy.
+     */
+    public ProductParameters(Properties properties) {
+        this();
+        for (String key: properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key));
+        }
+    }
+    
+    /**
+     * Reads parameters from a properties file.
+     * 
+     * @param file The properties file.
+     * @return The parameters.
+     * @throws IOException If the file can not be read.
+     */
+    public static ProductParameters load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new ProductParameters(properties);
+    }
+    
+    /**
+     * Returns the parameters whose key starts with a prefix, with the prefix
+     * removed. This allows a single file to configure several products,
+     * e.g. with "analyzer." and "controller." prefixes.
+     * 
+     * @param prefix The prefix of the keys.
+     * @return The matching parameters.
+     */
+    public ProductParameters subset(String prefix) {
+        ProductParameters retval = new ProductParameters();
+        for (String key: values.keySet()) {
+            if (key.startsWith(prefix)) {
+                retval.values.put(key.substring(prefix.length()), values.get(key));
+            }
+        }
+        return retval;
+    }
+    
+    /**
+     * Sets a parameter.
+     * 
+     * @param key The name of the parameter.
+     * @param value A String, Number or Boolean.
+     */
+    public void put(String key, Object value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        values.put(key, value);
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return True if the parameter is set.
+     */
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+    
+    /**
+     * @return The names of the set parameters, in insertion order.
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return The value as a string.
+     * @throws IllegalArgumentException If the parameter is not set.
+     */
+    public String getString(String key) {
+        return String.valueOf(getValue(key));
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @param default_value Returned if the parameter is not set.
+     * @return The value as a string.
+     */
+    public String getString(String key, String default_value) {
+        return containsKey(key) ? getString(key) : default_value;
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return The value as a double.
+     * @throws IllegalArgumentException If the parameter is not set or is not
+     * a number.
+     */
+    public double getDouble(String key) {
+        Object value = getValue(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter " + key + " is not a number: " + value, ex);
+        }
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @param default_value Returned if the parameter is not set.
+     * @return The value as a double.
+     * @throws IllegalArgumentException If the parameter is not a number.
+     */
+    public double getDouble(String key, double default_value) {
+        return containsKey(key) ? getDouble(key) : default_value;
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return The value as a long.
+     * @throws IllegalArgumentException If the parameter is not set or is not
+     * an integer.
+     */
+    public long getLong(String key) {
+        Object value = getValue(key);
+        if (value instanceof Long || value instanceof Integer ||
+                value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter " + key + " is not an integer: " + value, ex);
+        }
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @param default_value Returned if the parameter is not set.
+     * @return The value as a long.
+     * @throws IllegalArgumentException If the parameter is not an integer.
+     */
+    public long getLong(String key, long default_value) {
+        return containsKey(key) ? getLong(key) : default_value;
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return The value as an int.
+     * @throws IllegalArgumentException If the parameter is not set or is not
+     * an int.
+     */
+    public int getInt(String key) {
+        long value = getLong(key);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Parameter " + key + " is out of range: " + value);
+        }
+        return (int) value;
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @param default_value Returned if the parameter is not set.
+     * @return The value as an int.
+     * @throws IllegalArgumentException If the parameter is not an int.
+     */
+    public int getInt(String key, int default_value) {
+        return containsKey(key) ? getInt(key) : default_value;
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @return The value as a boolean.
+     * @throws IllegalArgumentException If the parameter is not set or is
+     * neither true nor false.
+     */
+    public boolean getBoolean(String key) {
+        Object value = getValue(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        String text = value.toString().trim();
+        if (text.equalsIgnoreCase("true")) {
+            return true;
+        } else if (text.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Parameter " + key + " is not a boolean: " + value);
+    }
+    
+    /**
+     * @param key The name of the parameter.
+     * @param default_value Returned if the parameter is not set.
+     * @return The value as a boolean.
+     * @throws IllegalArgumentException If the parameter is not a boolean.
+     */
+    public boolean getBoolean(String key, boolean default_value) {
+        return containsKey(key) ? getBoolean(key) : default_value;
+    }
+    
+    private Object getValue(String key) {
+        Object value = values.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + key);
+        }
+        return value;
+    }
+    
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
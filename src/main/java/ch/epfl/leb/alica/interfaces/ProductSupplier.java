@@ -0,0 +1,37 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces;
+
+/**
+ * Creates the setup panel of a product when it is first needed.
+ * 
+ * @author Marcel Stefko
+ * @param <ProductSetupPanel> The type of the created setup panel.
+ * @see ProductDescriptor
+ */
+public interface ProductSupplier<ProductSetupPanel> {
+    
+    /**
+     * Creates a new setup panel.
+     * 
+     * @return The created setup panel.
+     */
+    public ProductSetupPanel create();
+}
@@ -0,0 +1,269 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicy;
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicyAware;
+import ch.epfl.leb.alica.interfaces.frames.AbstractFrameAnalyzer;
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Base class for analyzers which process the tiles of each frame on a
+ * fork-join pool.
+ * 
+ * Subclasses implement {@link #analyzeTile(Frame, Tile)},
+ * {@link #mergeResults(Object, Object)} and
+ * {@link #acceptFrameResult(Object, Frame)}, plus the output methods of
+ * {@link ch.epfl.leb.alica.interfaces.Analyzer}. The tiles are computed once
+ * per frame size and ROI, and tiles which do not cover any pixel of the ROI
+ * are left out.
+ * 
+ * Unless a dedicated pool is given, the tiles are analyzed on the analysis
+ * pool of the {@link ExecutionPolicy} of the factory, or of the default
+ * policy.
+ * 
+ * @author Marcel Stefko
+ * @param <R> The type of the partial results.
+ */
+public abstract class AbstractParallelAnalyzer<R> extends AbstractFrameAnalyzer
+        implements ParallelAnalyzer<R>, ExecutionPolicyAware {
+    
+    /**
+     * Default edge length of the tiles in pixels.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+    
+    private volatile ForkJoinPool pool;
+    
+    /**
+     * Whether the pool was given to the constructor, in which case the
+     * execution policy does not replace it.
+     */
+    private final boolean dedicated_pool;
+    private volatile int tile_size = DEFAULT_TILE_SIZE;
+    private volatile int tile_overlap = 0;
+    
+    /**
+     * The current ROI and its mask.
+     */
+    private final RoiMaskCache roi_masks = new RoiMaskCache();
+    
+    // tiles of the last frame geometry
+    private List<Tile> tiles = null;
+    private RoiMask tiles_mask = null;
+    private int tiles_size = -1;
+    private int tiles_overlap = -1;
+    
+    /**
+     * Initializes the analyzer with the analysis pool of the default
+     * execution policy, shared by all parallel analyzers.
+     */
+    public AbstractParallelAnalyzer() {
+        this.pool = ExecutionPolicy.getDefault().getAnalysisPool();
+        this.dedicated_pool = false;
+    }
+    
+    /**
+     * Initializes the analyzer with a dedicated fork-join pool.
+     * 
+     * @param pool The pool the tiles are analyzed on.
+     */
+    public AbstractParallelAnalyzer(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException();
+        }
+        this.pool = pool;
+        this.dedicated_pool = true;
+    }
+    
+    /**
+     * Analyzes the tiles on the analysis pool of the policy, unless the
+     * analyzer was given a dedicated pool.
+     * 
+     * @param policy The execution policy.
+     */
+    @Override
+    public void setExecutionPolicy(ExecutionPolicy policy) {
+        if (!dedicated_pool) {
+            pool = policy.getAnalysisPool();
+        }
+    }
+    
+    /**
+     * Splits the frame into tiles, analyzes them in parallel and passes the
+     * merged result to {@link #acceptFrameResult(Object, Frame)}. Frames
+     * which do not intersect the ROI are ignored.
+     * 
+     * @param frame The frame to be processed.
+     */
+    @Override
+    public void processFrame(Frame frame) {
+        List<Tile> frame_tiles = getTiles(frame.getWidth(), frame.getHeight());
+        if (frame_tiles.isEmpty()) {
+            return;
+        }
+        R result = pool.invoke(new TileTask(frame, frame_tiles, 0, frame_tiles.size()));
+        acceptFrameResult(result, frame);
+    }
+    
+    /**
+     * Sets the region of interest. Only tiles covering some of its pixels
+     * are analyzed; analyzers with non-rectangular ROIs can restrict the
+     * analysis of a tile to the spans of {@link #getROIMask(int, int)}.
+     * Subclasses overriding this method must call it.
+     * 
+     * @param roi The Roi object corresponding to the region, or null for the
+     * whole frame.
+     */
+    @Override
+    public void setROI(Roi roi) {
+        roi_masks.setROI(roi);
+    }
+    
+    /**
+     * Returns the current region of interest.
+     * 
+     * @return The ROI, or null if the whole frame is analyzed.
+     */
+    public Roi getROI() {
+        return roi_masks.getROI();
+    }
+    
+    /**
+     * Returns the compiled mask of the current ROI for a frame size.
+     * 
+     * @param frame_width Frame width in pixels.
+     * @param frame_height Frame height in pixels.
+     * @return The mask, compiled only when the ROI or frame size changed.
+     */
+    public RoiMask getROIMask(int frame_width, int frame_height) {
+        return roi_masks.getMask(frame_width, frame_height);
+    }
+    
+    @Override
+    public int getTileSize() {
+        return tile_size;
+    }
+    
+    /**
+     * Sets the edge length of the core region of the tiles.
+     * 
+     * @param tile_size The tile size in pixels.
+     */
+    public void setTileSize(int tile_size) {
+        if (tile_size <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive.");
+        }
+        this.tile_size = tile_size;
+    }
+    
+    @Override
+    public int getTileOverlap() {
+        return tile_overlap;
+    }
+    
+    /**
+     * Sets by how much each tile is extended on every side.
+     * 
+     * @param tile_overlap The overlap in pixels.
+     */
+    public void setTileOverlap(int tile_overlap) {
+        if (tile_overlap < 0) {
+            throw new IllegalArgumentException("Tile overlap must not be negative.");
+        }
+        this.tile_overlap = tile_overlap;
+    }
+    
+    /**
+     * Returns the tiles of a frame of the given size, reusing those of the
+     * previous frame if nothing changed.
+     */
+    private List<Tile> getTiles(int width, int height) {
+        RoiMask mask = roi_masks.getMask(width, height);
+        int size = tile_size;
+        int overlap = tile_overlap;
+        if (tiles != null && mask == tiles_mask && size == tiles_size && overlap == tiles_overlap) {
+            return tiles;
+        }
+
+        ArrayList<Tile> retval = new ArrayList<Tile>();
+        if (!mask.isEmpty()) {
+            int index = 0;
+            int bottom = mask.getY() + mask.getHeight();
+            int right = mask.getX() + mask.getWidth();
+            for (int y = mask.getY(); y < bottom; y += size) {
+                int core_height = Math.min(size, bottom - y);
+                int y0 = Math.max(0, y - overlap);
+                int y1 = Math.min(height, y + core_height + overlap);
+                for (int x = mask.getX(); x < right; x += size) {
+                    int core_width = Math.min(size, right - x);
+                    if (!mask.intersects(x, y, core_width, core_height)) {
+                        continue;
+                    }
+                    int x0 = Math.max(0, x - overlap);
+                    int x1 = Math.min(width, x + core_width + overlap);
+                    retval.add(new Tile(index++, x0, y0, x1 - x0, y1 - y0,
+                            x, y, core_width, core_height));
+                }
+            }
+        }
+        tiles = retval;
+        tiles_mask = mask;
+        tiles_size = size;
+        tiles_overlap = overlap;
+        return tiles;
+    }
+    
+    /**
+     * Analyzes a range of tiles, splitting it in halves until single tiles
+     * remain, and merges the results in tile order.
+     */
+    @SuppressWarnings("serial")
+    private class TileTask extends RecursiveTask<R> {
+        private final Frame frame;
+        private final List<Tile> tiles;
+        private final int from;
+        private final int to;
+        
+        TileTask(Frame frame, List<Tile> tiles, int from, int to) {
+            this.frame = frame;
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                return analyzeTile(frame, tiles.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            TileTask second = new TileTask(frame, tiles, middle, to);
+            second.fork();
+            R first_result = new TileTask(frame, tiles, from, middle).compute();
+            return mergeResults(first_result, second.join());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+/**
+ * Base class for analyzers whose outputs are read without locking.
+ * 
+ * Instead of guarding their state with synchronized(this), subclasses
+ * compute one value per frame in processImage and pass it to
+ * {@link #publish(double, long)}. The GUI polling
+ * {@link #getIntermittentOutput()} and the controller calling
+ * {@link #getBatchOutput()} then never wait for the analysis of a frame, and
+ * the analysis never waits for them.
+ * 
+ * By default both outputs are the mean of the values published since the
+ * last batch; override {@link #reduce(OutputPublisher.Batch)} to report
+ * something else. The published values are also kept with their
+ * acquisition time in a {@link SampleRing}, from which a control loop can
+ * drain them with {@link #drainSamples(SampleBatch)}.
+ * 
+ * @author Marcel Stefko
+ */
+public abstract class AbstractPublishingAnalyzer implements SampleBatchAnalyzer {
+    
+    /**
+     * Default number of samples kept for {@link #drainSamples(SampleBatch)}.
+     */
+    public static final int DEFAULT_SAMPLE_CAPACITY = 1024;
+    
+    private final OutputPublisher publisher = new OutputPublisher();
+    private final SampleRing samples;
+    
+    /**
+     * Initializes the analyzer, keeping the last
+     * {@value #DEFAULT_SAMPLE_CAPACITY} samples.
+     */
+    public AbstractPublishingAnalyzer() {
+        this(DEFAULT_SAMPLE_CAPACITY);
+    }
+    
+    /**
+     * Initializes the analyzer.
+     * 
+     * @param sample_capacity Number of samples kept between two calls of
+     * {@link #drainSamples(SampleBatch)}.
+     */
+    public AbstractPublishingAnalyzer(int sample_capacity) {
+        this.samples = new SampleRing(sample_capacity);
+    }
+    
+    /**
+     * Publishes the value computed from a frame. Must only be called from
+     * processImage.
+     * 
+     * NaN marks a frame without a value: it is kept as an invalid sample for
+     * {@link #drainSamples(SampleBatch)}, but left out of the intermittent
+     * and batch outputs, as are infinite values.
+     * 
+     * @param value The value computed from the frame, or NaN if there is
+     * none.
+     * @param time_ms Acquisition time of the frame in milliseconds.
+     */
+    protected void publish(double value, long time_ms) {
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+            publisher.publish(value, time_ms);
+        }
+        samples.add(time_ms, value);
+    }
+    
+    /**
+     * Computes an output from a batch of published values.
+     * 
+     * @param batch The values published since the last batch output.
+     * @return The mean of the values, or NaN if the batch is empty.
+     */
+    protected double reduce(OutputPublisher.Batch batch) {
+        return batch.getMean();
+    }
+    
+    /**
+     * Returns the output of the values published since the last batch,
+     * without starting a new batch. If there are no new values, the last
+     * published value is returned.
+     * 
+     * @return The analyzer's current output value.
+     */
+    @Override
+    public double getIntermittentOutput() {
+        OutputPublisher.Batch batch = publisher.peek();
+        if (batch.getCount() == 0) {
+            return batch.getLastValue();
+        }
+        return reduce(batch);
+    }
+    
+    /**
+     * Returns the output of the values published since the last batch, and
+     * starts a new batch.
+     * 
+     * @return The analyzer's output value, or NaN if no frame was analyzed
+     * since the last call.
+     */
+    @Override
+    public double getBatchOutput() {
+        OutputPublisher.Batch batch = publisher.flush();
+        if (batch.getCount() == 0) {
+            return Double.NaN;
+        }
+        return reduce(batch);
+    }
+    
+    /**
+     * Drains the published samples and starts a new batch, so that
+     * {@link #getIntermittentOutput()} reports the values published since
+     * the last drain.
+     * 
+     * @param batch The caller's batch, cleared first.
+     * @return Number of samples in the batch.
+     */
+    @Override
+    public int drainSamples(SampleBatch batch) {
+        publisher.skip();
+        return samples.drainTo(batch);
+    }
+}
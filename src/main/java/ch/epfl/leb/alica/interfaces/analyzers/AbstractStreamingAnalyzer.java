@@ -0,0 +1,207 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.statistics.ExponentialMovingAverage;
+import ch.epfl.leb.alica.interfaces.statistics.QuantileEstimator;
+import ch.epfl.leb.alica.interfaces.statistics.SlidingWindow;
+
+/**
+ * Base class for analyzers which summarize per-frame values with streaming
+ * statistics instead of keeping every value until the next batch.
+ * 
+ * Subclasses compute one value per frame in processImage and pass it to
+ * {@link #addValue(double)}. Each value updates, in constant time and
+ * memory:
+ * <ul>
+ * <li>the mean and variance of the last window_size values,</li>
+ * <li>an exponential moving average,</li>
+ * <li>the count, mean, variance and an approximate quantile of the values
+ * since the last batch output.</li>
+ * </ul>
+ * 
+ * By default the intermittent output is the window mean and the batch output
+ * is the batch mean. Override {@link #computeIntermittentOutput()} and
+ * {@link #computeBatchOutput()} to report another statistic, e.g.
+ * {@link #getBatchQuantile()} for a median.
+ * 
+ * @author Marcel Stefko
+ */
+public abstract class AbstractStreamingAnalyzer implements Analyzer {
+    
+    /**
+     * Default number of values of the sliding window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    
+    private final SlidingWindow window;
+    private final ExponentialMovingAverage moving_average;
+    private final QuantileEstimator batch_quantile;
+    
+    private long batch_count = 0;
+    private double batch_mean = 0.0;
+    private double batch_m2 = 0.0;
+    
+    /**
+     * Initializes the statistics with a window of
+     * {@value #DEFAULT_WINDOW_SIZE} values, a moving average with a
+     * half-life of 10 values and the batch median.
+     */
+    public AbstractStreamingAnalyzer() {
+        this(DEFAULT_WINDOW_SIZE, ExponentialMovingAverage.alphaForHalfLife(10), 0.5);
+    }
+    
+    /**
+     * Initializes the statistics.
+     * 
+     * @param window_size Number of values of the sliding window.
+     * @param alpha Weight of each new value in the moving average.
+     * @param quantile Quantile of the batch values which is estimated, e.g.
+     * 0.5 for the median.
+     */
+    public AbstractStreamingAnalyzer(int window_size, double alpha, double quantile) {
+        this.window = new SlidingWindow(window_size);
+        this.moving_average = new ExponentialMovingAverage(alpha);
+        this.batch_quantile = new QuantileEstimator(quantile);
+    }
+    
+    /**
+     * Adds the value computed from a frame to the statistics. NaN values are
+     * ignored.
+     * 
+     * @param value The value computed from the frame.
+     */
+    protected synchronized void addValue(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        window.add(value);
+        moving_average.add(value);
+        batch_quantile.add(value);
+        batch_count++;
+        double delta = value - batch_mean;
+        batch_mean += delta / batch_count;
+        batch_m2 += delta * (value - batch_mean);
+    }
+    
+    /**
+     * @return The mean of the sliding window, or NaN if it is empty.
+     */
+    protected synchronized double getWindowMean() {
+        return window.getMean();
+    }
+    
+    /**
+     * @return The sample variance of the sliding window.
+     */
+    protected synchronized double getWindowVariance() {
+        return window.getVariance();
+    }
+    
+    /**
+     * @return The most recent value, or NaN if there is none.
+     */
+    protected synchronized double getLastValue() {
+        return window.getLast();
+    }
+    
+    /**
+     * @return The exponential moving average, or NaN if there is none.
+     */
+    protected synchronized double getMovingAverage() {
+        return moving_average.getValue();
+    }
+    
+    /**
+     * @return Number of values since the last batch output.
+     */
+    protected synchronized long getBatchCount() {
+        return batch_count;
+    }
+    
+    /**
+     * @return The mean of the values since the last batch output, or NaN.
+     */
+    protected synchronized double getBatchMean() {
+        return batch_count == 0 ? Double.NaN : batch_mean;
+    }
+    
+    /**
+     * @return The sample variance of the values since the last batch
+     * output, or NaN if there are less than two.
+     */
+    protected synchronized double getBatchVariance() {
+        return batch_count < 2 ? Double.NaN : batch_m2 / (batch_count - 1);
+    }
+    
+    /**
+     * @return The approximate quantile of the values since the last batch
+     * output, or NaN.
+     */
+    protected synchronized double getBatchQuantile() {
+        return batch_quantile.getValue();
+    }
+    
+    /**
+     * Computes the intermittent output. Called with the lock of the
+     * analyzer held.
+     * 
+     * @return The mean of the sliding window.
+     */
+    protected double computeIntermittentOutput() {
+        return getWindowMean();
+    }
+    
+    /**
+     * Computes the batch output, before the batch statistics are reset.
+     * Called with the lock of the analyzer held, and only if the batch is
+     * not empty.
+     * 
+     * @return The mean of the batch.
+     */
+    protected double computeBatchOutput() {
+        return getBatchMean();
+    }
+    
+    @Override
+    public synchronized double getIntermittentOutput() {
+        return computeIntermittentOutput();
+    }
+    
+    /**
+     * Returns the batch output and starts a new batch.
+     * 
+     * @return The analyzer's output value, or NaN if no value was added
+     * since the last call.
+     */
+    @Override
+    public synchronized double getBatchOutput() {
+        if (batch_count == 0) {
+            return Double.NaN;
+        }
+        double retval = computeBatchOutput();
+        batch_count = 0;
+        batch_mean = 0.0;
+        batch_m2 = 0.0;
+        batch_quantile.clear();
+        return retval;
+    }
+}
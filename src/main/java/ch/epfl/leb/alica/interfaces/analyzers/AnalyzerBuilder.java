@@ -0,0 +1,41 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.ProductBuilder;
+import ch.epfl.leb.alica.interfaces.ProductParameters;
+
+/**
+ * Builds an analyzer from parameters, without a setup panel.
+ * @author Marcel Stefko
+ * @see AnalyzerSetupPanel
+ */
+public abstract class AnalyzerBuilder extends ProductBuilder {
+    
+    /**
+     * Construct the analyzer from the given parameters.
+     * @param parameters parameters of the analyzer, missing ones take their
+     *  default value
+     * @return initialized analyzer
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    public abstract Analyzer build(ProductParameters parameters);
+}
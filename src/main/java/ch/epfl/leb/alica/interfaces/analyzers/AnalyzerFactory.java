@@ -21,18 +21,13 @@ package ch.epfl.leb.alica.interfaces.analyzers;
 
 import ch.epfl.leb.alica.interfaces.AbstractFactory;
 import ch.epfl.leb.alica.interfaces.Analyzer;
-import ij.io.PluginClassLoader;
-import java.io.File;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import ch.epfl.leb.alica.interfaces.ProductChangeListener;
+import ch.epfl.leb.alica.interfaces.ProductDescriptor;
+import ch.epfl.leb.alica.interfaces.ProductParameters;
+import ch.epfl.leb.alica.interfaces.metrics.InstrumentedAnalyzer;
+import ch.epfl.leb.alica.interfaces.plugins.PluginDiscovery;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.List;
 
 /**
  * Analyzer factory.
@@ -45,95 +40,101 @@ public class AnalyzerFactory extends AbstractFactory<AnalyzerSetupPanel>{
      */
     public AnalyzerFactory() {
         super();
-        for (AnalyzerSetupPanel sp: AnalyzerSetupPanelLoader.getAnalyzerSetupPanels()) {
-            addSetupPanel(sp.getName(), sp);
+        PluginDiscovery.getDefault().scan();
+        addDiscoveredProducts(PluginDiscovery.getDefault(), AnalyzerSetupPanel.class);
+        addDiscoveredBuilders(PluginDiscovery.getDefault(), AnalyzerBuilder.class);
+    }
+    
+    private AnalyzerFactory(ProductChangeListener listener) {
+        super();
+        if (listener != null) {
+            addProductChangeListener(listener);
         }
     }
     
+    /**
+     * Create a factory which discovers the analyzers on a background thread
+     * 
+     * The factory is returned immediately, e.g. so that the GUI can be shown
+     * while the plugin jars are scanned. Products appear in
+     * {@link #getProductNameList()} as their jar is scanned and are reported
+     * to the listener; {@link #getDiscoveryFuture()} completes when all jars
+     * were scanned. Setup panels whose name is not cached in the plugin index
+     * are created on the event dispatch thread, which the discovery thread
+     * waits for.
+     * @param listener notified of each discovered product, or null
+     * @return the factory, still discovering its products
+     */
+    public static AnalyzerFactory createInBackground(ProductChangeListener listener) {
+        final AnalyzerFactory retval = new AnalyzerFactory(listener);
+        retval.discoverInBackground(new Runnable() {
+            @Override
+            public void run() {
+                retval.addDiscoveredProducts(PluginDiscovery.getDefault(), AnalyzerSetupPanel.class);
+                retval.addDiscoveredBuilders(PluginDiscovery.getDefault(), AnalyzerBuilder.class);
+            }
+        });
+        return retval;
+    }
+    
+    @Override
+    protected String getProductName(AnalyzerSetupPanel panel) {
+        return panel.getName();
+    }
+    
     /**
      * Build the selected analyzer using current settings
+     * 
+     * The analyzer runs under the execution policy of the factory. If the
+     * factory is instrumented, the analyzer is wrapped in an
+     * {@link InstrumentedAnalyzer} whose metrics are registered over JMX.
      * @return initialized analyzer
      */
     public Analyzer build() {
-        return getSelectedSetupPanel().initAnalyzer();
+        return instrument(applyExecutionPolicy(getSelectedSetupPanel().initAnalyzer()));
     }
-}
-
-class AnalyzerSetupPanelLoader {
-    // I use this just to print jars in the working dir, whatever
-    private static PluginClassLoader class_loader = new PluginClassLoader("./");
     
     /**
-     * Dynamically loads AnalyzerSetupPanels from available jar files. 
-     * The jar filename MUST begin with "ALICA_" for the jar to be recognized.
-     * @return list of loaded setup panels
+     * Build an analyzer without its setup panel, e.g. on a headless machine
+     * @param name name of the analyzer builder
+     * @param parameters parameters of the analyzer
+     * @return initialized analyzer
+     * @see #getBuilderNameList()
      */
-    public static ArrayList<AnalyzerSetupPanel> getAnalyzerSetupPanels() {
-        
-        ArrayList<AnalyzerSetupPanel> retval = new ArrayList<AnalyzerSetupPanel>();
-        
-        // print urls of files in mmplugins folder
-        for (URL u: class_loader.getURLs()) {
-            // if it doesnt match desired filename, skip it
-            if (!u.toString().toUpperCase().contains("ALICA_") ||
-                !u.toString().contains(".jar")) {
-                continue;
-            } else if (u.toString().contains("ALICA_interfaces")) {
-                 //This prevents a non-critical error from being raised by
-                 //forcing the dynamic class loader to skip the interfaces .jar.
-                continue;
-            } else {
-                Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.FINE, "Loading ALICA analyzers from:\n" + u.toString());
-            }
-            
-            // open the jar file
-            JarFile jarFile = null;
-            try {
-                jarFile = new JarFile(new File(u.toURI()));
-            } catch (IOException ex) {
-                Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                continue;
-            } catch (URISyntaxException ex) {
-                Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                continue;
-            }
-
-            // list all entries, and initiate classloader
-            Enumeration<JarEntry> e = jarFile.entries();
-            URL[] urls = { u };
-            // it is vital to include a parent classloader from original ALICA package
-            URLClassLoader cl = URLClassLoader.newInstance(urls, AnalyzerSetupPanelLoader.class.getClassLoader());
-            
-            // iterate over entries, filter out those which arent a class
-            while (e.hasMoreElements()) {
-                JarEntry je = e.nextElement();
-                if(je.isDirectory() || !je.getName().endsWith(".class")){
-                    continue;
-                }
-                // remove .class from end of string
-                String className = je.getName().substring(0,je.getName().length()-6);
-                className = className.replace('/', '.');
-                Class c = null;
-                // try to load class
-                try {
-                    c = cl.loadClass(className);
-                } catch (ClassNotFoundException ex) {
-                    Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    continue;
-                }
-                
-                // verify that class is subclass of AnalyzerSetupPanel and add it
-                if (AnalyzerSetupPanel.class.isAssignableFrom(c)) {
-                    try {
-                        retval.add((AnalyzerSetupPanel) c.newInstance());
-                    } catch (InstantiationException ex) {
-                        Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (IllegalAccessException ex) {
-                        Logger.getLogger(AnalyzerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
+    public Analyzer build(String name, ProductParameters parameters) {
+        return instrument(applyExecutionPolicy(getBuilder(name, AnalyzerBuilder.class).build(parameters)));
+    }
+    
+    /**
+     * Build several analyzers which analyze the same frames in parallel,
+     * e.g. to compare them on one acquisition
+     * 
+     * The selected product is left unchanged. Each analyzer is built from
+     * its setup panel, and is instrumented on its own if the factory is
+     * instrumented. The analyzers run on the analysis pool of the execution
+     * policy of the factory.
+     * @param names names of the products
+     * @param reducer combines the outputs of the analyzers for the controller
+     * @return initialized composite analyzer
+     */
+    public CompositeAnalyzer buildComposite(List<String> names, OutputReducer reducer) {
+        ArrayList<Analyzer> analyzers = new ArrayList<Analyzer>();
+        for (String name: names) {
+            ProductDescriptor<AnalyzerSetupPanel> descriptor = getProductDescriptor(name);
+            if (descriptor == null) {
+                throw new IllegalArgumentException("No such product: " + name);
             }
+            analyzers.add(instrument(applyExecutionPolicy(descriptor.getSetupPanel().initAnalyzer())));
         }
-        return retval;
+        return CompositeAnalyzer.of(analyzers, reducer, getExecutionPolicy().getAnalysisPool());
+    }
+    
+    private Analyzer instrument(Analyzer analyzer) {
+        if (isInstrumented()) {
+            InstrumentedAnalyzer instrumented = InstrumentedAnalyzer.wrap(analyzer);
+            instrumented.registerMBean();
+            return instrumented;
+        }
+        return analyzer;
     }
 }
@@ -0,0 +1,378 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ch.epfl.leb.alica.interfaces.frames.FramePipeline;
+import ch.epfl.leb.alica.interfaces.frames.OverflowPolicy;
+import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Analyzes several streams, e.g. cameras or channels, concurrently.
+ * 
+ * Each stream gets its own analyzer, built by the analyzer factory from the
+ * selected setup panel, and its own {@link FramePipeline} with a dedicated
+ * analysis thread, so that the streams are analyzed in parallel. The batch
+ * outputs of the streams are combined by an {@link OutputReducer}.
+ * 
+ * The pool is itself an analyzer, whose outputs are the combined outputs of
+ * the streams, so it can be ticked by a
+ * {@link ch.epfl.leb.alica.interfaces.controllers.ControllerTickScheduler}
+ * like any other analyzer. Frames of a given stream are handed over with
+ * {@link #offer(String, Frame)}; images passed to
+ * {@link #processImage(Object, int, int, double, long)} go to the default
+ * stream, which is the first stream unless set otherwise.
+ * 
+ * @author Marcel Stefko
+ */
+public class AnalyzerPool implements Analyzer {
+    
+    private final AnalyzerFactory factory;
+    private final OutputReducer reducer;
+    private final int queue_capacity;
+    private final OverflowPolicy policy;
+    
+    /**
+     * The streams in the order they were added. Replaced on every change,
+     * so that outputs are read without locking.
+     */
+    private volatile Stream[] streams = new Stream[0];
+    private volatile String default_stream = null;
+    private boolean running = false;
+    
+    /**
+     * Reused by getBatchOutput, which is only called by the control loop.
+     */
+    private double[] batch_outputs = new double[0];
+    
+    /**
+     * Initializes an empty pool.
+     * 
+     * @param factory The factory building the analyzer of each stream with
+     * its selected product.
+     * @param reducer Combines the outputs of the streams.
+     * @param queue_capacity Number of frames which can be queued per stream.
+     * @param policy What to do with new frames when a queue is full.
+     */
+    public AnalyzerPool(AnalyzerFactory factory, OutputReducer reducer,
+            int queue_capacity, OverflowPolicy policy) {
+        if (factory == null || reducer == null || policy == null) {
+            throw new NullPointerException();
+        }
+        this.factory = factory;
+        this.reducer = reducer;
+        this.queue_capacity = queue_capacity;
+        this.policy = policy;
+    }
+    
+    /**
+     * Adds a stream and builds its analyzer. If the pool is running, the
+     * analysis thread of the stream is started right away.
+     * 
+     * @param name Unique name of the stream.
+     * @return The analyzer of the stream.
+     */
+    public synchronized Analyzer addStream(String name) {
+        if (getStream(name) != null) {
+            throw new IllegalArgumentException("Stream " + name + " already exists.");
+        }
+        Analyzer analyzer = factory.build();
+        Stream stream = new Stream(name, analyzer,
+                new FramePipeline(analyzer, queue_capacity, policy));
+        if (running) {
+            stream.pipeline.start();
+        }
+        Stream[] current = streams;
+        Stream[] retval = new Stream[current.length + 1];
+        System.arraycopy(current, 0, retval, 0, current.length);
+        retval[current.length] = stream;
+        streams = retval;
+        return analyzer;
+    }
+    
+    /**
+     * Stops the analysis of a stream, disposes its analyzer and removes it.
+     * 
+     * @param name Name of the stream.
+     * @throws InterruptedException If interrupted while waiting for the
+     * analysis thread of the stream.
+     */
+    public synchronized void removeStream(String name) throws InterruptedException {
+        Stream stream = getStream(name);
+        if (stream == null) {
+            return;
+        }
+        stream.pipeline.stop();
+        stream.analyzer.dispose();
+        ArrayList<Stream> retval = new ArrayList<Stream>();
+        for (Stream s: streams) {
+            if (s != stream) {
+                retval.add(s);
+            }
+        }
+        streams = retval.toArray(new Stream[retval.size()]);
+    }
+    
+    /**
+     * @return The names of the streams in the order they were added.
+     */
+    public List<String> getStreamNames() {
+        ArrayList<String> retval = new ArrayList<String>();
+        for (Stream stream: streams) {
+            retval.add(stream.name);
+        }
+        return retval;
+    }
+    
+    /**
+     * @param name Name of the stream.
+     * @return The analyzer of the stream, or null if there is no such stream.
+     */
+    public Analyzer getAnalyzer(String name) {
+        Stream stream = getStream(name);
+        return stream == null ? null : stream.analyzer;
+    }
+    
+    /**
+     * Returns the pipeline of a stream, e.g. to read its drop counters.
+     * 
+     * @param name Name of the stream.
+     * @return The pipeline of the stream, or null if there is no such stream.
+     */
+    public FramePipeline getPipeline(String name) {
+        Stream stream = getStream(name);
+        return stream == null ? null : stream.pipeline;
+    }
+    
+    /**
+     * Starts the analysis threads of all streams.
+     */
+    public synchronized void start() {
+        running = true;
+        for (Stream stream: streams) {
+            stream.pipeline.start();
+        }
+    }
+    
+    /**
+     * Stops the analysis threads of all streams.
+     * 
+     * @throws InterruptedException If interrupted while waiting for an
+     * analysis thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        for (Stream stream: streams) {
+            stream.pipeline.stop();
+        }
+    }
+    
+    /**
+     * Hands a frame of a stream over to its analysis. Each stream must be
+     * fed by a single thread, but different streams can be fed concurrently.
+     * 
+     * @param name Name of the stream.
+     * @param frame The frame; the pool releases it.
+     * @return False if the frame was dropped right away.
+     */
+    public boolean offer(String name, Frame frame) {
+        Stream stream = getStream(name);
+        if (stream == null) {
+            frame.release();
+            throw new IllegalArgumentException("No such stream: " + name);
+        }
+        return stream.pipeline.offer(frame);
+    }
+    
+    /**
+     * Sets the stream which receives the images passed to
+     * {@link #processImage(Object, int, int, double, long)}.
+     * 
+     * @param name Name of the stream, or null for the first stream.
+     */
+    public void setDefaultStream(String name) {
+        if (name != null && getStream(name) == null) {
+            throw new IllegalArgumentException("No such stream: " + name);
+        }
+        this.default_stream = name;
+    }
+    
+    /**
+     * @return Name of the stream receiving the images passed to
+     * {@link #processImage(Object, int, int, double, long)}, or null if the
+     * pool has no stream.
+     */
+    public String getDefaultStream() {
+        Stream stream = getDefault();
+        return stream == null ? null : stream.name;
+    }
+    
+    /**
+     * Hands an image over to the analysis of the default stream. The pixel
+     * array is wrapped without copy, so it must not be reused by the caller.
+     * 
+     * @throws IllegalStateException If the pool has no stream.
+     */
+    @Override
+    public void processImage(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        Stream stream = getDefault();
+        if (stream == null) {
+            throw new IllegalStateException("The pool has no stream.");
+        }
+        stream.pipeline.offer(Frame.wrap(image, image_width, image_height, pixel_size_um, time_ms));
+    }
+    
+    /**
+     * Combines the intermittent outputs of the streams.
+     * 
+     * @return The combined output.
+     */
+    @Override
+    public double getIntermittentOutput() {
+        Stream[] current = streams;
+        double[] outputs = new double[current.length];
+        for (int i = 0; i < current.length; i++) {
+            outputs[i] = current[i].analyzer.getIntermittentOutput();
+        }
+        return reducer.reduce(outputs, outputs.length);
+    }
+    
+    /**
+     * Reads the batch outputs of all streams and combines them.
+     * 
+     * @return The combined output, or NaN if no stream has an output.
+     */
+    @Override
+    public synchronized double getBatchOutput() {
+        Stream[] current = streams;
+        if (batch_outputs.length < current.length) {
+            batch_outputs = new double[current.length];
+        }
+        for (int i = 0; i < current.length; i++) {
+            batch_outputs[i] = current[i].analyzer.getBatchOutput();
+        }
+        return reducer.reduce(batch_outputs, current.length);
+    }
+    
+    /**
+     * Sets the same region of interest for all streams.
+     * 
+     * @param roi The Roi object corresponding to the region.
+     */
+    @Override
+    public void setROI(Roi roi) {
+        for (Stream stream: streams) {
+            stream.analyzer.setROI(roi);
+        }
+    }
+    
+    /**
+     * Sets the region of interest of a single stream.
+     * 
+     * @param name Name of the stream.
+     * @param roi The Roi object corresponding to the region.
+     */
+    public void setROI(String name, Roi roi) {
+        Stream stream = getStream(name);
+        if (stream == null) {
+            throw new IllegalArgumentException("No such stream: " + name);
+        }
+        stream.analyzer.setROI(roi);
+    }
+    
+    /**
+     * Stops all streams and disposes their analyzers.
+     */
+    @Override
+    public synchronized void dispose() {
+        try {
+            stop();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Stream stream: streams) {
+            stream.analyzer.dispose();
+        }
+    }
+    
+    @Override
+    public String getName() {
+        return String.valueOf(factory.getSelectedProductName());
+    }
+    
+    /**
+     * @return Null, the streams have their own status panels.
+     */
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return null;
+    }
+    
+    @Override
+    public String getShortReturnDescription() {
+        Stream[] current = streams;
+        if (current.length == 0) {
+            return "";
+        }
+        return current[0].analyzer.getShortReturnDescription();
+    }
+    
+    /**
+     * Returns the default stream, falling back to the first stream if the
+     * default one was removed.
+     */
+    private Stream getDefault() {
+        String name = default_stream;
+        Stream stream = name == null ? null : getStream(name);
+        if (stream != null) {
+            return stream;
+        }
+        Stream[] current = streams;
+        return current.length == 0 ? null : current[0];
+    }
+    
+    private Stream getStream(String name) {
+        for (Stream stream: streams) {
+            if (stream.name.equals(name)) {
+                return stream;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The analyzer and pipeline of a stream.
+     */
+    private static class Stream {
+        final String name;
+        final Analyzer analyzer;
+        final FramePipeline pipeline;
+        
+        Stream(String name, Analyzer analyzer, FramePipeline pipeline) {
+            this.name = name;
+            this.analyzer = analyzer;
+            this.pipeline = pipeline;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.frames.AbstractFrameAnalyzer;
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ch.epfl.leb.alica.interfaces.frames.FrameAnalyzer;
+import ij.gui.Roi;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several analyzers on the same frames concurrently, e.g. to compare
+ * them live on one acquisition.
+ * 
+ * Each frame is handed to all analyzers at once: the first analyzer runs on
+ * the calling thread and the others on an executor, and processFrame
+ * returns when all of them are done. Analyzing a frame thus takes as long
+ * as the slowest analyzer rather than the sum of all of them. The analyzers
+ * share the frame and must only read its pixels. Analyzers which are not
+ * {@link FrameAnalyzer}s share a single pixel array, which is only copied
+ * from the frame if it does not wrap one.
+ * 
+ * The outputs of each analyzer can be read individually, while the outputs
+ * of the composite, which a controller receives, are those of the
+ * analyzers combined by an {@link OutputReducer}. A composite created by
+ * {@link #of(List, OutputReducer)} from {@link SampleBatchAnalyzer}s is one
+ * as well; its samples are those of the analyzers with the same acquisition
+ * time, combined by the reducer.
+ * 
+ * @author Marcel Stefko
+ * @see AnalyzerFactory#buildComposite(List, OutputReducer)
+ */
+public class CompositeAnalyzer extends AbstractFrameAnalyzer {
+    
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger(0);
+    
+    private final Member[] members;
+    private final List<Analyzer> analyzers;
+    private final OutputReducer reducer;
+    private final ExecutorService executor;
+    
+    /**
+     * Whether the executor was created by the composite and is shut down
+     * on dispose.
+     */
+    private final boolean owns_executor;
+    
+    /**
+     * Reused by processFrame, which is only called by a single thread.
+     */
+    private final Future<?>[] futures;
+    
+    /**
+     * Batch outputs of the analyzers read by the last getBatchOutput.
+     */
+    private final double[] batch_outputs;
+    
+    /**
+     * Initializes the composite with a dedicated thread for every analyzer
+     * but the first one.
+     * 
+     * @param analyzers The analyzers, at least one.
+     * @param reducer Combines the outputs of the analyzers.
+     */
+    public CompositeAnalyzer(List<? extends Analyzer> analyzers, OutputReducer reducer) {
+        this(analyzers, reducer, analyzers.size() > 1 ?
+                Executors.newFixedThreadPool(analyzers.size() - 1, new DaemonThreadFactory()) : null,
+                true);
+    }
+    
+    /**
+     * Initializes the composite with an executor for the analyzers. The
+     * executor is not shut down when the composite is disposed.
+     * 
+     * @param analyzers The analyzers, at least one.
+     * @param reducer Combines the outputs of the analyzers.
+     * @param executor Runs all analyzers but the first one, e.g. a
+     * fork-join pool shared with other analyses.
+     */
+    public CompositeAnalyzer(List<? extends Analyzer> analyzers, OutputReducer reducer,
+            ExecutorService executor) {
+        this(analyzers, reducer, executor, false);
+    }
+    
+    private CompositeAnalyzer(List<? extends Analyzer> analyzers, OutputReducer reducer,
+            ExecutorService executor, boolean owns_executor) {
+        if (reducer == null || (executor == null && analyzers.size() > 1)) {
+            throw new NullPointerException();
+        }
+        if (analyzers.isEmpty()) {
+            throw new IllegalArgumentException("A composite needs at least one analyzer.");
+        }
+        this.members = new Member[analyzers.size()];
+        for (int i = 0; i < members.length; i++) {
+            if (analyzers.get(i) == null) {
+                throw new NullPointerException();
+            }
+            members[i] = new Member(analyzers.get(i));
+        }
+        this.analyzers = Collections.unmodifiableList(new ArrayList<Analyzer>(analyzers));
+        this.reducer = reducer;
+        this.executor = executor;
+        this.owns_executor = owns_executor;
+        this.futures = new Future<?>[members.length];
+        this.batch_outputs = new double[members.length];
+        for (int i = 0; i < members.length; i++) {
+            batch_outputs[i] = Double.NaN;
+        }
+    }
+    
+    /**
+     * Creates a composite with a dedicated thread for every analyzer but the
+     * first one. If all analyzers are {@link SampleBatchAnalyzer}s, so is
+     * the composite.
+     * 
+     * @param analyzers The analyzers, at least one.
+     * @param reducer Combines the outputs of the analyzers.
+     * @return The composite analyzer.
+     */
+    public static CompositeAnalyzer of(List<? extends Analyzer> analyzers, OutputReducer reducer) {
+        ExecutorService executor = analyzers.size() > 1 ?
+                Executors.newFixedThreadPool(analyzers.size() - 1, new DaemonThreadFactory()) : null;
+        return of(analyzers, reducer, executor, true);
+    }
+    
+    /**
+     * Creates a composite with an executor for the analyzers, which is not
+     * shut down when the composite is disposed. If all analyzers are
+     * {@link SampleBatchAnalyzer}s, so is the composite.
+     * 
+     * @param analyzers The analyzers, at least one.
+     * @param reducer Combines the outputs of the analyzers.
+     * @param executor Runs all analyzers but the first one.
+     * @return The composite analyzer.
+     */
+    public static CompositeAnalyzer of(List<? extends Analyzer> analyzers, OutputReducer reducer,
+            ExecutorService executor) {
+        return of(analyzers, reducer, executor, false);
+    }
+    
+    private static CompositeAnalyzer of(List<? extends Analyzer> analyzers, OutputReducer reducer,
+            ExecutorService executor, boolean owns_executor) {
+        for (Analyzer analyzer: analyzers) {
+            if (!(analyzer instanceof SampleBatchAnalyzer)) {
+                return new CompositeAnalyzer(analyzers, reducer, executor, owns_executor);
+            }
+        }
+        return new SampleBatchCompositeAnalyzer(analyzers, reducer, executor, owns_executor);
+    }
+    
+    /**
+     * Passes the frame to all analyzers in parallel and waits for them.
+     * 
+     * If analyzers throw, the others still finish the frame, and the
+     * exception of the first failed analyzer is rethrown.
+     * 
+     * @param frame The frame to be processed.
+     */
+    @Override
+    public void processFrame(Frame frame) {
+        Object shared_array = null;
+        for (Member member: members) {
+            if (!(member.analyzer instanceof FrameAnalyzer)) {
+                // copied at most once for all analyzers
+                shared_array = frame.getPixelArray();
+                break;
+            }
+        }
+        for (Member member: members) {
+            member.frame = frame;
+            member.array = shared_array;
+        }
+        for (int i = 1; i < members.length; i++) {
+            futures[i] = executor.submit(members[i]);
+        }
+        Throwable failure = null;
+        try {
+            members[0].call();
+        } catch (RuntimeException ex) {
+            failure = ex;
+        } catch (Error ex) {
+            failure = ex;
+        }
+        boolean interrupted = false;
+        for (int i = 1; i < members.length; i++) {
+            while (true) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch (InterruptedException ex) {
+                    // the frame must not be released while analyzers use it
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+                    break;
+                }
+            }
+            futures[i] = null;
+        }
+        for (Member member: members) {
+            member.frame = null;
+            member.array = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+    
+    /**
+     * @return The analyzers in the order they were given.
+     */
+    public List<Analyzer> getAnalyzers() {
+        return analyzers;
+    }
+    
+    /**
+     * Returns the intermittent output of a single analyzer.
+     * 
+     * @param index Index of the analyzer.
+     * @return The current output of the analyzer.
+     */
+    public double getIntermittentOutput(int index) {
+        return members[index].analyzer.getIntermittentOutput();
+    }
+    
+    /**
+     * Returns the batch output of a single analyzer, as read by the last
+     * call of {@link #getBatchOutput()}.
+     * 
+     * @param index Index of the analyzer.
+     * @return The last batch output of the analyzer, or NaN if there was
+     * none yet.
+     */
+    public synchronized double getLastBatchOutput(int index) {
+        return batch_outputs[index];
+    }
+    
+    /**
+     * Combines the intermittent outputs of the analyzers.
+     * 
+     * @return The combined output.
+     */
+    @Override
+    public double getIntermittentOutput() {
+        double[] outputs = new double[members.length];
+        for (int i = 0; i < members.length; i++) {
+            outputs[i] = members[i].analyzer.getIntermittentOutput();
+        }
+        return reducer.reduce(outputs, outputs.length);
+    }
+    
+    /**
+     * Reads the batch outputs of all analyzers and combines them. The
+     * individual outputs remain available through
+     * {@link #getLastBatchOutput(int)}.
+     * 
+     * @return The combined output, or NaN if no analyzer has an output.
+     */
+    @Override
+    public synchronized double getBatchOutput() {
+        for (int i = 0; i < members.length; i++) {
+            batch_outputs[i] = members[i].analyzer.getBatchOutput();
+        }
+        return reducer.reduce(batch_outputs, batch_outputs.length);
+    }
+    
+    /**
+     * Sets the same region of interest for all analyzers.
+     * 
+     * @param roi The Roi object corresponding to the region.
+     */
+    @Override
+    public void setROI(Roi roi) {
+        for (Member member: members) {
+            member.analyzer.setROI(roi);
+        }
+    }
+    
+    /**
+     * Disposes all analyzers, and shuts down the threads of the composite
+     * if it created them.
+     */
+    @Override
+    public void dispose() {
+        for (Member member: members) {
+            member.analyzer.dispose();
+        }
+        if (owns_executor && executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * @return The names of the analyzers, separated by "+".
+     */
+    @Override
+    public String getName() {
+        StringBuilder retval = new StringBuilder();
+        for (Member member: members) {
+            if (retval.length() > 0) {
+                retval.append(" + ");
+            }
+            retval.append(member.analyzer.getName());
+        }
+        return retval.toString();
+    }
+    
+    /**
+     * @return Null, the analyzers have their own status panels.
+     */
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return null;
+    }
+    
+    @Override
+    public String getShortReturnDescription() {
+        return members[0].analyzer.getShortReturnDescription();
+    }
+    
+    /**
+     * Combines the samples of {@link SampleBatchAnalyzer}s.
+     */
+    private static class SampleBatchCompositeAnalyzer extends CompositeAnalyzer
+            implements SampleBatchAnalyzer {
+        
+        private final SampleBatchAnalyzer[] sample_analyzers;
+        private final OutputReducer sample_reducer;
+        
+        /**
+         * Reused by drainSamples, which is only called by the control loop.
+         */
+        private SampleBatch[] member_batches = null;
+        private final int[] positions;
+        private final double[] values;
+        
+        SampleBatchCompositeAnalyzer(List<? extends Analyzer> analyzers, OutputReducer reducer,
+                ExecutorService executor, boolean owns_executor) {
+            super(analyzers, reducer, executor, owns_executor);
+            this.sample_analyzers = new SampleBatchAnalyzer[analyzers.size()];
+            for (int i = 0; i < sample_analyzers.length; i++) {
+                sample_analyzers[i] = (SampleBatchAnalyzer) analyzers.get(i);
+            }
+            this.sample_reducer = reducer;
+            this.positions = new int[sample_analyzers.length];
+            this.values = new double[sample_analyzers.length];
+        }
+        
+        /**
+         * Drains the samples of all analyzers and merges them by acquisition
+         * time. An analyzer without a sample at a given time contributes NaN.
+         * Samples which do not fit into the batch are counted as dropped.
+         * 
+         * @param batch The caller's batch, cleared first.
+         * @return Number of samples in the batch.
+         */
+        @Override
+        public int drainSamples(SampleBatch batch) {
+            int n = sample_analyzers.length;
+            if (member_batches == null || member_batches[0].getCapacity() != batch.getCapacity()) {
+                member_batches = new SampleBatch[n];
+                for (int i = 0; i < n; i++) {
+                    member_batches[i] = new SampleBatch(batch.getCapacity());
+                }
+            }
+            long dropped = 0;
+            for (int i = 0; i < n; i++) {
+                sample_analyzers[i].drainSamples(member_batches[i]);
+                positions[i] = 0;
+                dropped = Math.max(dropped, member_batches[i].getDroppedCount());
+            }
+            batch.clear();
+            while (true) {
+                boolean found = false;
+                long time_ms = 0;
+                for (int i = 0; i < n; i++) {
+                    if (positions[i] < member_batches[i].getCount()) {
+                        long t = member_batches[i].getTimeMs(positions[i]);
+                        if (!found || t < time_ms) {
+                            time_ms = t;
+                            found = true;
+                        }
+                    }
+                }
+                if (!found) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (positions[i] < member_batches[i].getCount() &&
+                            member_batches[i].getTimeMs(positions[i]) == time_ms) {
+                        values[i] = member_batches[i].getValue(positions[i]);
+                        positions[i]++;
+                    } else {
+                        values[i] = Double.NaN;
+                    }
+                }
+                if (!batch.add(time_ms, sample_reducer.reduce(values, n))) {
+                    dropped++;
+                }
+            }
+            batch.addDropped(dropped);
+            return batch.getCount();
+        }
+    }
+    
+    /**
+     * An analyzer with the frame it is to process.
+     */
+    private static class Member implements Callable<Void> {
+        final Analyzer analyzer;
+        Frame frame = null;
+        Object array = null;
+        
+        Member(Analyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+        
+        @Override
+        public Void call() {
+            if (analyzer instanceof FrameAnalyzer) {
+                ((FrameAnalyzer) analyzer).processFrame(frame);
+            } else {
+                analyzer.processImage(array, frame.getWidth(), frame.getHeight(),
+                        frame.getPixelSizeUm(), frame.getTimeMs());
+            }
+            return null;
+        }
+    }
+    
+    private static class DaemonThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread retval = new Thread(runnable, "ALICA composite analyzer " +
+                    THREAD_COUNT.incrementAndGet());
+            retval.setDaemon(true);
+            return retval;
+        }
+    }
+}
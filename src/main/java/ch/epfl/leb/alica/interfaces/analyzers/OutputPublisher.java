@@ -0,0 +1,217 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free hand-over of per-frame values from the analysis thread to the
+ * threads reading the analyzer's outputs.
+ * 
+ * The analysis thread publishes one value per frame. The publisher keeps
+ * running totals in an immutable snapshot which is replaced atomically, so
+ * that readers always see a consistent state without locking. A flush does
+ * not reset the totals: it remembers the snapshot it saw last and returns the
+ * difference. Neither side ever waits for the other.
+ * 
+ * @author Marcel Stefko
+ * @see AbstractPublishingAnalyzer
+ */
+public class OutputPublisher {
+    
+    private static final Totals EMPTY = new Totals(0, 0.0, 0.0, Double.NaN, 0);
+    
+    /**
+     * Running totals, only replaced by the publishing thread.
+     */
+    private final AtomicReference<Totals> totals = new AtomicReference<Totals>(EMPTY);
+    
+    /**
+     * The totals at the last flush.
+     */
+    private final AtomicReference<Totals> flushed = new AtomicReference<Totals>(EMPTY);
+    
+    /**
+     * Publishes the value of a frame. Must only be called by a single thread,
+     * typically from processImage.
+     * 
+     * NaN and infinite values are ignored, so that a frame without a valid
+     * value does not spoil the running totals; they neither count towards a
+     * batch nor replace the last value.
+     * 
+     * @param value The value computed from the frame.
+     * @param time_ms Acquisition time of the frame in milliseconds.
+     */
+    public void publish(double value, long time_ms) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        Totals t = totals.get();
+        totals.set(new Totals(t.count + 1, t.sum + value, t.sum_of_squares + value * value,
+                value, time_ms));
+    }
+    
+    /**
+     * Returns the values published since the last flush, without flushing.
+     * 
+     * @return The current batch.
+     */
+    public Batch peek() {
+        return new Batch(flushed.get(), totals.get());
+    }
+    
+    /**
+     * Returns the values published since the last flush and starts a new
+     * batch. Concurrent flushes each return a distinct part of the values.
+     * 
+     * @return The flushed batch.
+     */
+    public Batch flush() {
+        while (true) {
+            Totals last = flushed.get();
+            Totals current = totals.get();
+            if (flushed.compareAndSet(last, current)) {
+                return new Batch(last, current);
+            }
+        }
+    }
+    
+    /**
+     * Starts a new batch like {@link #flush()}, without returning the
+     * flushed values.
+     */
+    public void skip() {
+        while (true) {
+            Totals last = flushed.get();
+            if (flushed.compareAndSet(last, totals.get())) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Returns the most recently published value.
+     * 
+     * @return The last value, or NaN if nothing was published yet.
+     */
+    public double getLastValue() {
+        return totals.get().last_value;
+    }
+    
+    /**
+     * Immutable running totals of all published values.
+     */
+    private static class Totals {
+        final long count;
+        final double sum;
+        final double sum_of_squares;
+        final double last_value;
+        final long last_time_ms;
+        
+        Totals(long count, double sum, double sum_of_squares, double last_value, long last_time_ms) {
+            this.count = count;
+            this.sum = sum;
+            this.sum_of_squares = sum_of_squares;
+            this.last_value = last_value;
+            this.last_time_ms = last_time_ms;
+        }
+    }
+    
+    /**
+     * The values published between two flushes.
+     */
+    public static class Batch {
+        private final long count;
+        private final double sum;
+        private final double sum_of_squares;
+        private final double last_value;
+        private final long last_time_ms;
+        
+        Batch(Totals from, Totals to) {
+            this.count = to.count - from.count;
+            this.sum = to.sum - from.sum;
+            this.sum_of_squares = to.sum_of_squares - from.sum_of_squares;
+            this.last_value = to.last_value;
+            this.last_time_ms = to.last_time_ms;
+        }
+        
+        /**
+         * Returns the number of values in the batch.
+         * 
+         * @return The number of published values.
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Returns the sum of the values in the batch.
+         * 
+         * @return The sum, or 0 for an empty batch.
+         */
+        public double getSum() {
+            return sum;
+        }
+        
+        /**
+         * Returns the mean of the values in the batch.
+         * 
+         * @return The mean, or NaN for an empty batch.
+         */
+        public double getMean() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            return sum / count;
+        }
+        
+        /**
+         * Returns the (population) variance of the values in the batch.
+         * 
+         * @return The variance, or NaN for an empty batch.
+         */
+        public double getVariance() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            double mean = sum / count;
+            return Math.max(0.0, sum_of_squares / count - mean * mean);
+        }
+        
+        /**
+         * Returns the most recently published value, which may precede the
+         * batch if the batch is empty.
+         * 
+         * @return The last value, or NaN if nothing was published yet.
+         */
+        public double getLastValue() {
+            return last_value;
+        }
+        
+        /**
+         * Returns the acquisition time of the most recently published value.
+         * 
+         * @return Acquisition time in milliseconds.
+         */
+        public long getLastTimeMs() {
+            return last_time_ms;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+/**
+ * Combines the outputs of the analyzers of several streams into the single
+ * value passed to the controller.
+ * 
+ * @author Marcel Stefko
+ * @see AnalyzerPool
+ * @see StandardReducer
+ */
+public interface OutputReducer {
+    
+    /**
+     * Combines the outputs of the streams.
+     * 
+     * The array must not be kept, as it is reused for the next call.
+     * 
+     * @param outputs The outputs in the order the streams were added; NaN if
+     * a stream has no output.
+     * @param count Number of valid entries of the array.
+     * @return The combined output, or NaN if there is none.
+     */
+    public double reduce(double[] outputs, int count);
+}
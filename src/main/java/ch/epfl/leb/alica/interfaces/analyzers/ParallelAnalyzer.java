@@ -0,0 +1,85 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ch.epfl.leb.alica.interfaces.frames.FrameAnalyzer;
+
+/**
+ * An analyzer whose per-frame computation can be split into tiles.
+ * 
+ * The analyzed region of each frame (the bounding box of the ROI, or the
+ * whole frame) is split into tiles which are analyzed concurrently. The
+ * partial results are then merged into one result per frame, which is passed
+ * to {@link #acceptFrameResult(Object, Frame)} before any output is read.
+ * 
+ * {@link AbstractParallelAnalyzer} implements the tiling and the parallel
+ * execution on a fork-join pool.
+ * 
+ * @author Marcel Stefko
+ * @param <R> The type of the partial results.
+ */
+public interface ParallelAnalyzer<R> extends FrameAnalyzer {
+    
+    /**
+     * Analyzes a single tile of a frame. This is called concurrently for the
+     * tiles of a frame, so it must not modify the state of the analyzer.
+     * 
+     * @param frame The frame, shared read-only between the tiles.
+     * @param tile The part of the frame to be analyzed.
+     * @return The partial result of the tile.
+     */
+    public R analyzeTile(Frame frame, Tile tile);
+    
+    /**
+     * Merges the partial results of two groups of tiles. The tiles of the
+     * first result precede those of the second in row-major order.
+     * 
+     * @param first The result of the first group of tiles.
+     * @param second The result of the second group of tiles.
+     * @return The merged result.
+     */
+    public R mergeResults(R first, R second);
+    
+    /**
+     * Updates the internal state of the analyzer with the merged result of
+     * all tiles of a frame. This is called once per frame, from the thread
+     * which called processFrame.
+     * 
+     * @param result The merged result of all tiles.
+     * @param frame The analyzed frame.
+     */
+    public void acceptFrameResult(R result, Frame frame);
+    
+    /**
+     * Returns the size of the core region of the tiles.
+     * 
+     * @return The edge length of a tile in pixels.
+     */
+    public int getTileSize();
+    
+    /**
+     * Returns by how much each tile is extended on every side, for detectors
+     * which need the neighbourhood of the pixels close to the tile edges.
+     * 
+     * @return The tile overlap in pixels.
+     */
+    public int getTileOverlap();
+}
@@ -0,0 +1,360 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+
+/**
+ * A region of interest compiled for a given frame size.
+ * 
+ * The mask holds the bounding box of the ROI clipped to the frame, a bitmask
+ * of the covered pixels and, for each row, the runs of covered pixels
+ * (spans). The covered pixels are those of Roi.getMask(), as in ImageJ
+ * measurements. Analyzers can loop over the covered pixels only, without calling
+ * Roi.contains for each pixel:
+ * 
+ * <pre>
+ * for (int y = mask.getY(); y &lt; mask.getY() + mask.getHeight(); y++) {
+ *     int offset = y * image_width;
+ *     for (int s = mask.getFirstSpan(y); s &lt; mask.getEndSpan(y); s++) {
+ *         for (int x = mask.getSpanStart(s); x &lt; mask.getSpanEnd(s); x++) {
+ *             sum += pixels[offset + x];
+ *         }
+ *     }
+ * }
+ * </pre>
+ * 
+ * Masks are immutable. Use a {@link RoiMaskCache} to rebuild them only when
+ * the ROI or the frame size changes.
+ * 
+ * @author Marcel Stefko
+ */
+public final class RoiMask {
+    
+    private final Roi roi;
+    private final int frame_width;
+    private final int frame_height;
+    
+    // bounding box clipped to the frame
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    
+    /**
+     * Covered pixels of the bounding box in row-major order, or null if the
+     * whole bounding box is covered.
+     */
+    private final long[] bits;
+    
+    /**
+     * Index of the first span of each row of the bounding box, followed by
+     * the total number of spans.
+     */
+    private final int[] row_spans;
+    private final int[] span_starts;
+    private final int[] span_ends;
+    private final long pixel_count;
+    
+    private RoiMask(Roi roi, int frame_width, int frame_height, Rectangle bounds,
+            long[] bits, int[] row_spans, int[] span_starts, int[] span_ends,
+            long pixel_count) {
+        this.roi = roi;
+        this.frame_width = frame_width;
+        this.frame_height = frame_height;
+        this.x = bounds.x;
+        this.y = bounds.y;
+        this.width = bounds.width;
+        this.height = bounds.height;
+        this.bits = bits;
+        this.row_spans = row_spans;
+        this.span_starts = span_starts;
+        this.span_ends = span_ends;
+        this.pixel_count = pixel_count;
+    }
+    
+    /**
+     * Compiles a ROI for a frame size.
+     * 
+     * @param roi The region of interest, or null for the whole frame.
+     * @param frame_width Frame width in pixels.
+     * @param frame_height Frame height in pixels.
+     * @return The compiled mask.
+     */
+    public static RoiMask create(Roi roi, int frame_width, int frame_height) {
+        if (frame_width < 0 || frame_height < 0) {
+            throw new IllegalArgumentException("Frame size must not be negative.");
+        }
+        Rectangle frame_bounds = new Rectangle(0, 0, frame_width, frame_height);
+        Rectangle roi_bounds = frame_bounds;
+        ImageProcessor mask = null;
+        if (roi != null) {
+            roi_bounds = roi.getBounds();
+            // relative to the ROI bounds, null for plain rectangles
+            mask = roi.getMask();
+        }
+        Rectangle bounds = roi_bounds.intersection(frame_bounds);
+        if (bounds.isEmpty()) {
+            bounds = new Rectangle(0, 0, 0, 0);
+        }
+        
+        int[] row_spans = new int[bounds.height + 1];
+        if (mask == null) {
+            int[] span_starts = new int[bounds.height];
+            int[] span_ends = new int[bounds.height];
+            for (int r = 0; r < bounds.height; r++) {
+                row_spans[r] = r;
+                span_starts[r] = bounds.x;
+                span_ends[r] = bounds.x + bounds.width;
+            }
+            row_spans[bounds.height] = bounds.height;
+            return new RoiMask(roi, frame_width, frame_height, bounds, null,
+                    row_spans, span_starts, span_ends, (long) bounds.width * bounds.height);
+        }
+        
+        byte[] mask_pixels = (byte[]) mask.getPixels();
+        int mask_width = mask.getWidth();
+        long[] bits = new long[(int) (((long) bounds.width * bounds.height + 63) >>> 6)];
+        int[] span_starts = new int[Math.max(16, bounds.height)];
+        int[] span_ends = new int[span_starts.length];
+        int span_count = 0;
+        long pixel_count = 0;
+        for (int r = 0; r < bounds.height; r++) {
+            row_spans[r] = span_count;
+            int mask_offset = (bounds.y + r - roi_bounds.y) * mask_width - roi_bounds.x;
+            int bit_offset = r * bounds.width - bounds.x;
+            int span_start = -1;
+            for (int px = bounds.x; px < bounds.x + bounds.width; px++) {
+                if (mask_pixels[mask_offset + px] != 0) {
+                    int bit = bit_offset + px;
+                    bits[bit >>> 6] |= 1L << bit;
+                    pixel_count++;
+                    if (span_start < 0) {
+                        span_start = px;
+                    }
+                } else if (span_start >= 0) {
+                    if (span_count == span_starts.length) {
+                        span_starts = grow(span_starts);
+                        span_ends = grow(span_ends);
+                    }
+                    span_starts[span_count] = span_start;
+                    span_ends[span_count++] = px;
+                    span_start = -1;
+                }
+            }
+            if (span_start >= 0) {
+                if (span_count == span_starts.length) {
+                    span_starts = grow(span_starts);
+                    span_ends = grow(span_ends);
+                }
+                span_starts[span_count] = span_start;
+                span_ends[span_count++] = bounds.x + bounds.width;
+            }
+        }
+        row_spans[bounds.height] = span_count;
+        return new RoiMask(roi, frame_width, frame_height, bounds, bits, row_spans,
+                span_starts, span_ends, pixel_count);
+    }
+    
+    private static int[] grow(int[] array) {
+        int[] retval = new int[array.length * 2];
+        System.arraycopy(array, 0, retval, 0, array.length);
+        return retval;
+    }
+    
+    /**
+     * Returns whether this mask was compiled from the given ROI and frame
+     * size. The ROI is compared by identity, so a ROI which was modified in
+     * place must be set again.
+     * 
+     * @param roi The region of interest, or null.
+     * @param frame_width Frame width in pixels.
+     * @param frame_height Frame height in pixels.
+     * @return True if the mask can be reused.
+     */
+    public boolean matches(Roi roi, int frame_width, int frame_height) {
+        return this.roi == roi && this.frame_width == frame_width &&
+                this.frame_height == frame_height;
+    }
+    
+    /**
+     * @return The ROI of the mask, or null for the whole frame.
+     */
+    public Roi getRoi() {
+        return roi;
+    }
+    
+    /**
+     * @return Frame width in pixels.
+     */
+    public int getFrameWidth() {
+        return frame_width;
+    }
+    
+    /**
+     * @return Frame height in pixels.
+     */
+    public int getFrameHeight() {
+        return frame_height;
+    }
+    
+    /**
+     * @return Left edge of the bounding box within the frame.
+     */
+    public int getX() {
+        return x;
+    }
+    
+    /**
+     * @return Top edge of the bounding box within the frame.
+     */
+    public int getY() {
+        return y;
+    }
+    
+    /**
+     * @return Width of the bounding box within the frame.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return Height of the bounding box within the frame.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return The bounding box within the frame.
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(x, y, width, height);
+    }
+    
+    /**
+     * @return True if every pixel of the bounding box is covered.
+     */
+    public boolean isRectangular() {
+        return bits == null;
+    }
+    
+    /**
+     * @return True if no pixel of the frame is covered.
+     */
+    public boolean isEmpty() {
+        return pixel_count == 0;
+    }
+    
+    /**
+     * @return The number of covered pixels.
+     */
+    public long getPixelCount() {
+        return pixel_count;
+    }
+    
+    /**
+     * Returns whether a pixel is covered.
+     * 
+     * @param px Column of the pixel.
+     * @param py Row of the pixel.
+     * @return True if the pixel is within the frame and the ROI.
+     */
+    public boolean contains(int px, int py) {
+        int cx = px - x;
+        int cy = py - y;
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+            return false;
+        }
+        if (bits == null) {
+            return true;
+        }
+        int bit = cy * width + cx;
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+    
+    /**
+     * Returns whether any pixel of a rectangle is covered.
+     * 
+     * @param rx Left edge of the rectangle.
+     * @param ry Top edge of the rectangle.
+     * @param rwidth Width of the rectangle.
+     * @param rheight Height of the rectangle.
+     * @return True if at least one pixel of the rectangle is covered.
+     */
+    public boolean intersects(int rx, int ry, int rwidth, int rheight) {
+        int y0 = Math.max(ry, y);
+        int y1 = Math.min(ry + rheight, y + height);
+        for (int py = y0; py < y1; py++) {
+            for (int s = getFirstSpan(py); s < getEndSpan(py); s++) {
+                if (span_starts[s] < rx + rwidth && span_ends[s] > rx) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return The total number of spans.
+     */
+    public int getSpanCount() {
+        return row_spans[height];
+    }
+    
+    /**
+     * Returns the index of the first span of a row.
+     * 
+     * @param py Row within the bounding box.
+     * @return Index of the first span of the row.
+     */
+    public int getFirstSpan(int py) {
+        return row_spans[py - y];
+    }
+    
+    /**
+     * Returns the index after the last span of a row.
+     * 
+     * @param py Row within the bounding box.
+     * @return Index after the last span of the row.
+     */
+    public int getEndSpan(int py) {
+        return row_spans[py - y + 1];
+    }
+    
+    /**
+     * @param span Index of the span.
+     * @return First covered column of the span.
+     */
+    public int getSpanStart(int span) {
+        return span_starts[span];
+    }
+    
+    /**
+     * @param span Index of the span.
+     * @return Column after the last covered column of the span.
+     */
+    public int getSpanEnd(int span) {
+        return span_ends[span];
+    }
+}
@@ -0,0 +1,74 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ij.gui.Roi;
+
+/**
+ * Holds the ROI of an analyzer and its compiled {@link RoiMask}.
+ * 
+ * The mask is compiled on first use after the ROI was set, and again only
+ * when the frame size changes. The ROI can be set from any thread while
+ * frames are analyzed; the next call to {@link #getMask(int, int)} then
+ * returns the new mask.
+ * 
+ * @author Marcel Stefko
+ */
+public class RoiMaskCache {
+    
+    private volatile Roi roi = null;
+    private volatile RoiMask mask = null;
+    
+    /**
+     * Sets the region of interest.
+     * 
+     * @param roi The region, or null for the whole frame.
+     */
+    public void setROI(Roi roi) {
+        this.roi = roi;
+        this.mask = null;
+    }
+    
+    /**
+     * @return The region of interest, or null for the whole frame.
+     */
+    public Roi getROI() {
+        return roi;
+    }
+    
+    /**
+     * Returns the mask of the current ROI for a frame size, compiling it if
+     * needed.
+     * 
+     * @param frame_width Frame width in pixels.
+     * @param frame_height Frame height in pixels.
+     * @return The compiled mask.
+     */
+    public RoiMask getMask(int frame_width, int frame_height) {
+        Roi current_roi = roi;
+        RoiMask current_mask = mask;
+        if (current_mask != null && current_mask.matches(current_roi, frame_width, frame_height)) {
+            return current_mask;
+        }
+        current_mask = RoiMask.create(current_roi, frame_width, frame_height);
+        mask = current_mask;
+        return current_mask;
+    }
+}
@@ -0,0 +1,214 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+/**
+ * The per-frame samples of an analyzer between two controller ticks, in
+ * primitive arrays owned by the caller.
+ * 
+ * A batch is filled by {@link SampleBatchAnalyzer#drainSamples(SampleBatch)}
+ * and reused for every tick, so reading the samples does not allocate. Each
+ * sample has the acquisition time of its frame, a value, and a valid flag
+ * which is false if the analyzer produced no value for the frame (NaN).
+ * Samples are in acquisition order.
+ * 
+ * @author Marcel Stefko
+ */
+public class SampleBatch {
+    
+    private final long[] times_ms;
+    private final double[] values;
+    private final boolean[] valid;
+    
+    private int count = 0;
+    private int valid_count = 0;
+    private long dropped_count = 0;
+    
+    /**
+     * Creates a batch with its own arrays.
+     * 
+     * @param capacity Maximal number of samples per batch.
+     */
+    public SampleBatch(int capacity) {
+        this(new long[capacity], new double[capacity], new boolean[capacity]);
+    }
+    
+    /**
+     * Creates a batch backed by the caller's arrays, which must have the
+     * same length.
+     * 
+     * @param times_ms Receives the acquisition times in milliseconds.
+     * @param values Receives the values.
+     * @param valid Receives whether each value is valid.
+     */
+    public SampleBatch(long[] times_ms, double[] values, boolean[] valid) {
+        if (times_ms.length != values.length || values.length != valid.length) {
+            throw new IllegalArgumentException("Arrays must have the same length.");
+        }
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.times_ms = times_ms;
+        this.values = values;
+        this.valid = valid;
+    }
+    
+    /**
+     * Empties the batch.
+     */
+    public void clear() {
+        count = 0;
+        valid_count = 0;
+        dropped_count = 0;
+    }
+    
+    /**
+     * Appends a sample, if there is room.
+     * 
+     * @param time_ms Acquisition time of the frame.
+     * @param value The value, NaN if there is none.
+     * @return False if the batch is full.
+     */
+    public boolean add(long time_ms, double value) {
+        if (count == values.length) {
+            return false;
+        }
+        times_ms[count] = time_ms;
+        values[count] = value;
+        valid[count] = !Double.isNaN(value);
+        if (valid[count]) {
+            valid_count++;
+        }
+        count++;
+        return true;
+    }
+    
+    /**
+     * Adds to the number of samples lost before they could be read.
+     * 
+     * @param n Number of lost samples.
+     */
+    public void addDropped(long n) {
+        dropped_count += n;
+    }
+    
+    /**
+     * @return Maximal number of samples.
+     */
+    public int getCapacity() {
+        return values.length;
+    }
+    
+    /**
+     * @return Number of samples, valid or not.
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * @return Number of valid samples.
+     */
+    public int getValidCount() {
+        return valid_count;
+    }
+    
+    /**
+     * Returns the number of samples which were lost, because the analyzer
+     * produced more samples than it or the batch could hold.
+     * 
+     * @return Number of lost samples.
+     */
+    public long getDroppedCount() {
+        return dropped_count;
+    }
+    
+    /**
+     * @param i Index of the sample.
+     * @return Acquisition time of the sample in milliseconds.
+     */
+    public long getTimeMs(int i) {
+        checkIndex(i);
+        return times_ms[i];
+    }
+    
+    /**
+     * @param i Index of the sample.
+     * @return The value of the sample, NaN if it is not valid.
+     */
+    public double getValue(int i) {
+        checkIndex(i);
+        return values[i];
+    }
+    
+    /**
+     * @param i Index of the sample.
+     * @return True if the sample has a value.
+     */
+    public boolean isValid(int i) {
+        checkIndex(i);
+        return valid[i];
+    }
+    
+    /**
+     * @return The array of acquisition times; the first getCount() entries
+     * are in use.
+     */
+    public long[] getTimesMs() {
+        return times_ms;
+    }
+    
+    /**
+     * @return The array of values; the first getCount() entries are in use.
+     */
+    public double[] getValues() {
+        return values;
+    }
+    
+    /**
+     * @return The valid mask; the first getCount() entries are in use.
+     */
+    public boolean[] getValidMask() {
+        return valid;
+    }
+    
+    /**
+     * @return The mean of the valid values, or NaN if there are none, i.e.
+     * the value getBatchOutput would usually return.
+     */
+    public double getMean() {
+        if (valid_count == 0) {
+            return Double.NaN;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            if (valid[i]) {
+                sum += values[i];
+            }
+        }
+        return sum / valid_count;
+    }
+    
+    private void checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Sample " + i + " of " + count);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+
+/**
+ * An analyzer which can hand out its individual per-frame samples instead of
+ * a single batch output.
+ * 
+ * Controllers implementing
+ * {@link ch.epfl.leb.alica.interfaces.controllers.SampleBatchController} can
+ * then weight each sample by its acquisition time, e.g. to integrate
+ * correctly when the frame rate and the tick rate differ.
+ * 
+ * @author Marcel Stefko
+ * @see SampleRing
+ */
+public interface SampleBatchAnalyzer extends Analyzer {
+    
+    /**
+     * Fills the batch with the samples produced since the previous call,
+     * without allocating. A control loop uses either this or
+     * {@link #getBatchOutput()}; like the latter, it starts a new batch for
+     * {@link #getIntermittentOutput()}.
+     * 
+     * @param batch The caller's batch, cleared first.
+     * @return Number of samples in the batch.
+     */
+    public int drainSamples(SampleBatch batch);
+}
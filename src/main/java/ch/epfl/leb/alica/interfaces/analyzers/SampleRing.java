@@ -0,0 +1,149 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free ring of the most recent (time_ms, value) samples of an
+ * analyzer.
+ * 
+ * The analysis thread adds samples and never waits: when the ring is full,
+ * the oldest sample is overwritten. The control thread drains the samples
+ * added since the previous drain into a {@link SampleBatch}. Samples which
+ * were overwritten before they could be drained are counted as dropped.
+ * Neither side allocates.
+ * 
+ * One thread may add samples and one thread may drain them.
+ * 
+ * @author Marcel Stefko
+ */
+public class SampleRing {
+    
+    private final int mask;
+    private final AtomicLongArray times_ms;
+    private final AtomicLongArray value_bits;
+    
+    /**
+     * Sequence number of the next sample to be added.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+    
+    /**
+     * Sequence number of the next sample to be drained, only used by the
+     * draining thread.
+     */
+    private long head = 0;
+    
+    /**
+     * Initializes an empty ring.
+     * 
+     * @param capacity Number of samples kept, rounded up to the next power
+     * of two.
+     */
+    public SampleRing(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.times_ms = new AtomicLongArray(size);
+        this.value_bits = new AtomicLongArray(size);
+    }
+    
+    /**
+     * @return Number of samples kept.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * @return Number of samples added so far.
+     */
+    public long getAddedCount() {
+        return tail.get();
+    }
+    
+    /**
+     * Adds a sample, overwriting the oldest one if the ring is full.
+     * 
+     * @param time_ms Acquisition time of the frame.
+     * @param value The value, NaN if the frame yielded none.
+     */
+    public void add(long time_ms, double value) {
+        long sequence = tail.get();
+        int slot = (int) sequence & mask;
+        times_ms.lazySet(slot, time_ms);
+        value_bits.lazySet(slot, Double.doubleToRawLongBits(value));
+        tail.lazySet(sequence + 1);
+    }
+    
+    /**
+     * Clears the batch and fills it with the samples added since the
+     * previous drain. If there are more than the batch can hold, the most
+     * recent ones are kept.
+     * 
+     * @param batch The batch to fill.
+     * @return Number of samples in the batch.
+     */
+    public int drainTo(SampleBatch batch) {
+        batch.clear();
+        long end = tail.get();
+        long start = Math.max(head, end - getCapacity());
+        start = Math.max(start, end - batch.getCapacity());
+        long dropped = start - head;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) sequence & mask;
+            batch.add(times_ms.get(slot), Double.longBitsToDouble(value_bits.get(slot)));
+        }
+        // samples the producer may have overwritten while they were copied
+        long overwritten = tail.get() - getCapacity() + 1 - start;
+        if (overwritten > 0) {
+            int kept = (int) Math.max(0, (end - start) - overwritten);
+            shiftToEnd(batch, kept);
+            dropped += (end - start) - kept;
+        }
+        batch.addDropped(dropped);
+        head = end;
+        return batch.getCount();
+    }
+    
+    /**
+     * Keeps only the last n samples of the batch.
+     */
+    private static void shiftToEnd(SampleBatch batch, int n) {
+        int from = batch.getCount() - n;
+        long[] times = batch.getTimesMs();
+        double[] values = batch.getValues();
+        System.arraycopy(times, from, times, 0, n);
+        System.arraycopy(values, from, values, 0, n);
+        long dropped = batch.getDroppedCount();
+        batch.clear();
+        for (int i = 0; i < n; i++) {
+            batch.add(times[i], values[i]);
+        }
+        batch.addDropped(dropped);
+    }
+}
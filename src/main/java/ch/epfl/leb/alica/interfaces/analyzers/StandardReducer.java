@@ -0,0 +1,100 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+/**
+ * Common ways to combine the outputs of several streams. Streams without
+ * output (NaN) are ignored, and the result is NaN only if no stream has an
+ * output.
+ * 
+ * @author Marcel Stefko
+ */
+public enum StandardReducer implements OutputReducer {
+    
+    /**
+     * Mean of the outputs.
+     */
+    MEAN {
+        @Override
+        public double reduce(double[] outputs, int count) {
+            double sum = 0.0;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (!Double.isNaN(outputs[i])) {
+                    sum += outputs[i];
+                    n++;
+                }
+            }
+            return n == 0 ? Double.NaN : sum / n;
+        }
+    },
+    
+    /**
+     * Sum of the outputs, e.g. of molecule counts in separate channels.
+     */
+    SUM {
+        @Override
+        public double reduce(double[] outputs, int count) {
+            double sum = 0.0;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (!Double.isNaN(outputs[i])) {
+                    sum += outputs[i];
+                    n++;
+                }
+            }
+            return n == 0 ? Double.NaN : sum;
+        }
+    },
+    
+    /**
+     * Smallest output.
+     */
+    MIN {
+        @Override
+        public double reduce(double[] outputs, int count) {
+            double retval = Double.NaN;
+            for (int i = 0; i < count; i++) {
+                if (!Double.isNaN(outputs[i]) &&
+                        (Double.isNaN(retval) || outputs[i] < retval)) {
+                    retval = outputs[i];
+                }
+            }
+            return retval;
+        }
+    },
+    
+    /**
+     * Largest output.
+     */
+    MAX {
+        @Override
+        public double reduce(double[] outputs, int count) {
+            double retval = Double.NaN;
+            for (int i = 0; i < count; i++) {
+                if (!Double.isNaN(outputs[i]) &&
+                        (Double.isNaN(retval) || outputs[i] > retval)) {
+                    retval = outputs[i];
+                }
+            }
+            return retval;
+        }
+    }
+}
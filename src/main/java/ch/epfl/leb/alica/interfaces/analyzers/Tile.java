@@ -0,0 +1,152 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.analyzers;
+
+/**
+ * A rectangular part of a frame processed by a {@link ParallelAnalyzer}.
+ * 
+ * The tiles of a frame partition the analyzed region without overlap; these
+ * are their core regions. Each tile is extended by the tile overlap on every
+ * side (clipped to the frame), so that detectors which need a neighbourhood
+ * see the pixels around the core region. To count each detection once, keep
+ * only those whose position lies in the core region.
+ * 
+ * @author Marcel Stefko
+ */
+public class Tile {
+    
+    private final int index;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final int core_x;
+    private final int core_y;
+    private final int core_width;
+    private final int core_height;
+    
+    /**
+     * Initializes a tile.
+     * 
+     * @param index Index of the tile in its frame.
+     * @param x Left edge of the extended region.
+     * @param y Top edge of the extended region.
+     * @param width Width of the extended region.
+     * @param height Height of the extended region.
+     * @param core_x Left edge of the core region.
+     * @param core_y Top edge of the core region.
+     * @param core_width Width of the core region.
+     * @param core_height Height of the core region.
+     */
+    public Tile(int index, int x, int y, int width, int height,
+            int core_x, int core_y, int core_width, int core_height) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.core_x = core_x;
+        this.core_y = core_y;
+        this.core_width = core_width;
+        this.core_height = core_height;
+    }
+    
+    /**
+     * @return Index of the tile in its frame, in row-major order.
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * @return Left edge of the region including the overlap.
+     */
+    public int getX() {
+        return x;
+    }
+    
+    /**
+     * @return Top edge of the region including the overlap.
+     */
+    public int getY() {
+        return y;
+    }
+    
+    /**
+     * @return Width of the region including the overlap.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return Height of the region including the overlap.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return Left edge of the core region.
+     */
+    public int getCoreX() {
+        return core_x;
+    }
+    
+    /**
+     * @return Top edge of the core region.
+     */
+    public int getCoreY() {
+        return core_y;
+    }
+    
+    /**
+     * @return Width of the core region.
+     */
+    public int getCoreWidth() {
+        return core_width;
+    }
+    
+    /**
+     * @return Height of the core region.
+     */
+    public int getCoreHeight() {
+        return core_height;
+    }
+    
+    /**
+     * Returns whether a pixel belongs to the core region of this tile. Every
+     * pixel of the analyzed region belongs to the core of exactly one tile.
+     * 
+     * @param px Column of the pixel.
+     * @param py Row of the pixel.
+     * @return True if the pixel is in the core region.
+     */
+    public boolean isInCore(int px, int py) {
+        return px >= core_x && px < core_x + core_width &&
+               py >= core_y && py < core_y + core_height;
+    }
+    
+    @Override
+    public String toString() {
+        return "Tile " + index + " [" + core_x + ", " + core_y + ", " +
+                core_width + "x" + core_height + "]";
+    }
+}
@@ -0,0 +1,343 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicy;
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicyAware;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forwards controller outputs to a device without blocking the control loop
+ * and without writing values which make no difference.
+ * 
+ * Each submitted value is first quantized to the resolution of the device.
+ * Values within the deadband of the last accepted value are suppressed.
+ * After a failed write, values are compared with the last value which was
+ * actually written instead, so that the failed value can be submitted again.
+ * Accepted values are handed over to a dedicated writer thread, which
+ * passes them to the {@link ActuatorSink}, at most at the maximal write
+ * rate. Values submitted while a write is in progress or while the rate
+ * limit holds are coalesced, i.e. only the most recent one is written.
+ * 
+ * The stage is a {@link ControllerTickListener}, so it can be added to a
+ * {@link ControllerTickScheduler} directly. Submitting a value never waits
+ * for the device. The writer thread is an I/O thread of the
+ * {@link ExecutionPolicy}, i.e. a virtual thread where supported.
+ * 
+ * @author Marcel Stefko
+ */
+public class ActuatorOutputStage implements ControllerTickListener, ExecutionPolicyAware {
+    
+    /**
+     * Marks that no value is waiting to be written. Submitted NaN values are
+     * rejected, so this NaN can not collide with a value.
+     */
+    private static final long NO_VALUE = 0x7ff8dead00000000L;
+    
+    /**
+     * Upper bound of a single wait of the writer thread.
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    private final ActuatorSink sink;
+    private volatile double resolution = 0.0;
+    private volatile double deadband = 0.0;
+    private volatile long min_write_interval_ns = 0;
+    
+    /**
+     * The value waiting to be written, as raw bits, or NO_VALUE.
+     */
+    private final AtomicLong pending = new AtomicLong(NO_VALUE);
+    
+    /**
+     * The last accepted value, only accessed by the submitting thread.
+     */
+    private double last_accepted = Double.NaN;
+    private volatile double last_written = Double.NaN;
+    
+    /**
+     * Set by the writer thread when a write failed, so that the submitting
+     * thread resets the last accepted value to the last written one.
+     */
+    private final AtomicBoolean write_failed = new AtomicBoolean(false);
+    
+    private volatile ExecutionPolicy execution_policy = ExecutionPolicy.getDefault();
+    private volatile boolean running = false;
+    private volatile boolean writer_waiting = false;
+    private Thread writer_thread = null;
+    
+    private final AtomicLong submitted_count = new AtomicLong(0);
+    private final AtomicLong written_count = new AtomicLong(0);
+    private final AtomicLong deadband_count = new AtomicLong(0);
+    private final AtomicLong coalesced_count = new AtomicLong(0);
+    private final AtomicLong invalid_count = new AtomicLong(0);
+    private final AtomicLong failed_count = new AtomicLong(0);
+    
+    /**
+     * Initializes the stage. No value is written before {@link #start()} is
+     * called.
+     * 
+     * @param sink The device the values are written to.
+     */
+    public ActuatorOutputStage(ActuatorSink sink) {
+        if (sink == null) {
+            throw new NullPointerException();
+        }
+        this.sink = sink;
+    }
+    
+    /**
+     * Sets the smallest step of the device. Values are rounded to a multiple
+     * of it.
+     * 
+     * @param resolution The resolution, 0 to write values unchanged.
+     */
+    public void setResolution(double resolution) {
+        if (!(resolution >= 0.0)) {
+            throw new IllegalArgumentException("Resolution must not be negative.");
+        }
+        this.resolution = resolution;
+    }
+    
+    /**
+     * Sets the deadband. A value is only accepted if it differs from the
+     * last accepted one by at least the deadband; quantized values equal to
+     * the last accepted one are always suppressed. Once a write failed, the
+     * last written value takes the place of the last accepted one.
+     * 
+     * @param deadband The deadband, in units of the output.
+     */
+    public void setDeadband(double deadband) {
+        if (!(deadband >= 0.0)) {
+            throw new IllegalArgumentException("Deadband must not be negative.");
+        }
+        this.deadband = deadband;
+    }
+    
+    /**
+     * Limits the rate of the writes to the device.
+     * 
+     * @param max_write_rate_hz The maximal number of writes per second, or
+     * 0 for no limit.
+     */
+    public void setMaxWriteRate(double max_write_rate_hz) {
+        if (!(max_write_rate_hz >= 0.0)) {
+            throw new IllegalArgumentException("Write rate must not be negative.");
+        }
+        this.min_write_interval_ns = max_write_rate_hz == 0.0 ? 0 :
+                Math.round(1e9 / max_write_rate_hz);
+    }
+    
+    /**
+     * Sets the policy providing the writer thread. Takes effect on the next
+     * {@link #start()}.
+     * 
+     * @param policy The execution policy, the default one otherwise.
+     */
+    @Override
+    public void setExecutionPolicy(ExecutionPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        this.execution_policy = policy;
+    }
+    
+    /**
+     * Starts the writer thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer_thread = execution_policy.newIoThread(new Runnable() {
+            @Override
+            public void run() {
+                runWrites();
+            }
+        }, "ALICA actuator output");
+        writer_thread.start();
+    }
+    
+    /**
+     * Stops the writer thread after writing the pending value, if any.
+     * 
+     * @throws InterruptedException If interrupted while waiting for the
+     * writer thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer_thread);
+        writer_thread.join();
+        writer_thread = null;
+    }
+    
+    /**
+     * Submits a new output value. Must be called from a single thread, e.g.
+     * the tick thread.
+     * 
+     * @param value The controller output.
+     * @return True if the value was accepted for writing, false if it was
+     * suppressed.
+     */
+    public boolean submit(double value) {
+        submitted_count.incrementAndGet();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            invalid_count.incrementAndGet();
+            return false;
+        }
+        double step = resolution;
+        if (step > 0.0) {
+            value = Math.rint(value / step) * step;
+        }
+        if (write_failed.compareAndSet(true, false)) {
+            last_accepted = last_written;
+        }
+        if (!Double.isNaN(last_accepted) &&
+                (value == last_accepted || Math.abs(value - last_accepted) < deadband)) {
+            deadband_count.incrementAndGet();
+            return false;
+        }
+        last_accepted = value;
+        if (pending.getAndSet(Double.doubleToRawLongBits(value)) != NO_VALUE) {
+            coalesced_count.incrementAndGet();
+        }
+        if (writer_waiting) {
+            LockSupport.unpark(writer_thread);
+        }
+        return true;
+    }
+    
+    /**
+     * Submits the controller output of a tick.
+     */
+    @Override
+    public void tickPerformed(long tick, double analyzer_output, double controller_output) {
+        submit(controller_output);
+    }
+    
+    /**
+     * @return The last value written to the device, or NaN.
+     */
+    public double getLastWrittenValue() {
+        return last_written;
+    }
+    
+    /**
+     * @return The number of submitted values.
+     */
+    public long getSubmittedCount() {
+        return submitted_count.get();
+    }
+    
+    /**
+     * @return The number of values written to the device.
+     */
+    public long getWrittenCount() {
+        return written_count.get();
+    }
+    
+    /**
+     * @return The number of values suppressed by the deadband or because
+     * they did not change after quantization.
+     */
+    public long getDeadbandSuppressedCount() {
+        return deadband_count.get();
+    }
+    
+    /**
+     * @return The number of accepted values replaced by a newer value before
+     * they were written.
+     */
+    public long getCoalescedCount() {
+        return coalesced_count.get();
+    }
+    
+    /**
+     * @return The number of NaN or infinite values which were rejected.
+     */
+    public long getInvalidCount() {
+        return invalid_count.get();
+    }
+    
+    /**
+     * @return The number of writes which failed.
+     */
+    public long getFailedCount() {
+        return failed_count.get();
+    }
+    
+    /**
+     * @return The total number of submitted values which were not written.
+     */
+    public long getSuppressedCount() {
+        return deadband_count.get() + coalesced_count.get() + invalid_count.get();
+    }
+    
+    /**
+     * Body of the writer thread.
+     */
+    private void runWrites() {
+        long last_write_start = System.nanoTime() - min_write_interval_ns;
+        while (true) {
+            boolean stopping = !running;
+            if (pending.get() == NO_VALUE) {
+                if (stopping) {
+                    return;
+                }
+                writer_waiting = true;
+                if (pending.get() == NO_VALUE && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                writer_waiting = false;
+                continue;
+            }
+            // newer values keep replacing the pending one during the wait
+            long wait = last_write_start + min_write_interval_ns - System.nanoTime();
+            if (wait > 0 && !stopping) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            long bits = pending.getAndSet(NO_VALUE);
+            if (bits == NO_VALUE) {
+                continue;
+            }
+            double value = Double.longBitsToDouble(bits);
+            last_write_start = System.nanoTime();
+            try {
+                sink.write(value);
+                last_written = value;
+                written_count.incrementAndGet();
+            } catch (Exception ex) {
+                failed_count.incrementAndGet();
+                write_failed.set(true);
+                Logger.getLogger(ActuatorOutputStage.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+/**
+ * The device receiving the output values of a controller, e.g. the power
+ * setting of a laser.
+ * 
+ * @author Marcel Stefko
+ * @see ActuatorOutputStage
+ */
+public interface ActuatorSink {
+    
+    /**
+     * Writes a value to the device. Called on the writer thread of an
+     * {@link ActuatorOutputStage}, never concurrently, so it may block for
+     * the duration of the device I/O.
+     * 
+     * @param value The value to be set.
+     * @throws Exception If the device could not be written.
+     */
+    public void write(double value) throws Exception;
+}
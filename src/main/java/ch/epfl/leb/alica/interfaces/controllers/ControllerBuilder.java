@@ -0,0 +1,44 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.ProductBuilder;
+import ch.epfl.leb.alica.interfaces.ProductParameters;
+
+/**
+ * Builds a controller from parameters, without a setup panel.
+ * @author Marcel Stefko
+ * @see ControllerSetupPanel
+ */
+public abstract class ControllerBuilder extends ProductBuilder {
+    
+    /**
+     * Construct the controller from the given parameters.
+     * @param parameters parameters of the controller, missing ones take
+     *  their default value
+     * @param max_controller_output maximal output value
+     * @param tick_rate_ms tick rate at which the controller will operate
+     * @return initialized controller
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    public abstract Controller build(ProductParameters parameters,
+            double max_controller_output, double tick_rate_ms);
+}
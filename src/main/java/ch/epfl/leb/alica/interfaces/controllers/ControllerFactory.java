@@ -21,18 +21,10 @@ package ch.epfl.leb.alica.interfaces.controllers;
 
 import ch.epfl.leb.alica.interfaces.AbstractFactory;
 import ch.epfl.leb.alica.interfaces.Controller;
-import ij.io.PluginClassLoader;
-import java.io.File;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import ch.epfl.leb.alica.interfaces.ProductChangeListener;
+import ch.epfl.leb.alica.interfaces.ProductParameters;
+import ch.epfl.leb.alica.interfaces.metrics.InstrumentedController;
+import ch.epfl.leb.alica.interfaces.plugins.PluginDiscovery;
 
 /**
  * Controller Factory
@@ -47,11 +39,48 @@ public class ControllerFactory extends AbstractFactory<ControllerSetupPanel>{
      */
     public ControllerFactory() {
         super();
-        for (ControllerSetupPanel sp: ControllerSetupPanelLoader.getControllerSetupPanels()) {
-            addSetupPanel(sp.getName(), sp);
+        PluginDiscovery.getDefault().scan();
+        addDiscoveredProducts(PluginDiscovery.getDefault(), ControllerSetupPanel.class);
+        addDiscoveredBuilders(PluginDiscovery.getDefault(), ControllerBuilder.class);
+    }
+    
+    private ControllerFactory(ProductChangeListener listener) {
+        super();
+        if (listener != null) {
+            addProductChangeListener(listener);
         }
     }
     
+    /**
+     * Create a factory which discovers the controllers on a background thread
+     * 
+     * The factory is returned immediately, e.g. so that the GUI can be shown
+     * while the plugin jars are scanned. Products appear in
+     * {@link #getProductNameList()} as their jar is scanned and are reported
+     * to the listener; {@link #getDiscoveryFuture()} completes when all jars
+     * were scanned. Setup panels whose name is not cached in the plugin index
+     * are created on the event dispatch thread, which the discovery thread
+     * waits for.
+     * @param listener notified of each discovered product, or null
+     * @return the factory, still discovering its products
+     */
+    public static ControllerFactory createInBackground(ProductChangeListener listener) {
+        final ControllerFactory retval = new ControllerFactory(listener);
+        retval.discoverInBackground(new Runnable() {
+            @Override
+            public void run() {
+                retval.addDiscoveredProducts(PluginDiscovery.getDefault(), ControllerSetupPanel.class);
+                retval.addDiscoveredBuilders(PluginDiscovery.getDefault(), ControllerBuilder.class);
+            }
+        });
+        return retval;
+    }
+    
+    @Override
+    protected String getProductName(ControllerSetupPanel panel) {
+        return panel.getName();
+    }
+    
     /**
      * Set maximal output value of the constructed controller
      * @param max_controller_output
@@ -68,92 +97,47 @@ public class ControllerFactory extends AbstractFactory<ControllerSetupPanel>{
         this.tick_rate_ms = tick_rate_ms;
     }
     
+    /**
+     * Returns the tick rate at which the controller will operate. Use a
+     * {@link ControllerTickScheduler} to tick the controller at this rate.
+     * @return tick rate in milliseconds
+     */
+    public double getControllerTickRateMs() {
+        return tick_rate_ms;
+    }
+    
     /**
      * Build the selected controller using current settings
+     * 
+     * The controller runs under the execution policy of the factory. If the
+     * factory is instrumented, the controller is wrapped in an
+     * {@link InstrumentedController} whose metrics are registered over JMX.
      * @return initialized controller
      */
     public Controller build() {
-        return getSelectedSetupPanel().initController(max_controller_output, tick_rate_ms);
+        return instrument(applyExecutionPolicy(
+                getSelectedSetupPanel().initController(max_controller_output, tick_rate_ms)));
     }
-}
-
-
-class ControllerSetupPanelLoader {
-    // I use this just to print jars in the working dir, whatever
-    private static PluginClassLoader class_loader = new PluginClassLoader("./");
     
     /**
-     * Dynamically loads ControllerSetupPanels from available jar files. 
-     * The jar filename MUST begin with "ALICA_" for the jar to be recognized.
-     * @return list of loaded setup panels
+     * Build a controller without its setup panel, e.g. on a headless
+     * machine, using the current maximal output and tick rate
+     * @param name name of the controller builder
+     * @param parameters parameters of the controller
+     * @return initialized controller
+     * @see #getBuilderNameList()
      */
-    public static ArrayList<ControllerSetupPanel> getControllerSetupPanels() {
-        
-        ArrayList<ControllerSetupPanel> retval = new ArrayList<ControllerSetupPanel>();
-        
-        // print urls of files in mmplugins folder
-        for (URL u: class_loader.getURLs()) {
-            // if it doesnt match desired filename, skip it
-            if (!u.toString().toUpperCase().contains("ALICA_") ||
-                !u.toString().contains(".jar")) {
-                continue;
-            } else if (u.toString().contains("ALICA_interfaces")) {
-                 //This prevents a non-critical error from being raised by
-                 //forcing the dynamic class loader to skip the interfaces .jar.
-                continue;
-            } else {
-                Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.FINE, "Loading ALICA analyzers from:\n" + u.toString());
-            }
-            
-            // open the jar file
-            JarFile jarFile = null;
-            try {
-                jarFile = new JarFile(new File(u.toURI()));
-            } catch (IOException ex) {
-                Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                continue;
-            } catch (URISyntaxException ex) {
-                Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                continue;
-            }
-
-            // list all entries, and initiate classloader
-            Enumeration<JarEntry> e = jarFile.entries();
-            URL[] urls = { u };
-            // it is vital to include a parent classloader from original ALICA package
-            URLClassLoader cl = URLClassLoader.newInstance(urls, ControllerSetupPanelLoader.class.getClassLoader());
-            
-            // iterate over entries, filter out those which arent a class
-            while (e.hasMoreElements()) {
-                JarEntry je = e.nextElement();
-                if(je.isDirectory() || !je.getName().endsWith(".class")){
-                    continue;
-                }
-                // remove .class from end of string
-                String className = je.getName().substring(0,je.getName().length()-6);
-                className = className.replace('/', '.');
-                Class c = null;
-                // try to load class
-                try {
-                    c = cl.loadClass(className);
-                } catch (ClassNotFoundException ex) {
-                    Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    continue;
-                }
-                
-                // verify that class is subclass of ControllerSetupPanel and add it
-                if (ControllerSetupPanel.class.isAssignableFrom(c)) {
-                    try {
-                        retval.add((ControllerSetupPanel) c.newInstance());
-                    } catch (InstantiationException ex) {
-                        Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (IllegalAccessException ex) {
-                        Logger.getLogger(ControllerSetupPanelLoader.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-            }
+    public Controller build(String name, ProductParameters parameters) {
+        return instrument(applyExecutionPolicy(getBuilder(name, ControllerBuilder.class).build(
+                parameters, max_controller_output, tick_rate_ms)));
+    }
+    
+    private Controller instrument(Controller controller) {
+        if (isInstrumented()) {
+            InstrumentedController instrumented = InstrumentedController.wrap(controller);
+            instrumented.registerMBean();
+            return instrumented;
         }
-        return retval;
+        return controller;
     }
 }
-
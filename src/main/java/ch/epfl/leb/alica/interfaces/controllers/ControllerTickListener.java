@@ -0,0 +1,39 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+/**
+ * Receives the result of each tick of a {@link ControllerTickScheduler},
+ * e.g. to forward the controller output to the hardware.
+ * 
+ * @author Marcel Stefko
+ */
+public interface ControllerTickListener {
+    
+    /**
+     * Called on the tick thread after each tick. Implementations should
+     * return quickly, as they delay the next tick.
+     * 
+     * @param tick Index of the tick since the scheduler was started.
+     * @param analyzer_output The batch output of the analyzer, possibly NaN.
+     * @param controller_output The new output value of the controller.
+     */
+    public void tickPerformed(long tick, double analyzer_output, double controller_output);
+}
@@ -0,0 +1,355 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatch;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatchAnalyzer;
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicy;
+import ch.epfl.leb.alica.interfaces.execution.ExecutionPolicyAware;
+import ch.epfl.leb.alica.interfaces.metrics.LatencyHistogram;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives a controller at a fixed tick rate.
+ * 
+ * On each tick, the batch output of the analyzer is passed to
+ * {@link Controller#nextValue(double)} and the result is handed to the
+ * registered {@link ControllerTickListener}s. If the analyzer is a
+ * {@link SampleBatchAnalyzer} and the controller a
+ * {@link SampleBatchController}, the controller receives the timestamped
+ * samples of the tick instead, in a batch which is reused for every tick;
+ * the listeners then get the mean of the valid samples as analyzer output.
+ * 
+ * Tick deadlines are computed from the start time, so that the schedule does
+ * not drift. The tick thread sleeps until shortly before each deadline and
+ * spins for the rest of the time, which keeps the jitter well below a
+ * millisecond at the cost of some CPU time; see
+ * {@link #setSpinNanos(long)}. The distribution of the actual tick intervals,
+ * of the delay of each tick behind its deadline and of the tick durations are
+ * recorded.
+ * 
+ * The tick thread is a control thread of the {@link ExecutionPolicy}, i.e. a
+ * high-priority platform thread which may be pinned to dedicated CPUs.
+ * 
+ * @author Marcel Stefko
+ */
+public class ControllerTickScheduler implements ExecutionPolicyAware {
+    
+    /**
+     * Default time spent spinning before each deadline.
+     */
+    public static final long DEFAULT_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    
+    /**
+     * Maximal number of samples passed to a SampleBatchController per tick.
+     */
+    public static final int SAMPLE_BATCH_CAPACITY = 4096;
+    
+    private final Analyzer analyzer;
+    private final Controller controller;
+    private final long period_ns;
+    
+    /**
+     * Reused for every tick, or null if the samples are not used.
+     */
+    private final SampleBatch sample_batch;
+    
+    private volatile MissedTickPolicy missed_tick_policy = MissedTickPolicy.SKIP;
+    private volatile long spin_nanos = DEFAULT_SPIN_NANOS;
+    private volatile ExecutionPolicy execution_policy = ExecutionPolicy.getDefault();
+    private volatile boolean running = false;
+    private Thread tick_thread = null;
+    
+    private final CopyOnWriteArrayList<ControllerTickListener> listeners =
+            new CopyOnWriteArrayList<ControllerTickListener>();
+    
+    private final AtomicLong tick_count = new AtomicLong(0);
+    private final AtomicLong missed_tick_count = new AtomicLong(0);
+    private final LatencyHistogram interval_histogram = new LatencyHistogram();
+    private final LatencyHistogram lateness_histogram = new LatencyHistogram();
+    private final LatencyHistogram duration_histogram = new LatencyHistogram();
+    
+    /**
+     * Initializes the scheduler.
+     * 
+     * @param analyzer The analyzer whose batch output is read on each tick.
+     * @param controller The controller receiving the analyzer output.
+     * @param tick_rate_ms The tick period in milliseconds, as set with
+     * {@link ControllerFactory#setControllerTickRateMs(double)}.
+     */
+    public ControllerTickScheduler(Analyzer analyzer, Controller controller, double tick_rate_ms) {
+        if (analyzer == null || controller == null) {
+            throw new NullPointerException();
+        }
+        if (!(tick_rate_ms > 0.0)) {
+            throw new IllegalArgumentException("Tick rate must be positive.");
+        }
+        this.analyzer = analyzer;
+        this.controller = controller;
+        this.period_ns = Math.round(tick_rate_ms * 1e6);
+        if (analyzer instanceof SampleBatchAnalyzer && controller instanceof SampleBatchController) {
+            this.sample_batch = new SampleBatch(SAMPLE_BATCH_CAPACITY);
+        } else {
+            this.sample_batch = null;
+        }
+    }
+    
+    /**
+     * Selects what happens when ticks are missed.
+     * 
+     * @param policy The missed tick policy, SKIP by default.
+     */
+    public void setMissedTickPolicy(MissedTickPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        this.missed_tick_policy = policy;
+    }
+    
+    /**
+     * Returns what happens when ticks are missed.
+     * 
+     * @return The missed tick policy.
+     */
+    public MissedTickPolicy getMissedTickPolicy() {
+        return missed_tick_policy;
+    }
+    
+    /**
+     * Sets how long before each deadline the tick thread stops sleeping and
+     * starts spinning. Larger values reduce the jitter on systems with coarse
+     * timers; 0 disables spinning.
+     * 
+     * @param spin_nanos The spinning time in nanoseconds.
+     */
+    public void setSpinNanos(long spin_nanos) {
+        if (spin_nanos < 0) {
+            throw new IllegalArgumentException("Spin time must not be negative.");
+        }
+        this.spin_nanos = spin_nanos;
+    }
+    
+    /**
+     * Sets the policy providing the tick thread. Takes effect on the next
+     * {@link #start()}.
+     * 
+     * @param policy The execution policy, the default one otherwise.
+     */
+    @Override
+    public void setExecutionPolicy(ExecutionPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        this.execution_policy = policy;
+    }
+    
+    /**
+     * Returns the tick period.
+     * 
+     * @return The tick period in nanoseconds.
+     */
+    public long getPeriodNanos() {
+        return period_ns;
+    }
+    
+    /**
+     * Registers a listener which is called after each tick.
+     * 
+     * @param listener The listener.
+     */
+    public void addTickListener(ControllerTickListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener.
+     * 
+     * @param listener The listener.
+     */
+    public void removeTickListener(ControllerTickListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Starts ticking on a new control thread of the execution policy. The
+     * first tick happens one period after the start.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        tick_thread = execution_policy.newControlThread(new Runnable() {
+            @Override
+            public void run() {
+                runTicks();
+            }
+        }, "ALICA controller " + controller.getName());
+        tick_thread.start();
+    }
+    
+    /**
+     * Stops ticking and waits for the current tick to finish.
+     * 
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(tick_thread);
+        tick_thread.join();
+        tick_thread = null;
+    }
+    
+    /**
+     * Returns whether the scheduler is ticking.
+     * 
+     * @return True between {@link #start()} and {@link #stop()}.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Returns the number of performed ticks.
+     * 
+     * @return The number of ticks.
+     */
+    public long getTickCount() {
+        return tick_count.get();
+    }
+    
+    /**
+     * Returns the number of ticks skipped with the SKIP policy.
+     * 
+     * @return The number of missed ticks.
+     */
+    public long getMissedTickCount() {
+        return missed_tick_count.get();
+    }
+    
+    /**
+     * Returns the distribution of the time between the starts of consecutive
+     * ticks.
+     * 
+     * @return The tick interval histogram.
+     */
+    public LatencyHistogram getIntervalHistogram() {
+        return interval_histogram;
+    }
+    
+    /**
+     * Returns the distribution of the delay of each tick behind its deadline.
+     * 
+     * @return The tick lateness histogram.
+     */
+    public LatencyHistogram getLatenessHistogram() {
+        return lateness_histogram;
+    }
+    
+    /**
+     * Returns the distribution of the time taken by each tick, including the
+     * listeners.
+     * 
+     * @return The tick duration histogram.
+     */
+    public LatencyHistogram getDurationHistogram() {
+        return duration_histogram;
+    }
+    
+    /**
+     * Body of the tick thread.
+     */
+    private void runTicks() {
+        long deadline = System.nanoTime() + period_ns;
+        long last_start = 0;
+        long tick = 0;
+        while (running) {
+            waitUntil(deadline);
+            if (!running) {
+                break;
+            }
+            long start = System.nanoTime();
+            lateness_histogram.record(start - deadline);
+            if (tick > 0) {
+                interval_histogram.record(start - last_start);
+            }
+            last_start = start;
+            performTick(tick++);
+            long end = System.nanoTime();
+            duration_histogram.record(end - start);
+            
+            // deadlines are derived from the schedule, not from the wake-up
+            // time, so that errors do not accumulate
+            deadline += period_ns;
+            if (end - deadline > 0 && missed_tick_policy == MissedTickPolicy.SKIP) {
+                long missed = (end - deadline) / period_ns + 1;
+                deadline += missed * period_ns;
+                missed_tick_count.addAndGet(missed);
+            }
+        }
+    }
+    
+    private void performTick(long tick) {
+        try {
+            double analyzer_output;
+            double controller_output;
+            if (sample_batch != null) {
+                ((SampleBatchAnalyzer) analyzer).drainSamples(sample_batch);
+                analyzer_output = sample_batch.getMean();
+                controller_output = ((SampleBatchController) controller).nextValue(sample_batch);
+            } else {
+                analyzer_output = analyzer.getBatchOutput();
+                controller_output = controller.nextValue(analyzer_output);
+            }
+            tick_count.incrementAndGet();
+            for (ControllerTickListener listener: listeners) {
+                listener.tickPerformed(tick, analyzer_output, controller_output);
+            }
+        } catch (RuntimeException ex) {
+            Logger.getLogger(ControllerTickScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Sleeps until shortly before the deadline, then spins.
+     */
+    private void waitUntil(long deadline) {
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            long spin = spin_nanos;
+            if (remaining > spin) {
+                LockSupport.parkNanos(this, remaining - spin);
+            }
+        }
+    }
+}
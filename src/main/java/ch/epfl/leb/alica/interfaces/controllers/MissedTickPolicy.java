@@ -0,0 +1,39 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+/**
+ * What a {@link ControllerTickScheduler} does when one or more ticks were
+ * missed, e.g. because a tick took longer than the tick period.
+ * 
+ * @author Marcel Stefko
+ */
+public enum MissedTickPolicy {
+    /**
+     * Skip the missed ticks and continue with the next tick on the original
+     * schedule.
+     */
+    SKIP,
+    
+    /**
+     * Run the missed ticks back-to-back until the schedule is caught up.
+     */
+    CATCH_UP
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.controllers;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatch;
+
+/**
+ * A controller which can use the individual per-frame samples of a
+ * {@link ch.epfl.leb.alica.interfaces.analyzers.SampleBatchAnalyzer}
+ * instead of a single batch output.
+ * 
+ * @author Marcel Stefko
+ */
+public interface SampleBatchController extends Controller {
+    
+    /**
+     * Calculates next output based on the samples since the previous tick.
+     * 
+     * The batch is reused for the next tick and must not be kept.
+     * 
+     * @param samples The timestamped samples, possibly empty.
+     * @return Output value from the controller.
+     */
+    public double nextValue(SampleBatch samples);
+}
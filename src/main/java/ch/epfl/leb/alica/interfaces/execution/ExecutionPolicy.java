@@ -0,0 +1,381 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.execution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides on which threads the stages of a control loop run, so that the
+ * latency-critical and the throughput-critical stages can be tuned
+ * separately on the same host.
+ * 
+ * Three kinds of work are distinguished:
+ * <ul>
+ * <li>The control loop, e.g. a
+ * {@link ch.epfl.leb.alica.interfaces.controllers.ControllerTickScheduler},
+ * runs on a dedicated high-priority platform thread, which can be pinned to
+ * a set of CPUs.</li>
+ * <li>The analysis of frames, e.g. by an
+ * {@link ch.epfl.leb.alica.interfaces.analyzers.AbstractParallelAnalyzer},
+ * runs on a fork-join pool shared by all analyzers.</li>
+ * <li>Blocking I/O, e.g. the device writes of an
+ * {@link ch.epfl.leb.alica.interfaces.controllers.ActuatorOutputStage},
+ * runs on virtual threads when the JVM supports them (Java 21 and later),
+ * and on daemon platform threads otherwise.</li>
+ * </ul>
+ * 
+ * CPU pinning uses the taskset command and is only supported on Linux; on
+ * other systems, or if it fails, the thread runs unpinned and a warning is
+ * logged.
+ * 
+ * The factories pass their policy to the products implementing
+ * {@link ExecutionPolicyAware}; the default policy is used otherwise.
+ * 
+ * @author Marcel Stefko
+ */
+public class ExecutionPolicy {
+    
+    private static ExecutionPolicy default_policy = null;
+    private static ForkJoinPool shared_analysis_pool = null;
+    
+    private volatile int control_priority = Thread.MAX_PRIORITY;
+    private volatile int[] control_cpus = null;
+    private volatile ForkJoinPool analysis_pool = null;
+    private volatile boolean virtual_io_threads = true;
+    
+    /**
+     * Returns the policy used by products which were not given one.
+     * 
+     * @return The default execution policy.
+     */
+    public static synchronized ExecutionPolicy getDefault() {
+        if (default_policy == null) {
+            default_policy = new ExecutionPolicy();
+        }
+        return default_policy;
+    }
+    
+    /**
+     * Replaces the default policy, e.g. once at the startup of a host.
+     * 
+     * @param policy The new default execution policy.
+     */
+    public static synchronized void setDefault(ExecutionPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        default_policy = policy;
+    }
+    
+    /**
+     * Sets the priority of the control loop threads.
+     * 
+     * @param priority The thread priority, MAX_PRIORITY by default.
+     */
+    public void setControlPriority(int priority) {
+        if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Invalid thread priority: " + priority);
+        }
+        this.control_priority = priority;
+    }
+    
+    /**
+     * @return The priority of the control loop threads.
+     */
+    public int getControlPriority() {
+        return control_priority;
+    }
+    
+    /**
+     * Pins the control loop threads to a set of CPUs, e.g. to CPUs which
+     * are isolated from the scheduler.
+     * 
+     * @param cpus The indices of the CPUs, or null to leave the threads
+     * unpinned.
+     */
+    public void setControlCpus(int... cpus) {
+        if (cpus != null) {
+            for (int cpu: cpus) {
+                if (cpu < 0) {
+                    throw new IllegalArgumentException("Invalid CPU index: " + cpu);
+                }
+            }
+            cpus = cpus.length == 0 ? null : cpus.clone();
+        }
+        this.control_cpus = cpus;
+    }
+    
+    /**
+     * @return The CPUs the control loop threads are pinned to, or null.
+     */
+    public int[] getControlCpus() {
+        int[] cpus = control_cpus;
+        return cpus == null ? null : cpus.clone();
+    }
+    
+    /**
+     * Sets the pool on which frames are analyzed.
+     * 
+     * @param pool The analysis pool, or null for the pool shared by all
+     * policies.
+     */
+    public void setAnalysisPool(ForkJoinPool pool) {
+        this.analysis_pool = pool;
+    }
+    
+    /**
+     * Returns the pool on which frames are analyzed.
+     * 
+     * @return The analysis pool, by default a pool shared by all policies
+     * with one thread per available processor.
+     */
+    public ForkJoinPool getAnalysisPool() {
+        ForkJoinPool pool = analysis_pool;
+        return pool == null ? getSharedAnalysisPool() : pool;
+    }
+    
+    private static synchronized ForkJoinPool getSharedAnalysisPool() {
+        if (shared_analysis_pool == null) {
+            shared_analysis_pool = new ForkJoinPool();
+        }
+        return shared_analysis_pool;
+    }
+    
+    /**
+     * Selects whether blocking I/O runs on virtual threads when they are
+     * supported.
+     * 
+     * @param enabled False to always use platform threads.
+     */
+    public void setVirtualIoThreads(boolean enabled) {
+        this.virtual_io_threads = enabled;
+    }
+    
+    /**
+     * Returns whether blocking I/O runs on virtual threads.
+     * 
+     * @return True if virtual threads are enabled and supported by the JVM.
+     */
+    public boolean isVirtualIoThreads() {
+        return virtual_io_threads && VirtualThreads.SUPPORTED;
+    }
+    
+    /**
+     * Creates a thread for a control loop, with the control priority, which
+     * pins itself to the control CPUs when started. The thread is not
+     * started.
+     * 
+     * @param task The control loop.
+     * @param name Name of the thread.
+     * @return The new daemon platform thread.
+     */
+    public Thread newControlThread(final Runnable task, String name) {
+        final int[] cpus = control_cpus;
+        Runnable pinned_task = task;
+        if (cpus != null) {
+            pinned_task = new Runnable() {
+                @Override
+                public void run() {
+                    pinCurrentThread(cpus);
+                    task.run();
+                }
+            };
+        }
+        Thread retval = new Thread(pinned_task, name);
+        retval.setDaemon(true);
+        retval.setPriority(control_priority);
+        return retval;
+    }
+    
+    /**
+     * Creates a thread for blocking I/O. The thread is not started.
+     * 
+     * @param task The I/O task.
+     * @param name Name of the thread.
+     * @return A virtual thread if enabled and supported, otherwise a daemon
+     * platform thread.
+     */
+    public Thread newIoThread(Runnable task, String name) {
+        if (isVirtualIoThreads()) {
+            Thread retval = VirtualThreads.newThread(task, name);
+            if (retval != null) {
+                return retval;
+            }
+        }
+        Thread retval = new Thread(task, name);
+        retval.setDaemon(true);
+        return retval;
+    }
+    
+    /**
+     * Creates an executor for blocking I/O tasks, which must be shut down by
+     * the caller.
+     * 
+     * @param name Name of the threads.
+     * @return An executor starting a virtual thread per task if enabled and
+     * supported, otherwise a cached pool of daemon platform threads.
+     */
+    public ExecutorService newIoExecutor(final String name) {
+        if (isVirtualIoThreads()) {
+            ExecutorService retval = VirtualThreads.newExecutor();
+            if (retval != null) {
+                return retval;
+            }
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread retval = new Thread(task, name);
+                retval.setDaemon(true);
+                return retval;
+            }
+        });
+    }
+    
+    /**
+     * Pins the calling thread to a set of CPUs with taskset.
+     * 
+     * @param cpus The indices of the CPUs.
+     * @return True if the thread was pinned.
+     */
+    public static boolean pinCurrentThread(int[] cpus) {
+        StringBuilder list = new StringBuilder();
+        for (int cpu: cpus) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpu);
+        }
+        try {
+            // resolves to /proc/<pid>/task/<tid> on Linux
+            Path self = Paths.get("/proc/thread-self").toRealPath();
+            String tid = self.getFileName().toString();
+            Process process = new ProcessBuilder("taskset", "-p", "-c", list.toString(), tid)
+                    .redirectErrorStream(true).start();
+            String output = readFully(process.getInputStream());
+            if (process.waitFor() != 0) {
+                Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING,
+                        "Unable to pin thread to CPUs " + list + ": " + output.trim());
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING,
+                    "CPU pinning is not supported on this system: " + ex);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private static String readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream retval = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try {
+            int n;
+            while ((n = input.read(buffer)) >= 0) {
+                retval.write(buffer, 0, n);
+            }
+        } finally {
+            input.close();
+        }
+        return retval.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return "ExecutionPolicy[control priority " + control_priority +
+                ", control CPUs " + (control_cpus == null ? "any" : Arrays.toString(control_cpus)) +
+                ", analysis pool parallelism " + getAnalysisPool().getParallelism() +
+                ", " + (isVirtualIoThreads() ? "virtual" : "platform") + " I/O threads]";
+    }
+    
+    /**
+     * Access to the virtual threads of Java 21 and later, through reflection
+     * so that the interfaces still run on older JVMs.
+     */
+    private static class VirtualThreads {
+        static final boolean SUPPORTED;
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method UNSTARTED;
+        private static final Method NEW_EXECUTOR;
+        
+        static {
+            Method of_virtual = null;
+            Method name = null;
+            Method unstarted = null;
+            Method new_executor = null;
+            try {
+                of_virtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class);
+                unstarted = builder.getMethod("unstarted", Runnable.class);
+                new_executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch (NoSuchMethodException ex) {
+                of_virtual = null;
+            } catch (ClassNotFoundException ex) {
+                of_virtual = null;
+            }
+            SUPPORTED = of_virtual != null;
+            OF_VIRTUAL = of_virtual;
+            NAME = name;
+            UNSTARTED = unstarted;
+            NEW_EXECUTOR = new_executor;
+        }
+        
+        static Thread newThread(Runnable task, String name) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) UNSTARTED.invoke(builder, task);
+            } catch (IllegalAccessException ex) {
+                Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING, null, ex);
+            } catch (InvocationTargetException ex) {
+                Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING, null, ex.getCause());
+            }
+            return null;
+        }
+        
+        static ExecutorService newExecutor() {
+            try {
+                return (ExecutorService) NEW_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException ex) {
+                Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING, null, ex);
+            } catch (InvocationTargetException ex) {
+                Logger.getLogger(ExecutionPolicy.class.getName()).log(Level.WARNING, null, ex.getCause());
+            }
+            return null;
+        }
+    }
+}
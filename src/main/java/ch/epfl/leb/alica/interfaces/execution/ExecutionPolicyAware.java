@@ -0,0 +1,40 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.execution;
+
+/**
+ * A product which runs work on threads chosen by an
+ * {@link ExecutionPolicy}.
+ * 
+ * The factories pass their execution policy to the products they build
+ * which implement this interface, before returning them.
+ * 
+ * @author Marcel Stefko
+ */
+public interface ExecutionPolicyAware {
+    
+    /**
+     * Sets the policy under which the product runs. Called before the
+     * product is used.
+     * 
+     * @param policy The execution policy.
+     */
+    public void setExecutionPolicy(ExecutionPolicy policy);
+}
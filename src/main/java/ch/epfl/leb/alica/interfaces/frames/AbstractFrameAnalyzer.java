@@ -0,0 +1,47 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+/**
+ * Base class for analyzers which only implement
+ * {@link FrameAnalyzer#processFrame(Frame)}.
+ * 
+ * Pixel arrays passed to processImage are wrapped in a frame without copy.
+ * 
+ * @author Marcel Stefko
+ */
+public abstract class AbstractFrameAnalyzer implements FrameAnalyzer {
+    
+    /**
+     * Wraps the image in a frame and passes it to
+     * {@link #processFrame(Frame)}.
+     * 
+     * @param image The image to be processed as 1D raw pixel data.
+     * @param image_width Image width in pixels.
+     * @param image_height Image height in pixels.
+     * @param pixel_size_um Length of a side of a square pixel in micrometers.
+     * @param time_ms Image acquisition time in milliseconds.
+     */
+    @Override
+    public void processImage(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        processFrame(Frame.wrap(image, image_width, image_height, pixel_size_um, time_ms));
+    }
+}
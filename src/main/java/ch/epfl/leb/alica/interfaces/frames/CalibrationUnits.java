@@ -0,0 +1,90 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+/**
+ * Converts calibrated lengths and times, as written by ImageJ and in OME-XML,
+ * to the micrometers and milliseconds used by frames.
+ * 
+ * @author Marcel Stefko
+ */
+final class CalibrationUnits {
+    
+    private CalibrationUnits() {
+    }
+    
+    /**
+     * Converts a length to micrometers.
+     * 
+     * @param value The length.
+     * @param unit Name or symbol of the length unit.
+     * @return The length in micrometers, or NaN if the unit is unknown.
+     */
+    static double toMicrometers(double value, String unit) {
+        if (unit == null) {
+            return Double.NaN;
+        }
+        String u = unit.trim().toLowerCase();
+        if (u.equals("micron") || u.equals("microns") || u.equals("um") ||
+            u.equals("\u00B5m") || u.equals("\u03BCm") ||
+            u.equals("micrometer") || u.equals("micrometers")) {
+            return value;
+        } else if (u.equals("nm") || u.equals("nanometer") || u.equals("nanometers")) {
+            return value / 1000.0;
+        } else if (u.equals("mm") || u.equals("millimeter") || u.equals("millimeters")) {
+            return value * 1000.0;
+        } else if (u.equals("cm") || u.equals("centimeter") || u.equals("centimeters")) {
+            return value * 10000.0;
+        } else if (u.equals("m") || u.equals("meter") || u.equals("meters")) {
+            return value * 1000000.0;
+        }
+        return Double.NaN;
+    }
+    
+    /**
+     * Converts a time to milliseconds.
+     * 
+     * @param value The time.
+     * @param unit Name or symbol of the time unit.
+     * @return The time in milliseconds, or NaN if the unit is unknown.
+     */
+    static double toMilliseconds(double value, String unit) {
+        if (unit == null) {
+            return Double.NaN;
+        }
+        String u = unit.trim().toLowerCase();
+        if (u.equals("s") || u.equals("sec") || u.equals("second") || u.equals("seconds")) {
+            return value * 1000.0;
+        } else if (u.equals("ms") || u.equals("msec") ||
+                   u.equals("millisecond") || u.equals("milliseconds")) {
+            return value;
+        } else if (u.equals("us") || u.equals("\u00B5s") || u.equals("\u03BCs") ||
+                   u.equals("usec") || u.equals("microsecond") || u.equals("microseconds")) {
+            return value / 1000.0;
+        } else if (u.equals("ns") || u.equals("nanosecond") || u.equals("nanoseconds")) {
+            return value / 1000000.0;
+        } else if (u.equals("min") || u.equals("minute") || u.equals("minutes")) {
+            return value * 60000.0;
+        } else if (u.equals("h") || u.equals("hr") || u.equals("hour") || u.equals("hours")) {
+            return value * 3600000.0;
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,440 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single acquired image together with its geometry and metadata.
+ * 
+ * The pixels are accessed through a buffer of the frame's pixel type. A
+ * frame either wraps a Java pixel array, as produced by ImageJ or
+ * Micro-Manager, or a (direct) ByteBuffer delivered by a camera. In both
+ * cases no pixels are copied when the frame is created.
+ * 
+ * Rows are stride pixels apart, which allows to wrap camera buffers with
+ * padded rows. 8- and 16-bit pixels are unsigned.
+ * 
+ * Frames acquired from a {@link FrameBufferPool} are reference counted and
+ * return to their pool once they are released by every holder. Retaining and
+ * releasing frames which were created by wrap() has no effect.
+ * 
+ * @author Marcel Stefko
+ * @see FrameAnalyzer
+ */
+public class Frame {
+    
+    private final PixelType pixel_type;
+    private final int width;
+    private final int height;
+    private final int stride;
+    
+    /**
+     * Typed view of the pixels, i.e. a ByteBuffer, ShortBuffer or FloatBuffer
+     * depending on the pixel type.
+     */
+    private final Buffer pixels;
+    
+    /**
+     * The wrapped Java array, or null if the frame wraps a ByteBuffer.
+     */
+    private final Object array;
+    
+    private double pixel_size_um;
+    private long time_ms;
+    
+    /**
+     * The pool owning the frame, or null.
+     */
+    private final FrameBufferPool pool;
+    
+    /**
+     * Number of holders of a pooled frame.
+     */
+    private final AtomicInteger ref_count;
+    
+    private Frame(PixelType pixel_type, Buffer pixels, Object array,
+            int width, int height, int stride, double pixel_size_um, long time_ms) {
+        this(pixel_type, pixels, array, width, height, stride, pixel_size_um, time_ms, null);
+    }
+    
+    /**
+     * Initializes a frame owned by a pool.
+     */
+    Frame(PixelType pixel_type, Buffer pixels, Object array,
+            int width, int height, int stride, double pixel_size_um, long time_ms,
+            FrameBufferPool pool) {
+        if (width <= 0 || height <= 0 || stride < width) {
+            throw new IllegalArgumentException("Invalid frame geometry: " +
+                    width + "x" + height + ", stride " + stride);
+        }
+        if (pixels.capacity() < (long) stride * (height - 1) + width) {
+            throw new IllegalArgumentException("Pixel buffer is too small for a " +
+                    width + "x" + height + " frame with stride " + stride);
+        }
+        this.pixel_type = pixel_type;
+        this.pixels = pixels;
+        this.array = array;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.pixel_size_um = pixel_size_um;
+        this.time_ms = time_ms;
+        this.pool = pool;
+        this.ref_count = pool == null ? null : new AtomicInteger(0);
+    }
+    
+    /**
+     * Wraps a Java pixel array, as passed to
+     * {@link Analyzer#processImage(Object, int, int, double, long)}.
+     * 
+     * @param image The image as 1D raw pixel data (byte[], short[] or float[]).
+     * @param image_width Image width in pixels.
+     * @param image_height Image height in pixels.
+     * @param pixel_size_um Length of a side of a square pixel in micrometers.
+     * @param time_ms Image acquisition time in milliseconds.
+     * @return The frame backed by the array.
+     */
+    public static Frame wrap(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        PixelType type = PixelType.of(image);
+        Buffer pixels;
+        switch (type) {
+            case BYTE:
+                pixels = ByteBuffer.wrap((byte[]) image);
+                break;
+            case SHORT:
+                pixels = ShortBuffer.wrap((short[]) image);
+                break;
+            default:
+                pixels = FloatBuffer.wrap((float[]) image);
+                break;
+        }
+        return new Frame(type, pixels, image, image_width, image_height,
+                image_width, pixel_size_um, time_ms);
+    }
+    
+    /**
+     * Wraps a byte buffer, e.g. a direct buffer filled by a camera driver.
+     * 
+     * The frame starts at the current position of the buffer, and multi-byte
+     * pixels are read with the byte order of the buffer.
+     * 
+     * @param buffer The raw pixel data.
+     * @param pixel_type The data type of the pixels.
+     * @param image_width Image width in pixels.
+     * @param image_height Image height in pixels.
+     * @param stride Distance between the start of two rows, in pixels.
+     * @param pixel_size_um Length of a side of a square pixel in micrometers.
+     * @param time_ms Image acquisition time in milliseconds.
+     * @return The frame backed by the buffer.
+     */
+    public static Frame wrap(ByteBuffer buffer, PixelType pixel_type,
+            int image_width, int image_height, int stride,
+            double pixel_size_um, long time_ms) {
+        // slice() resets the byte order
+        ByteBuffer bytes = buffer.slice().order(buffer.order());
+        Buffer pixels;
+        switch (pixel_type) {
+            case BYTE:
+                pixels = bytes;
+                break;
+            case SHORT:
+                pixels = bytes.asShortBuffer();
+                break;
+            default:
+                pixels = bytes.asFloatBuffer();
+                break;
+        }
+        return new Frame(pixel_type, pixels, null, image_width, image_height,
+                stride, pixel_size_um, time_ms);
+    }
+    
+    /**
+     * Returns the pool the frame belongs to.
+     * 
+     * @return The owning pool, or null if the frame is not pooled.
+     */
+    public FrameBufferPool getPool() {
+        return pool;
+    }
+    
+    /**
+     * Adds a holder of the frame, which must call {@link #release()} when it
+     * no longer needs the frame.
+     * 
+     * @return This frame.
+     * @throws IllegalStateException If the frame was already returned to its
+     * pool.
+     */
+    public Frame retain() {
+        if (ref_count != null) {
+            int count;
+            do {
+                count = ref_count.get();
+                if (count <= 0) {
+                    throw new IllegalStateException("Frame was already released.");
+                }
+            } while (!ref_count.compareAndSet(count, count + 1));
+        }
+        return this;
+    }
+    
+    /**
+     * Removes a holder of the frame. The frame returns to its pool when the
+     * last holder releases it, and must not be accessed afterwards.
+     * 
+     * @throws IllegalStateException If the frame was already returned to its
+     * pool.
+     */
+    public void release() {
+        if (ref_count == null) {
+            return;
+        }
+        int count;
+        do {
+            count = ref_count.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame was already released.");
+            }
+        } while (!ref_count.compareAndSet(count, count - 1));
+        if (count == 1) {
+            pool.recycle(this);
+        }
+    }
+    
+    /**
+     * Marks a frame taken from the pool as held by the acquirer.
+     */
+    void acquired() {
+        ref_count.set(1);
+    }
+    
+    /**
+     * Returns the data type of the pixels.
+     * 
+     * @return The pixel type.
+     */
+    public PixelType getPixelType() {
+        return pixel_type;
+    }
+    
+    /**
+     * Returns the image width.
+     * 
+     * @return Image width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Returns the image height.
+     * 
+     * @return Image height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Returns the distance between the start of two consecutive rows. The
+     * pixel (x, y) is at index y * stride + x of the pixel buffer.
+     * 
+     * @return Row stride in pixels.
+     */
+    public int getStride() {
+        return stride;
+    }
+    
+    /**
+     * Returns the pixel size.
+     * 
+     * @return Length of a side of a square pixel in micrometers.
+     */
+    public double getPixelSizeUm() {
+        return pixel_size_um;
+    }
+    
+    /**
+     * Returns the acquisition time.
+     * 
+     * @return Image acquisition time in milliseconds.
+     */
+    public long getTimeMs() {
+        return time_ms;
+    }
+    
+    /**
+     * Sets the acquisition time, when a pooled frame is filled with a new
+     * image.
+     * 
+     * @param time_ms Image acquisition time in milliseconds.
+     */
+    public void setTimeMs(long time_ms) {
+        this.time_ms = time_ms;
+    }
+    
+    /**
+     * Sets the pixel size, when a pooled frame is filled with a new image.
+     * 
+     * @param pixel_size_um Length of a side of a square pixel in micrometers.
+     */
+    public void setPixelSizeUm(double pixel_size_um) {
+        this.pixel_size_um = pixel_size_um;
+    }
+    
+    /**
+     * Returns the pixels of an 8-bit frame.
+     * 
+     * @return A new view of the pixels, positioned at the first pixel.
+     * @throws IllegalStateException If the frame is not an 8-bit frame.
+     */
+    public ByteBuffer getByteBuffer() {
+        checkPixelType(PixelType.BYTE);
+        return ((ByteBuffer) pixels).duplicate();
+    }
+    
+    /**
+     * Returns the pixels of a 16-bit frame.
+     * 
+     * @return A new view of the pixels, positioned at the first pixel.
+     * @throws IllegalStateException If the frame is not a 16-bit frame.
+     */
+    public ShortBuffer getShortBuffer() {
+        checkPixelType(PixelType.SHORT);
+        return ((ShortBuffer) pixels).duplicate();
+    }
+    
+    /**
+     * Returns the pixels of a floating point frame.
+     * 
+     * @return A new view of the pixels, positioned at the first pixel.
+     * @throws IllegalStateException If the frame is not a floating point frame.
+     */
+    public FloatBuffer getFloatBuffer() {
+        checkPixelType(PixelType.FLOAT);
+        return ((FloatBuffer) pixels).duplicate();
+    }
+    
+    /**
+     * Returns the value of a single pixel, whatever the pixel type.
+     * 
+     * @param x Column of the pixel.
+     * @param y Row of the pixel.
+     * @return The pixel value.
+     */
+    public double getPixel(int x, int y) {
+        int index = y * stride + x;
+        switch (pixel_type) {
+            case BYTE:
+                return ((ByteBuffer) pixels).get(index) & 0xff;
+            case SHORT:
+                return ((ShortBuffer) pixels).get(index) & 0xffff;
+            default:
+                return ((FloatBuffer) pixels).get(index);
+        }
+    }
+    
+    /**
+     * Returns whether the frame wraps a Java array whose rows are not padded,
+     * i.e. whether {@link #getPixelArray()} returns it without copying.
+     * 
+     * @return True if the pixel array is available without copy.
+     */
+    public boolean hasPixelArray() {
+        return array != null && stride == width;
+    }
+    
+    /**
+     * Returns the pixels as a Java array of width * height pixels, as
+     * expected by {@link Analyzer#processImage(Object, int, int, double, long)}.
+     * 
+     * The wrapped array is returned if possible, otherwise the pixels are
+     * copied to a new array.
+     * 
+     * @return A byte[], short[] or float[] array, depending on the pixel type.
+     */
+    public Object getPixelArray() {
+        if (hasPixelArray()) {
+            return array;
+        }
+        switch (pixel_type) {
+            // positioned through Buffer, since the covariant overrides of
+            // Java 9 and later do not exist on a Java 8 runtime
+            case BYTE: {
+                byte[] retval = new byte[width * height];
+                ByteBuffer src = ((ByteBuffer) pixels).duplicate();
+                for (int y = 0; y < height; y++) {
+                    ((Buffer) src).position(y * stride);
+                    src.get(retval, y * width, width);
+                }
+                return retval;
+            }
+            case SHORT: {
+                short[] retval = new short[width * height];
+                ShortBuffer src = ((ShortBuffer) pixels).duplicate();
+                for (int y = 0; y < height; y++) {
+                    ((Buffer) src).position(y * stride);
+                    src.get(retval, y * width, width);
+                }
+                return retval;
+            }
+            default: {
+                float[] retval = new float[width * height];
+                FloatBuffer src = ((FloatBuffer) pixels).duplicate();
+                for (int y = 0; y < height; y++) {
+                    ((Buffer) src).position(y * stride);
+                    src.get(retval, y * width, width);
+                }
+                return retval;
+            }
+        }
+    }
+    
+    /**
+     * Passes the frame to an analyzer. A {@link FrameAnalyzer} receives the
+     * frame itself, any other analyzer receives the pixel array through
+     * {@link Analyzer#processImage(Object, int, int, double, long)}.
+     * 
+     * The frame is not released; the caller hands a pooled frame back once
+     * this method returns.
+     * 
+     * @param analyzer The analyzer processing the frame.
+     */
+    public void processWith(Analyzer analyzer) {
+        if (analyzer instanceof FrameAnalyzer) {
+            ((FrameAnalyzer) analyzer).processFrame(this);
+        } else {
+            analyzer.processImage(getPixelArray(), width, height, pixel_size_um, time_ms);
+        }
+    }
+    
+    private void checkPixelType(PixelType expected) {
+        if (pixel_type != expected) {
+            throw new IllegalStateException("Frame has " + pixel_type + " pixels, not " + expected);
+        }
+    }
+}
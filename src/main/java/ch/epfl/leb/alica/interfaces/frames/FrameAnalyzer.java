@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+
+/**
+ * An analyzer which processes typed frames directly.
+ * 
+ * Hosts which acquire images into native buffers pass them to such analyzers
+ * as {@link Frame}s, without copying them into a Java array first. Use
+ * {@link Frame#processWith(Analyzer)} to feed any analyzer with a frame.
+ * 
+ * @author Marcel Stefko
+ * @see AbstractFrameAnalyzer
+ */
+public interface FrameAnalyzer extends Analyzer {
+    
+    /**
+     * Processes a frame and adjust the analyzer's internal state to reflect
+     * the results of the calculation.
+     * 
+     * This is equivalent to
+     * {@link Analyzer#processImage(Object, int, int, double, long)}. The frame
+     * is only valid until this method returns; its pixels must be copied if
+     * they are needed afterwards.
+     * 
+     * @param frame The frame to be processed.
+     */
+    public void processFrame(Frame frame);
+}
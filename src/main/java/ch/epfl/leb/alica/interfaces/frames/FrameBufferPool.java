@@ -0,0 +1,222 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable frames of a fixed size, so that the acquisition loop
+ * does not allocate a new pixel buffer for each image.
+ * 
+ * A producer acquires a frame, fills its pixels and metadata and hands it
+ * to the analysis, which releases it once processImage returned:
+ * <pre>
+ * Frame frame = pool.acquire();
+ * camera.readInto(frame.getShortBuffer());
+ * frame.setTimeMs(time_ms);
+ * frame.processWith(analyzer);
+ * frame.release();
+ * </pre>
+ * 
+ * Up to capacity frames are kept for reuse. If more frames are in use at
+ * the same time, additional frames are allocated and dropped again when they
+ * are released. In steady state, acquire() and release() do not allocate.
+ * 
+ * Pooled frames wrap Java arrays by default, so that analyzers which only
+ * implement processImage receive them without copy. Such analyzers must not
+ * keep a reference to the pixel array after processImage returned.
+ * 
+ * @author Marcel Stefko
+ */
+public class FrameBufferPool {
+    
+    private final PixelType pixel_type;
+    private final int width;
+    private final int height;
+    private final boolean direct;
+    
+    /**
+     * Frames which are ready for reuse.
+     */
+    private final ArrayBlockingQueue<Frame> free_frames;
+    
+    private final AtomicLong allocation_count = new AtomicLong(0);
+    
+    /**
+     * Initializes a pool of frames backed by Java arrays.
+     * 
+     * @param pixel_type The data type of the pixels.
+     * @param width Image width in pixels.
+     * @param height Image height in pixels.
+     * @param capacity The maximal number of frames kept for reuse.
+     */
+    public FrameBufferPool(PixelType pixel_type, int width, int height, int capacity) {
+        this(pixel_type, width, height, capacity, false);
+    }
+    
+    /**
+     * Initializes a pool of frames.
+     * 
+     * @param pixel_type The data type of the pixels.
+     * @param width Image width in pixels.
+     * @param height Image height in pixels.
+     * @param capacity The maximal number of frames kept for reuse.
+     * @param direct If true, the frames are backed by direct byte buffers in
+     * native byte order instead of Java arrays.
+     */
+    public FrameBufferPool(PixelType pixel_type, int width, int height, int capacity, boolean direct) {
+        if (width <= 0 || height <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Width, height and capacity must be positive.");
+        }
+        this.pixel_type = pixel_type;
+        this.width = width;
+        this.height = height;
+        this.direct = direct;
+        this.free_frames = new ArrayBlockingQueue<Frame>(capacity);
+    }
+    
+    /**
+     * Returns a frame for a new image, reusing a released frame if possible.
+     * The caller holds the frame and must release it.
+     * 
+     * The pixels and metadata of a reused frame are those of its previous
+     * image.
+     * 
+     * @return A frame of the pool's pixel type and size.
+     */
+    public Frame acquire() {
+        Frame frame = free_frames.poll();
+        if (frame == null) {
+            frame = allocate();
+        }
+        frame.acquired();
+        return frame;
+    }
+    
+    /**
+     * Allocates frames until capacity frames are ready for reuse, so that the
+     * acquisition does not allocate once it started.
+     */
+    public void preallocate() {
+        while (free_frames.remainingCapacity() > 0) {
+            if (!free_frames.offer(allocate())) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of frames ready for reuse.
+     * 
+     * @return The number of free frames.
+     */
+    public int getFreeCount() {
+        return free_frames.size();
+    }
+    
+    /**
+     * Returns how many frames were allocated since the pool was created. This
+     * stays constant in a steady-state acquisition.
+     * 
+     * @return The number of allocated frames.
+     */
+    public long getAllocationCount() {
+        return allocation_count.get();
+    }
+    
+    /**
+     * Returns the data type of the pixels of the pooled frames.
+     * 
+     * @return The pixel type.
+     */
+    public PixelType getPixelType() {
+        return pixel_type;
+    }
+    
+    /**
+     * Returns the image width of the pooled frames.
+     * 
+     * @return Image width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Returns the image height of the pooled frames.
+     * 
+     * @return Image height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Takes back a frame released by its last holder.
+     */
+    void recycle(Frame frame) {
+        // if the pool is full, the frame is left to the garbage collector
+        free_frames.offer(frame);
+    }
+    
+    private Frame allocate() {
+        allocation_count.incrementAndGet();
+        int n_pixels = width * height;
+        Object array = null;
+        Buffer pixels;
+        if (direct) {
+            ByteBuffer bytes = ByteBuffer.allocateDirect(n_pixels * pixel_type.getBytesPerPixel())
+                    .order(ByteOrder.nativeOrder());
+            switch (pixel_type) {
+                case BYTE:
+                    pixels = bytes;
+                    break;
+                case SHORT:
+                    pixels = bytes.asShortBuffer();
+                    break;
+                default:
+                    pixels = bytes.asFloatBuffer();
+                    break;
+            }
+        } else {
+            switch (pixel_type) {
+                case BYTE:
+                    array = new byte[n_pixels];
+                    pixels = ByteBuffer.wrap((byte[]) array);
+                    break;
+                case SHORT:
+                    array = new short[n_pixels];
+                    pixels = ShortBuffer.wrap((short[]) array);
+                    break;
+                default:
+                    array = new float[n_pixels];
+                    pixels = FloatBuffer.wrap((float[]) array);
+                    break;
+            }
+        }
+        return new Frame(pixel_type, pixels, array, width, height, width, 0.0, 0, this);
+    }
+}
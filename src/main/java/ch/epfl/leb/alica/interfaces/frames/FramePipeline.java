@@ -0,0 +1,341 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An asynchronous stage between the acquisition and an analyzer.
+ * 
+ * The acquisition thread offers frames to a bounded lock-free queue, and a
+ * dedicated analysis thread passes them to the analyzer. What happens when
+ * the analyzer falls behind is chosen with the {@link OverflowPolicy}: with
+ * any policy but BLOCK, the acquisition never waits for the analysis.
+ * 
+ * The pipeline takes over the caller's reference to each offered frame and
+ * releases it once it was analyzed or dropped, so pooled frames return to
+ * their {@link FrameBufferPool}.
+ * 
+ * Frames must be offered by a single thread.
+ * 
+ * @author Marcel Stefko
+ */
+public class FramePipeline {
+    
+    /**
+     * Upper bound of a single wait of the producer or the consumer.
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    private final Analyzer analyzer;
+    private final FrameRing ring;
+    private final OverflowPolicy policy;
+    
+    private volatile int decimation = 1;
+    private volatile boolean running = false;
+    
+    private volatile Thread consumer_thread = null;
+    private volatile Thread waiting_producer = null;
+    private volatile boolean consumer_waiting = false;
+    
+    /**
+     * Number of offered frames, only written by the producer.
+     */
+    private final AtomicLong offered_count = new AtomicLong(0);
+    private final AtomicLong dropped_count = new AtomicLong(0);
+    private final AtomicLong decimated_count = new AtomicLong(0);
+    private final AtomicLong processed_count = new AtomicLong(0);
+    
+    /**
+     * Initializes the pipeline. No frame is analyzed before
+     * {@link #start()} is called.
+     * 
+     * @param analyzer The analyzer processing the frames.
+     * @param capacity Number of frames which can be queued, rounded up to the
+     * next power of two.
+     * @param policy What to do with new frames when the queue is full.
+     */
+    public FramePipeline(Analyzer analyzer, int capacity, OverflowPolicy policy) {
+        if (analyzer == null || policy == null) {
+            throw new NullPointerException();
+        }
+        this.analyzer = analyzer;
+        this.ring = new FrameRing(capacity);
+        this.policy = policy;
+    }
+    
+    /**
+     * Sets the decimation of the DECIMATE policy.
+     * 
+     * @param n Only every n-th offered frame is queued.
+     */
+    public void setDecimation(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Decimation must be at least 1.");
+        }
+        this.decimation = n;
+    }
+    
+    /**
+     * Returns the decimation of the DECIMATE policy.
+     * 
+     * @return Only every n-th offered frame is queued.
+     */
+    public int getDecimation() {
+        return decimation;
+    }
+    
+    /**
+     * Returns the overflow policy.
+     * 
+     * @return What the pipeline does with new frames when the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Starts the analysis thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "ALICA analysis " + analyzer.getName());
+        thread.setDaemon(true);
+        consumer_thread = thread;
+        running = true;
+        thread.start();
+    }
+    
+    /**
+     * Stops the analysis thread after the frame currently being analyzed.
+     * Queued frames are released without being analyzed.
+     * 
+     * @throws InterruptedException If interrupted while waiting for the
+     * analysis thread to finish.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(consumer_thread);
+        Thread producer = waiting_producer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        consumer_thread.join();
+        consumer_thread = null;
+        Frame frame;
+        while ((frame = ring.poll()) != null) {
+            frame.release();
+            dropped_count.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Returns whether the analysis thread is running.
+     * 
+     * @return True between {@link #start()} and {@link #stop()}.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Hands a frame over to the analysis. Must be called from a single
+     * acquisition thread.
+     * 
+     * @param frame The frame to be analyzed; the pipeline releases it.
+     * @return False if the frame was dropped right away, i.e. decimated or
+     * offered to a stopped pipeline.
+     */
+    public boolean offer(Frame frame) {
+        long n = offered_count.incrementAndGet();
+        if (!running) {
+            frame.release();
+            dropped_count.incrementAndGet();
+            return false;
+        }
+        switch (policy) {
+            case BLOCK:
+                if (!offerBlocking(frame)) {
+                    return false;
+                }
+                break;
+            case LATEST_ONLY:
+                dropQueued(ring.capacity());
+                offerDroppingOldest(frame);
+                break;
+            case DECIMATE:
+                if ((n - 1) % decimation != 0) {
+                    frame.release();
+                    decimated_count.incrementAndGet();
+                    return false;
+                }
+                offerDroppingOldest(frame);
+                break;
+            default:
+                offerDroppingOldest(frame);
+                break;
+        }
+        // stop() may have drained the queue between the check above and
+        // the enqueue; both sides write before they read, so either it sees
+        // the frame or we see the pipeline stopped and drain it ourselves
+        if (!running) {
+            dropQueued(ring.capacity());
+            return false;
+        }
+        if (consumer_waiting) {
+            LockSupport.unpark(consumer_thread);
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the number of frames waiting for analysis.
+     * 
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        return ring.size();
+    }
+    
+    /**
+     * Returns the number of frames the queue can hold.
+     * 
+     * @return The queue capacity.
+     */
+    public int getCapacity() {
+        return ring.capacity();
+    }
+    
+    /**
+     * Returns the number of frames offered to the pipeline.
+     * 
+     * @return The number of offered frames.
+     */
+    public long getOfferedCount() {
+        return offered_count.get();
+    }
+    
+    /**
+     * Returns the number of frames dropped because the queue was full or the
+     * pipeline was stopped.
+     * 
+     * @return The number of dropped frames.
+     */
+    public long getDroppedCount() {
+        return dropped_count.get();
+    }
+    
+    /**
+     * Returns the number of frames skipped by the DECIMATE policy.
+     * 
+     * @return The number of decimated frames.
+     */
+    public long getDecimatedCount() {
+        return decimated_count.get();
+    }
+    
+    /**
+     * Returns the number of frames passed to the analyzer.
+     * 
+     * @return The number of analyzed frames.
+     */
+    public long getProcessedCount() {
+        return processed_count.get();
+    }
+    
+    private boolean offerBlocking(Frame frame) {
+        while (!ring.offer(frame)) {
+            waiting_producer = Thread.currentThread();
+            // recheck after announcing the wait, the consumer may have
+            // taken a frame in between
+            if (ring.size() >= ring.capacity()) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            waiting_producer = null;
+            if (!running) {
+                frame.release();
+                dropped_count.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void offerDroppingOldest(Frame frame) {
+        while (!ring.offer(frame)) {
+            dropQueued(1);
+        }
+    }
+    
+    private void dropQueued(int n) {
+        for (int i = 0; i < n; i++) {
+            Frame old = ring.poll();
+            if (old == null) {
+                return;
+            }
+            old.release();
+            dropped_count.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Body of the analysis thread.
+     */
+    private void consume() {
+        while (running) {
+            Frame frame = ring.poll();
+            if (frame == null) {
+                consumer_waiting = true;
+                if (ring.size() == 0 && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                consumer_waiting = false;
+                continue;
+            }
+            Thread producer = waiting_producer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+            try {
+                frame.processWith(analyzer);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(FramePipeline.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                frame.release();
+            }
+            processed_count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free bounded ring buffer of frames for a single producer and a single
+ * consumer.
+ * 
+ * Only the producer calls offer(). Both threads may call poll(): the consumer
+ * to take the next frame, the producer to drop the oldest one. Frames are
+ * claimed by advancing the head index with compare-and-set, so every frame is
+ * returned by exactly one poll().
+ * 
+ * @author Marcel Stefko
+ */
+class FrameRing {
+    
+    private final AtomicReferenceArray<Frame> slots;
+    private final int mask;
+    
+    /**
+     * Index of the next frame to be taken.
+     */
+    private final AtomicLong head = new AtomicLong(0);
+    
+    /**
+     * Index of the next free slot, only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+    
+    /**
+     * Initializes the ring.
+     * 
+     * @param capacity Minimal number of frames the ring can hold, rounded up
+     * to the next power of two.
+     */
+    FrameRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<Frame>(size);
+        this.mask = size - 1;
+    }
+    
+    /**
+     * Returns the number of frames the ring can hold.
+     * 
+     * @return The capacity of the ring.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Appends a frame. Must only be called by the producer.
+     * 
+     * @param frame The frame to append.
+     * @return False if the ring is full.
+     */
+    boolean offer(Frame frame) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false;
+        }
+        slots.lazySet((int) t & mask, frame);
+        // volatile write, so that a waiting consumer sees the frame
+        tail.set(t + 1);
+        return true;
+    }
+    
+    /**
+     * Takes the oldest frame.
+     * 
+     * @return The oldest frame, or null if the ring is empty.
+     */
+    Frame poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            Frame frame = slots.get((int) h & mask);
+            // slots are not cleared, since the producer may already be
+            // reusing this one; at most capacity stale references are kept
+            if (head.compareAndSet(h, h + 1)) {
+                return frame;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of queued frames.
+     * 
+     * @return The number of frames in the ring.
+     */
+    int size() {
+        long h = head.get();
+        return (int) Math.max(0, tail.get() - h);
+    }
+}
@@ -0,0 +1,41 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequence of frames read in acquisition order, e.g. from a recorded
+ * stack.
+ * 
+ * @author Marcel Stefko
+ */
+public interface FrameSource extends Closeable {
+    
+    /**
+     * Returns the next frame. The caller must release the frame once it is
+     * processed.
+     * 
+     * @return The next frame, or null if there are no more frames.
+     * @throws IOException If the frame can not be read.
+     */
+    public Frame nextFrame() throws IOException;
+}
@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * Reads the frames of an ImageJ stack which is already in memory. The pixel
+ * arrays of the stack are wrapped without copy.
+ * 
+ * @author Marcel Stefko
+ */
+public class ImageStackFrameSource implements FrameSource {
+    
+    private final ImageStack stack;
+    private final double pixel_size_um;
+    private final double frame_interval_ms;
+    private final long start_time_ms;
+    private int next_slice = 1;
+    
+    /**
+     * Initializes the source from an image, using its calibration for the
+     * pixel size and frame interval. Missing calibrations are taken as 1 um
+     * pixels and a frame interval of 1 ms.
+     * 
+     * @param image The recorded image stack.
+     */
+    public ImageStackFrameSource(ImagePlus image) {
+        this(image, 1.0, 1.0);
+    }
+    
+    /**
+     * Initializes the source from an image, using its calibration for the
+     * pixel size and frame interval. The calibration is converted from its
+     * length and time units; a calibration in an unknown unit, such as
+     * pixels, is replaced by the defaults.
+     * 
+     * @param image The recorded image stack.
+     * @param default_pixel_size_um Pixel size used if the image has none.
+     * @param default_frame_interval_ms Frame interval used if the image has
+     * none.
+     */
+    public ImageStackFrameSource(ImagePlus image, double default_pixel_size_um,
+            double default_frame_interval_ms) {
+        this(image.getStack(),
+             readPixelSize(image.getCalibration(), default_pixel_size_um),
+             readFrameInterval(image.getCalibration(), default_frame_interval_ms),
+             0);
+    }
+    
+    /**
+     * Initializes the source.
+     * 
+     * @param stack The recorded stack.
+     * @param pixel_size_um Length of a side of a square pixel in micrometers.
+     * @param frame_interval_ms Time between two frames in milliseconds.
+     * @param start_time_ms Acquisition time of the first frame in milliseconds.
+     */
+    public ImageStackFrameSource(ImageStack stack, double pixel_size_um,
+            double frame_interval_ms, long start_time_ms) {
+        this.stack = stack;
+        this.pixel_size_um = pixel_size_um;
+        this.frame_interval_ms = frame_interval_ms;
+        this.start_time_ms = start_time_ms;
+    }
+    
+    private static double readPixelSize(Calibration cal, double default_value) {
+        double size = CalibrationUnits.toMicrometers(cal.pixelWidth, cal.getUnit());
+        return size > 0 ? size : default_value;
+    }
+    
+    private static double readFrameInterval(Calibration cal, double default_value) {
+        double interval = CalibrationUnits.toMilliseconds(cal.frameInterval, cal.getTimeUnit());
+        return interval > 0 ? interval : default_value;
+    }
+    
+    @Override
+    public Frame nextFrame() {
+        if (next_slice > stack.getSize()) {
+            return null;
+        }
+        long time_ms = start_time_ms + Math.round((next_slice - 1) * frame_interval_ms);
+        Frame frame = Frame.wrap(stack.getPixels(next_slice), stack.getWidth(),
+                stack.getHeight(), pixel_size_um, time_ms);
+        next_slice++;
+        return frame;
+    }
+    
+    @Override
+    public void close() {
+        next_slice = stack.getSize() + 1;
+    }
+}
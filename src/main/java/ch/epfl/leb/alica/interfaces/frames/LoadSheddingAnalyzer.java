@@ -0,0 +1,391 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatch;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatchAnalyzer;
+import ch.epfl.leb.alica.interfaces.statistics.ExponentialMovingAverage;
+import ij.gui.Roi;
+import ij.plugin.RoiScaler;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps an analyzer in step with the camera by skipping frames, and
+ * optionally by shrinking the analyzed region, when the analysis is slower
+ * than the acquisition.
+ * 
+ * The time taken by the analyzer for each frame and the interval between
+ * the acquisition times of consecutive frames are tracked with exponential
+ * moving averages. The wrapper then only passes every n-th frame to the
+ * analyzer, with the smallest decimation n for which the analysis uses at
+ * most the target load of the time between analyzed frames. Frames are thus
+ * never queued behind a slow analyzer, and the batch output read by the
+ * controller stays fresh, at the cost of a lower sampling rate.
+ * 
+ * If ROI shrinking is enabled and analyzing a frame takes longer than the
+ * target latency, the ROI of the analyzer is scaled down around its center,
+ * down to a minimal scale, and grown back once the analysis is fast again.
+ * This is suited for analyzers whose cost grows with the analyzed area.
+ * 
+ * The wrapper can be fed directly by the acquisition, or be the analyzer of
+ * a {@link FramePipeline}, whose queue then stays short. Frames must be
+ * passed from a single thread. Use {@link #wrap(Analyzer, double)} to keep
+ * the {@link SampleBatchAnalyzer} interface of the wrapped analyzer; only
+ * the analyzed frames then have samples.
+ * 
+ * @author Marcel Stefko
+ */
+public class LoadSheddingAnalyzer extends AbstractFrameAnalyzer {
+    
+    /**
+     * Default fraction of the time between analyzed frames which the
+     * analysis may use.
+     */
+    public static final double DEFAULT_TARGET_LOAD = 0.8;
+    
+    /**
+     * Default largest decimation.
+     */
+    public static final int DEFAULT_MAX_DECIMATION = 64;
+    
+    /**
+     * Number of frames after which older costs and intervals weigh half.
+     */
+    private static final double HALF_LIFE = 8.0;
+    
+    private final Analyzer analyzer;
+    private final double target_latency_ms;
+    private volatile double target_load = DEFAULT_TARGET_LOAD;
+    private volatile int max_decimation = DEFAULT_MAX_DECIMATION;
+    
+    private volatile boolean roi_shrinking = false;
+    private volatile double min_roi_scale = 0.5;
+    
+    /**
+     * The ROI set by the user, and the scaled one passed to the analyzer.
+     */
+    private Roi roi = null;
+    private volatile double roi_scale = 1.0;
+    private int frame_width = 0;
+    private int frame_height = 0;
+    
+    private final ExponentialMovingAverage cost_ms =
+            new ExponentialMovingAverage(ExponentialMovingAverage.alphaForHalfLife(HALF_LIFE));
+    private final ExponentialMovingAverage interval_ms =
+            new ExponentialMovingAverage(ExponentialMovingAverage.alphaForHalfLife(HALF_LIFE));
+    private volatile double last_cost_ms = Double.NaN;
+    private volatile double last_interval_ms = Double.NaN;
+    
+    private volatile int decimation = 1;
+    private long last_time_ms = 0;
+    private boolean has_last_time = false;
+    private int skipped_in_row = 0;
+    
+    private final AtomicLong analyzed_count = new AtomicLong(0);
+    private final AtomicLong shed_count = new AtomicLong(0);
+    
+    /**
+     * Wraps an analyzer.
+     * 
+     * @param analyzer The analyzer processing the frames which are kept.
+     * @param target_latency_ms Time the analysis of a frame should take at
+     * most, used when shrinking the ROI.
+     */
+    public LoadSheddingAnalyzer(Analyzer analyzer, double target_latency_ms) {
+        if (analyzer == null) {
+            throw new NullPointerException();
+        }
+        if (!(target_latency_ms > 0.0)) {
+            throw new IllegalArgumentException("Target latency must be positive.");
+        }
+        this.analyzer = analyzer;
+        this.target_latency_ms = target_latency_ms;
+    }
+    
+    /**
+     * Wraps an analyzer, implementing {@link SampleBatchAnalyzer} as well if
+     * the analyzer does.
+     * 
+     * @param analyzer The analyzer processing the frames which are kept.
+     * @param target_latency_ms Time the analysis of a frame should take at
+     * most, used when shrinking the ROI.
+     * @return The wrapping analyzer.
+     */
+    public static LoadSheddingAnalyzer wrap(Analyzer analyzer, double target_latency_ms) {
+        if (analyzer instanceof SampleBatchAnalyzer) {
+            return new SampleBatchLoadSheddingAnalyzer((SampleBatchAnalyzer) analyzer,
+                    target_latency_ms);
+        }
+        return new LoadSheddingAnalyzer(analyzer, target_latency_ms);
+    }
+    
+    /**
+     * Sets which fraction of the time between analyzed frames the analysis
+     * may use. Lower values leave more headroom for cost fluctuations.
+     * 
+     * @param target_load The target load, in (0, 1].
+     */
+    public void setTargetLoad(double target_load) {
+        if (!(target_load > 0.0 && target_load <= 1.0)) {
+            throw new IllegalArgumentException("Target load must be in (0, 1].");
+        }
+        this.target_load = target_load;
+    }
+    
+    /**
+     * Sets the largest decimation, i.e. the lowest fraction of frames which
+     * is still analyzed.
+     * 
+     * @param max_decimation At least every max_decimation-th frame is
+     * analyzed.
+     */
+    public void setMaxDecimation(int max_decimation) {
+        if (max_decimation < 1) {
+            throw new IllegalArgumentException("Decimation must be at least 1.");
+        }
+        this.max_decimation = max_decimation;
+    }
+    
+    /**
+     * Enables or disables shrinking the ROI when the analysis of a frame
+     * takes longer than the target latency.
+     * 
+     * @param enabled Whether the ROI may be shrunk.
+     * @param min_roi_scale Smallest scale of the ROI sides, in (0, 1].
+     */
+    public synchronized void setRoiShrinking(boolean enabled, double min_roi_scale) {
+        if (!(min_roi_scale > 0.0 && min_roi_scale <= 1.0)) {
+            throw new IllegalArgumentException("Minimal ROI scale must be in (0, 1].");
+        }
+        this.roi_shrinking = enabled;
+        this.min_roi_scale = min_roi_scale;
+        if (!enabled && roi_scale != 1.0) {
+            roi_scale = 1.0;
+            applyROI();
+        }
+    }
+    
+    /**
+     * Returns the current decimation.
+     * 
+     * @return Only every n-th frame is passed to the analyzer.
+     */
+    public int getDecimation() {
+        return decimation;
+    }
+    
+    /**
+     * Returns the current scale of the ROI sides.
+     * 
+     * @return 1 if the ROI is not shrunk.
+     */
+    public double getRoiScale() {
+        return roi_scale;
+    }
+    
+    /**
+     * Returns the average time taken by the analyzer per frame.
+     * 
+     * @return The cost in milliseconds, or NaN before the first frame.
+     */
+    public double getProcessingCostMs() {
+        return last_cost_ms;
+    }
+    
+    /**
+     * Returns the average interval between the acquisition times of
+     * consecutive frames.
+     * 
+     * @return The frame interval in milliseconds, or NaN before the second
+     * frame.
+     */
+    public double getFrameIntervalMs() {
+        return last_interval_ms;
+    }
+    
+    /**
+     * @return The number of frames passed to the analyzer.
+     */
+    public long getAnalyzedCount() {
+        return analyzed_count.get();
+    }
+    
+    /**
+     * @return The number of frames skipped to keep up with the acquisition.
+     */
+    public long getShedCount() {
+        return shed_count.get();
+    }
+    
+    /**
+     * @return The wrapped analyzer.
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+    
+    /**
+     * Passes the frame to the analyzer unless it is skipped, and adapts the
+     * decimation and the ROI scale to the measured cost.
+     * 
+     * @param frame The frame to be processed.
+     */
+    @Override
+    public void processFrame(Frame frame) {
+        long time_ms = frame.getTimeMs();
+        if (has_last_time && time_ms > last_time_ms) {
+            interval_ms.add(time_ms - last_time_ms);
+            last_interval_ms = interval_ms.getValue();
+        }
+        last_time_ms = time_ms;
+        has_last_time = true;
+        
+        if (skipped_in_row + 1 < decimation) {
+            skipped_in_row++;
+            shed_count.incrementAndGet();
+            return;
+        }
+        skipped_in_row = 0;
+        
+        if (frame.getWidth() != frame_width || frame.getHeight() != frame_height) {
+            synchronized (this) {
+                frame_width = frame.getWidth();
+                frame_height = frame.getHeight();
+                if (roi_scale != 1.0) {
+                    applyROI();
+                }
+            }
+        }
+        long start = System.nanoTime();
+        frame.processWith(analyzer);
+        cost_ms.add((System.nanoTime() - start) / 1e6);
+        last_cost_ms = cost_ms.getValue();
+        analyzed_count.incrementAndGet();
+        adapt();
+    }
+    
+    /**
+     * Chooses the decimation and ROI scale for the next frames.
+     */
+    private void adapt() {
+        double cost = cost_ms.getValue();
+        double interval = interval_ms.getValue();
+        if (!Double.isNaN(interval) && interval > 0.0) {
+            double needed = Math.ceil(cost / (target_load * interval));
+            decimation = (int) Math.max(1, Math.min(max_decimation, needed));
+        }
+        if (roi_shrinking && cost > 0.0) {
+            // the cost is assumed proportional to the analyzed area
+            double scale = roi_scale;
+            if (cost > target_latency_ms) {
+                scale = Math.max(min_roi_scale, scale * Math.sqrt(target_latency_ms / cost));
+            } else if (scale < 1.0 && cost < 0.5 * target_latency_ms) {
+                scale = Math.min(1.0, scale * Math.sqrt(0.75 * target_latency_ms / cost));
+            }
+            if (Math.abs(scale - roi_scale) > 0.01) {
+                synchronized (this) {
+                    roi_scale = scale;
+                    applyROI();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Passes the ROI, scaled around its center, to the analyzer.
+     */
+    private void applyROI() {
+        if (roi_scale == 1.0) {
+            analyzer.setROI(roi);
+            return;
+        }
+        Roi base = roi;
+        if (base == null) {
+            if (frame_width == 0) {
+                return;
+            }
+            base = new Roi(0, 0, frame_width, frame_height);
+        }
+        analyzer.setROI(RoiScaler.scale(base, roi_scale, roi_scale, true));
+    }
+    
+    @Override
+    public double getIntermittentOutput() {
+        return analyzer.getIntermittentOutput();
+    }
+    
+    @Override
+    public double getBatchOutput() {
+        return analyzer.getBatchOutput();
+    }
+    
+    /**
+     * Sets the region of interest. While the ROI is shrunk, the analyzer
+     * receives a scaled copy of it.
+     * 
+     * @param roi The Roi object corresponding to the region.
+     */
+    @Override
+    public synchronized void setROI(Roi roi) {
+        this.roi = roi;
+        applyROI();
+    }
+    
+    @Override
+    public void dispose() {
+        analyzer.dispose();
+    }
+    
+    @Override
+    public String getName() {
+        return analyzer.getName();
+    }
+    
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return analyzer.getStatusPanel();
+    }
+    
+    @Override
+    public String getShortReturnDescription() {
+        return analyzer.getShortReturnDescription();
+    }
+    
+    /**
+     * Forwards the samples of a {@link SampleBatchAnalyzer}.
+     */
+    private static class SampleBatchLoadSheddingAnalyzer extends LoadSheddingAnalyzer
+            implements SampleBatchAnalyzer {
+        
+        private final SampleBatchAnalyzer sample_analyzer;
+        
+        SampleBatchLoadSheddingAnalyzer(SampleBatchAnalyzer analyzer, double target_latency_ms) {
+            super(analyzer, target_latency_ms);
+            this.sample_analyzer = analyzer;
+        }
+        
+        @Override
+        public int drainSamples(SampleBatch batch) {
+            return sample_analyzer.drainSamples(batch);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+/**
+ * What a {@link FramePipeline} does with a new frame when the analysis is
+ * lagging behind the acquisition.
+ * 
+ * @author Marcel Stefko
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until the analyzer made room in the queue. Every frame is
+     * analyzed, but the acquisition is stalled by a slow analyzer.
+     */
+    BLOCK,
+    
+    /**
+     * Drop the oldest queued frame to make room for the new one.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * Drop all queued frames, so that the analyzer always processes the most
+     * recent frame. Gives the lowest latency.
+     */
+    LATEST_ONLY,
+    
+    /**
+     * Only queue every n-th frame, see
+     * {@link FramePipeline#setDecimation(int)}. The oldest queued frame is
+     * dropped if the queue is still full.
+     */
+    DECIMATE
+}
@@ -0,0 +1,76 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+/**
+ * The data type of the pixels of a frame.
+ * 
+ * @author Marcel Stefko
+ */
+public enum PixelType {
+    /**
+     * Unsigned 8-bit pixels, stored as byte[] by ImageJ.
+     */
+    BYTE(1),
+    
+    /**
+     * Unsigned 16-bit pixels, stored as short[] by ImageJ.
+     */
+    SHORT(2),
+    
+    /**
+     * 32-bit floating point pixels, stored as float[] by ImageJ.
+     */
+    FLOAT(4);
+    
+    private final int bytes_per_pixel;
+    
+    private PixelType(int bytes_per_pixel) {
+        this.bytes_per_pixel = bytes_per_pixel;
+    }
+    
+    /**
+     * Returns the size of a single pixel.
+     * 
+     * @return The number of bytes per pixel.
+     */
+    public int getBytesPerPixel() {
+        return bytes_per_pixel;
+    }
+    
+    /**
+     * Returns the pixel type of a raw pixel array.
+     * 
+     * @param pixels A byte[], short[] or float[] array.
+     * @return The pixel type of the array.
+     * @throws IllegalArgumentException If the array is of another type.
+     */
+    public static PixelType of(Object pixels) {
+        if (pixels instanceof short[]) {
+            return SHORT;
+        } else if (pixels instanceof byte[]) {
+            return BYTE;
+        } else if (pixels instanceof float[]) {
+            return FLOAT;
+        }
+        throw new IllegalArgumentException("Unsupported pixel array: " +
+                (pixels == null ? null : pixels.getClass().getName()));
+    }
+}
@@ -0,0 +1,641 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.frames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the frames of an uncompressed TIFF, BigTIFF or OME-TIFF stack
+ * through a memory mapping of the file.
+ * 
+ * Only the image file directories are read when the source is opened. The
+ * pixels of each frame are wrapped directly from the mapping, without a
+ * copy, if they are stored in a single run, which is the case for the files
+ * written by ImageJ and Micro-Manager. Stacks larger than the heap can thus
+ * be analyzed with a small memory footprint.
+ * 
+ * Supported are single-channel 8-bit and 16-bit unsigned integer and 32-bit
+ * float pixels. ImageJ stacks larger than 4 GB, which only have a directory
+ * for their first image, are supported as well.
+ * 
+ * The acquisition time of each frame is read from the DeltaT attributes of
+ * OME-XML planes, or computed from the ImageJ frame interval and its time
+ * unit, or from the frame interval given to the constructor. The pixel size
+ * is read from the OME-XML PhysicalSizeX or from the ImageJ resolution in
+ * microns.
+ * 
+ * @author Marcel Stefko
+ */
+public class TiffStackFrameSource implements FrameSource {
+    
+    // TIFF tags
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_IMAGE_DESCRIPTION = 270;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_X_RESOLUTION = 282;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+    
+    private static final int SAMPLE_FORMAT_UINT = 1;
+    private static final int SAMPLE_FORMAT_FLOAT = 3;
+    
+    /**
+     * Files up to this size are mapped at once, larger ones frame by frame.
+     */
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteOrder order;
+    private final boolean big_tiff;
+    
+    /**
+     * Mapping of the whole file, or null if it is too large. Held as a
+     * ByteBuffer, as MappedByteBuffer.duplicate() only exists since Java 17.
+     */
+    private final ByteBuffer mapping;
+    
+    private final int width;
+    private final int height;
+    private final PixelType pixel_type;
+    private final double pixel_size_um;
+    
+    /**
+     * Strips of each frame, as {offset, byte count, offset, byte count...}.
+     */
+    private final List<long[]> frame_strips;
+    private final long[] times_ms;
+    
+    private int next_frame = 0;
+    
+    /**
+     * Opens a stack. Missing calibrations are taken as 1 um pixels and a
+     * frame interval of 1 ms.
+     * 
+     * @param file The TIFF file.
+     * @throws IOException If the file can not be read or is not supported.
+     */
+    public TiffStackFrameSource(File file) throws IOException {
+        this(file, 1.0, 1.0);
+    }
+    
+    /**
+     * Opens a stack.
+     * 
+     * @param file The TIFF file.
+     * @param default_pixel_size_um Pixel size used if the file has none.
+     * @param default_frame_interval_ms Frame interval used if the file has
+     * no timestamps.
+     * @throws IOException If the file can not be read or is not supported.
+     */
+    public TiffStackFrameSource(File file, double default_pixel_size_um,
+            double default_frame_interval_ms) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        boolean initialized = false;
+        try {
+            this.channel = this.file.getChannel();
+            ByteBuffer header = read(0, 16, ByteOrder.BIG_ENDIAN);
+            short byte_order = header.getShort(0);
+            if (byte_order == 0x4949) {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (byte_order == 0x4D4D) {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("Not a TIFF file: " + file);
+            }
+            header.order(order);
+            int version = header.getShort(2) & 0xffff;
+            long first_ifd;
+            if (version == 42) {
+                big_tiff = false;
+                first_ifd = header.getInt(4) & 0xffffffffL;
+            } else if (version == 43) {
+                big_tiff = true;
+                first_ifd = header.getLong(8);
+            } else {
+                throw new IOException("Not a TIFF file: " + file);
+            }
+            
+            List<Directory> directories = readDirectories(first_ifd);
+            if (directories.isEmpty()) {
+                throw new IOException("No image in " + file);
+            }
+            Directory first = directories.get(0);
+            this.width = first.width;
+            this.height = first.height;
+            this.pixel_type = first.getPixelType();
+            
+            frame_strips = new ArrayList<long[]>();
+            for (Directory directory: directories) {
+                if (directory.width != width || directory.height != height ||
+                    directory.getPixelType() != pixel_type) {
+                    throw new IOException("Images of different size or type in " + file);
+                }
+                frame_strips.add(directory.strips);
+            }
+            String description = first.description == null ? "" : first.description;
+            addImageJFrames(description);
+            
+            this.pixel_size_um = readPixelSize(first, description, default_pixel_size_um);
+            this.times_ms = readTimes(description, frame_strips.size(), default_frame_interval_ms);
+            
+            if (channel.size() <= MAX_MAPPING) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                mapping = null;
+            }
+            initialized = true;
+        } finally {
+            if (!initialized) {
+                this.file.close();
+            }
+        }
+    }
+    
+    /**
+     * @return Image width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return Image height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return Type of the pixels.
+     */
+    public PixelType getPixelType() {
+        return pixel_type;
+    }
+    
+    /**
+     * @return Length of a side of a square pixel in micrometers.
+     */
+    public double getPixelSizeUm() {
+        return pixel_size_um;
+    }
+    
+    /**
+     * @return Number of frames of the stack.
+     */
+    public int getFrameCount() {
+        return frame_strips.size();
+    }
+    
+    /**
+     * @param index Index of the frame, from 0.
+     * @return Acquisition time of the frame in milliseconds.
+     */
+    public long getTimeMs(int index) {
+        return times_ms[index];
+    }
+    
+    /**
+     * Sets the index of the frame returned by the next call to
+     * {@link #nextFrame()}.
+     * 
+     * @param index Index of the frame, from 0.
+     */
+    public void seek(int index) {
+        if (index < 0 || index > frame_strips.size()) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frame_strips.size());
+        }
+        next_frame = index;
+    }
+    
+    /**
+     * Returns the next frame. The pixels stay valid until the source is
+     * closed.
+     * 
+     * @return The next frame, or null after the last one.
+     * @throws IOException If the pixels can not be read.
+     */
+    @Override
+    public Frame nextFrame() throws IOException {
+        if (next_frame >= frame_strips.size()) {
+            return null;
+        }
+        int index = next_frame++;
+        long[] strips = frame_strips.get(index);
+        int frame_bytes = width * height * pixel_type.getBytesPerPixel();
+        ByteBuffer pixels;
+        if (isContiguous(strips, frame_bytes)) {
+            pixels = map(strips[0], frame_bytes);
+        } else {
+            // strips scattered over the file are gathered into a new buffer
+            pixels = ByteBuffer.allocate(frame_bytes);
+            for (int i = 0; i < strips.length && pixels.hasRemaining(); i += 2) {
+                ByteBuffer strip = map(strips[i], (int) Math.min(strips[i + 1], pixels.remaining()));
+                pixels.put(strip);
+            }
+            ((Buffer) pixels).flip();
+        }
+        pixels.order(order);
+        return Frame.wrap(pixels, pixel_type, width, height, width, pixel_size_um, times_ms[index]);
+    }
+    
+    /**
+     * Closes the file. Frames returned earlier must not be used afterwards.
+     * 
+     * @throws IOException If the file can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        next_frame = frame_strips.size();
+        file.close();
+    }
+    
+    private static boolean isContiguous(long[] strips, int frame_bytes) {
+        long end = strips[0];
+        for (int i = 0; i < strips.length; i += 2) {
+            if (strips[i] != end) {
+                return false;
+            }
+            end += strips[i + 1];
+        }
+        return end - strips[0] >= frame_bytes;
+    }
+    
+    private ByteBuffer map(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > channel.size()) {
+            throw new IOException("Pixel data beyond the end of the file.");
+        }
+        if (mapping != null) {
+            ByteBuffer retval = mapping.duplicate();
+            // through Buffer, since the covariant overrides of Java 9 and
+            // later do not exist on a Java 8 runtime
+            ((Buffer) retval).position((int) offset);
+            ((Buffer) retval).limit((int) offset + length);
+            return retval.slice();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+    
+    private ByteBuffer read(long position, int length, ByteOrder byte_order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(byte_order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+    
+    /**
+     * Reads the chain of image file directories.
+     */
+    private List<Directory> readDirectories(long offset) throws IOException {
+        ArrayList<Directory> retval = new ArrayList<Directory>();
+        int count_size = big_tiff ? 8 : 2;
+        int entry_size = big_tiff ? 20 : 12;
+        int offset_size = big_tiff ? 8 : 4;
+        long file_size = channel.size();
+        HashSet<Long> visited = new HashSet<Long>();
+        while (offset != 0) {
+            if (offset < 0 || offset >= file_size) {
+                throw new IOException("Invalid directory offset " + offset);
+            }
+            if (!visited.add(offset)) {
+                throw new IOException("Loop in the directory chain at offset " + offset);
+            }
+            ByteBuffer count_buffer = read(offset, count_size, order);
+            long entry_count = big_tiff ? count_buffer.getLong(0) : count_buffer.getShort(0) & 0xffff;
+            if (entry_count < 0 || entry_count > 4096) {
+                throw new IOException("Invalid directory at " + offset);
+            }
+            ByteBuffer entries = read(offset + count_size,
+                    (int) entry_count * entry_size + offset_size, order);
+            Directory directory = new Directory();
+            for (int i = 0; i < entry_count; i++) {
+                readEntry(entries, i * entry_size, directory);
+            }
+            directory.validate();
+            retval.add(directory);
+            int next = (int) entry_count * entry_size;
+            offset = big_tiff ? entries.getLong(next) : entries.getInt(next) & 0xffffffffL;
+        }
+        return retval;
+    }
+    
+    private void readEntry(ByteBuffer entries, int position, Directory directory) throws IOException {
+        int tag = entries.getShort(position) & 0xffff;
+        int type = entries.getShort(position + 2) & 0xffff;
+        long count = big_tiff ? entries.getLong(position + 4) : entries.getInt(position + 4) & 0xffffffffL;
+        int value_position = position + (big_tiff ? 12 : 8);
+        int type_size = getTypeSize(type);
+        if (type_size == 0 || count < 0 || count > Integer.MAX_VALUE / 8) {
+            // unknown types are skipped, as the TIFF specification requires
+            return;
+        }
+        int length = (int) count * type_size;
+        ByteBuffer values;
+        if (length <= (big_tiff ? 8 : 4)) {
+            values = entries.duplicate().order(order);
+            ((Buffer) values).position(value_position);
+            values = values.slice().order(order);
+        } else {
+            long offset = big_tiff ? entries.getLong(value_position) :
+                    entries.getInt(value_position) & 0xffffffffL;
+            switch (tag) {
+                case TAG_STRIP_OFFSETS:
+                case TAG_STRIP_BYTE_COUNTS:
+                case TAG_BITS_PER_SAMPLE:
+                case TAG_IMAGE_DESCRIPTION:
+                case TAG_X_RESOLUTION:
+                case TAG_SAMPLE_FORMAT:
+                    values = read(offset, length, order);
+                    break;
+                default:
+                    return;
+            }
+        }
+        switch (tag) {
+            case TAG_IMAGE_WIDTH:
+                directory.width = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_IMAGE_LENGTH:
+                directory.height = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_BITS_PER_SAMPLE:
+                directory.bits_per_sample = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_COMPRESSION:
+                directory.compression = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_SAMPLES_PER_PIXEL:
+                directory.samples_per_pixel = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_SAMPLE_FORMAT:
+                directory.sample_format = (int) getUnsigned(values, type, 0);
+                break;
+            case TAG_TILE_WIDTH:
+                directory.tiled = true;
+                break;
+            case TAG_STRIP_OFFSETS:
+                directory.strip_offsets = new long[(int) count];
+                for (int i = 0; i < count; i++) {
+                    directory.strip_offsets[i] = getUnsigned(values, type, i);
+                }
+                break;
+            case TAG_STRIP_BYTE_COUNTS:
+                directory.strip_byte_counts = new long[(int) count];
+                for (int i = 0; i < count; i++) {
+                    directory.strip_byte_counts[i] = getUnsigned(values, type, i);
+                }
+                break;
+            case TAG_IMAGE_DESCRIPTION:
+                byte[] text = new byte[length];
+                values.get(text);
+                directory.description = new String(text, ASCII).trim();
+                break;
+            case TAG_X_RESOLUTION:
+                if (type == 5) {
+                    long numerator = values.getInt(0) & 0xffffffffL;
+                    long denominator = values.getInt(4) & 0xffffffffL;
+                    if (denominator != 0) {
+                        directory.x_resolution = (double) numerator / denominator;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private static int getTypeSize(int type) {
+        switch (type) {
+            case 1: case 2: case 6: case 7:
+                return 1;
+            case 3: case 8:
+                return 2;
+            case 4: case 9: case 11: case 13:
+                return 4;
+            case 5: case 10: case 12: case 16: case 17: case 18:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+    
+    private static long getUnsigned(ByteBuffer values, int type, int index) throws IOException {
+        switch (type) {
+            case 1:
+                return values.get(index) & 0xff;
+            case 3:
+                return values.getShort(index * 2) & 0xffff;
+            case 4:
+            case 13:
+                return values.getInt(index * 4) & 0xffffffffL;
+            case 16:
+            case 18:
+                return values.getLong(index * 8);
+            default:
+                throw new IOException("Unexpected TIFF field type " + type);
+        }
+    }
+    
+    /**
+     * Adds the frames of ImageJ stacks which only have a directory for their
+     * first image, the others following it contiguously.
+     */
+    private void addImageJFrames(String description) throws IOException {
+        if (!description.startsWith("ImageJ") || frame_strips.size() != 1) {
+            return;
+        }
+        Matcher matcher = Pattern.compile("images=(\\d+)").matcher(description);
+        if (!matcher.find()) {
+            return;
+        }
+        long images = Long.parseLong(matcher.group(1));
+        long[] first = frame_strips.get(0);
+        long frame_bytes = (long) width * height * pixel_type.getBytesPerPixel();
+        if (!isContiguous(first, (int) frame_bytes) ||
+            first[0] + images * frame_bytes > channel.size()) {
+            return;
+        }
+        for (long i = 1; i < images; i++) {
+            frame_strips.add(new long[] {first[0] + i * frame_bytes, frame_bytes});
+        }
+    }
+    
+    private static double readPixelSize(Directory first, String description, double default_value) {
+        if (description.contains("<OME")) {
+            String size = findAttribute(description, "Pixels", "PhysicalSizeX");
+            String unit = findAttribute(description, "Pixels", "PhysicalSizeXUnit");
+            if (size != null && (unit == null || unit.equals("\u00B5m") || unit.equals("um"))) {
+                try {
+                    return Double.parseDouble(size);
+                } catch (NumberFormatException ex) {
+                    return default_value;
+                }
+            }
+        } else if (description.startsWith("ImageJ") && first.x_resolution > 0 &&
+                   (description.contains("unit=micron") || description.contains("unit=um") ||
+                    description.contains("unit=\\u00B5m"))) {
+            return 1.0 / first.x_resolution;
+        }
+        return default_value;
+    }
+    
+    private static long[] readTimes(String description, int frame_count, double default_interval_ms) {
+        long[] retval = new long[frame_count];
+        double interval_ms = default_interval_ms;
+        if (description.contains("<OME")) {
+            Matcher plane = Pattern.compile("<(?:\\w+:)?Plane\\b[^>]*>").matcher(description);
+            ArrayList<Double> delta_ms = new ArrayList<Double>();
+            while (plane.find()) {
+                String element = plane.group();
+                String delta_t = findAttribute(element, "Plane", "DeltaT");
+                if (delta_t == null) {
+                    break;
+                }
+                String unit = findAttribute(element, "Plane", "DeltaTUnit");
+                double delta;
+                try {
+                    delta = CalibrationUnits.toMilliseconds(Double.parseDouble(delta_t),
+                            unit == null ? "s" : unit);
+                } catch (NumberFormatException ex) {
+                    break;
+                }
+                if (Double.isNaN(delta)) {
+                    break;
+                }
+                delta_ms.add(delta);
+            }
+            if (delta_ms.size() == frame_count) {
+                double origin = delta_ms.get(0);
+                for (int i = 0; i < frame_count; i++) {
+                    retval[i] = Math.round(delta_ms.get(i) - origin);
+                }
+                return retval;
+            }
+        } else if (description.startsWith("ImageJ")) {
+            Matcher matcher = Pattern.compile("finterval=([0-9.eE+-]+)").matcher(description);
+            if (matcher.find()) {
+                // ImageJ only writes the time unit if it is not seconds
+                Matcher unit = Pattern.compile("(?m)^tunit=(.*)$").matcher(description);
+                try {
+                    interval_ms = CalibrationUnits.toMilliseconds(
+                            Double.parseDouble(matcher.group(1)),
+                            unit.find() ? unit.group(1) : "sec");
+                } catch (NumberFormatException ex) {
+                    interval_ms = default_interval_ms;
+                }
+                if (!(interval_ms > 0)) {
+                    interval_ms = default_interval_ms;
+                }
+            }
+        }
+        for (int i = 0; i < frame_count; i++) {
+            retval[i] = Math.round(i * interval_ms);
+        }
+        return retval;
+    }
+    
+    /**
+     * Returns an attribute of the first element with the given local name.
+     */
+    private static String findAttribute(String xml, String element, String attribute) {
+        Matcher matcher = Pattern.compile("<(?:\\w+:)?" + element + "\\b[^>]*?\\s" +
+                attribute + "=\"([^\"]*)\"").matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+    
+    /**
+     * The fields of an image file directory which are needed to locate the
+     * pixels.
+     */
+    private static class Directory {
+        int width = -1;
+        int height = -1;
+        int bits_per_sample = 1;
+        int compression = 1;
+        int samples_per_pixel = 1;
+        int sample_format = SAMPLE_FORMAT_UINT;
+        boolean tiled = false;
+        long[] strip_offsets = null;
+        long[] strip_byte_counts = null;
+        long[] strips = null;
+        String description = null;
+        double x_resolution = 0.0;
+        
+        void validate() throws IOException {
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Missing image size.");
+            }
+            if (compression != 1) {
+                throw new IOException("Compressed TIFF images are not supported.");
+            }
+            if (tiled) {
+                throw new IOException("Tiled TIFF images are not supported.");
+            }
+            if (samples_per_pixel != 1) {
+                throw new IOException("Only single-channel TIFF images are supported.");
+            }
+            if (strip_offsets == null || strip_byte_counts == null ||
+                strip_offsets.length != strip_byte_counts.length || strip_offsets.length == 0) {
+                throw new IOException("Missing or invalid strips.");
+            }
+            getPixelType();
+            strips = new long[strip_offsets.length * 2];
+            for (int i = 0; i < strip_offsets.length; i++) {
+                strips[2 * i] = strip_offsets[i];
+                strips[2 * i + 1] = strip_byte_counts[i];
+            }
+        }
+        
+        PixelType getPixelType() throws IOException {
+            if (bits_per_sample == 8 && sample_format == SAMPLE_FORMAT_UINT) {
+                return PixelType.BYTE;
+            } else if (bits_per_sample == 16 && sample_format == SAMPLE_FORMAT_UINT) {
+                return PixelType.SHORT;
+            } else if (bits_per_sample == 32 && sample_format == SAMPLE_FORMAT_FLOAT) {
+                return PixelType.FLOAT;
+            }
+            throw new IOException("Unsupported pixel format: " + bits_per_sample +
+                    " bits, sample format " + sample_format);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the calls to an analyzer.
+ * 
+ * Recording does not allocate and does not lock, and the metrics can be read
+ * at any time, e.g. from a status panel or over JMX.
+ * 
+ * @author Marcel Stefko
+ * @see InstrumentedAnalyzer
+ */
+public class AnalyzerMetrics implements AnalyzerMetricsMXBean {
+    
+    private final LatencyHistogram process_image = new LatencyHistogram();
+    private final LatencyHistogram batch_output = new LatencyHistogram();
+    private final AtomicLong nan_batch_outputs = new AtomicLong(0);
+    private final AtomicLong exceptions = new AtomicLong(0);
+    
+    /**
+     * Records a call to processImage.
+     * 
+     * @param nanos Duration of the call.
+     * @param completed False if the call threw.
+     */
+    public void recordProcessImage(long nanos, boolean completed) {
+        process_image.record(nanos);
+        if (!completed) {
+            exceptions.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Records a call to getBatchOutput.
+     * 
+     * @param nanos Duration of the call.
+     * @param value The returned value, ignored if the call threw.
+     * @param completed False if the call threw.
+     */
+    public void recordBatchOutput(long nanos, double value, boolean completed) {
+        batch_output.record(nanos);
+        if (!completed) {
+            exceptions.incrementAndGet();
+        } else if (Double.isNaN(value)) {
+            nan_batch_outputs.incrementAndGet();
+        }
+    }
+    
+    /**
+     * @return The durations of the processImage calls.
+     */
+    public LatencyHistogram getProcessImageHistogram() {
+        return process_image;
+    }
+    
+    /**
+     * @return The durations of the getBatchOutput calls.
+     */
+    public LatencyHistogram getBatchOutputHistogram() {
+        return batch_output;
+    }
+    
+    @Override
+    public long getFrameCount() {
+        return process_image.getCount();
+    }
+    
+    @Override
+    public long getBatchOutputCount() {
+        return batch_output.getCount();
+    }
+    
+    @Override
+    public long getNanBatchOutputCount() {
+        return nan_batch_outputs.get();
+    }
+    
+    @Override
+    public long getExceptionCount() {
+        return exceptions.get();
+    }
+    
+    @Override
+    public double getProcessImageMeanNanos() {
+        return process_image.getMean();
+    }
+    
+    @Override
+    public long getProcessImageP50Nanos() {
+        return process_image.getPercentile(50);
+    }
+    
+    @Override
+    public long getProcessImageP99Nanos() {
+        return process_image.getPercentile(99);
+    }
+    
+    @Override
+    public long getProcessImageMaxNanos() {
+        return process_image.getMax();
+    }
+    
+    @Override
+    public double getBatchOutputMeanNanos() {
+        return batch_output.getMean();
+    }
+    
+    @Override
+    public long getBatchOutputP50Nanos() {
+        return batch_output.getPercentile(50);
+    }
+    
+    @Override
+    public long getBatchOutputP99Nanos() {
+        return batch_output.getPercentile(99);
+    }
+    
+    @Override
+    public long getBatchOutputMaxNanos() {
+        return batch_output.getMax();
+    }
+    
+    @Override
+    public void reset() {
+        process_image.reset();
+        batch_output.reset();
+        nan_batch_outputs.set(0);
+        exceptions.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("frames=%d, exceptions=%d, NaN outputs=%d/%d%nprocessImage: %s%ngetBatchOutput: %s",
+                getFrameCount(), getExceptionCount(), getNanBatchOutputCount(),
+                getBatchOutputCount(), process_image, batch_output);
+    }
+}
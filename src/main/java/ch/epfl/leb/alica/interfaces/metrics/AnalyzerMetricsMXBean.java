@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+/**
+ * JMX view of the {@link AnalyzerMetrics} of an instrumented analyzer.
+ * 
+ * Durations are in nanoseconds.
+ * 
+ * @author Marcel Stefko
+ */
+public interface AnalyzerMetricsMXBean {
+    
+    public long getFrameCount();
+    
+    public long getBatchOutputCount();
+    
+    public long getNanBatchOutputCount();
+    
+    public long getExceptionCount();
+    
+    public double getProcessImageMeanNanos();
+    
+    public long getProcessImageP50Nanos();
+    
+    public long getProcessImageP99Nanos();
+    
+    public long getProcessImageMaxNanos();
+    
+    public double getBatchOutputMeanNanos();
+    
+    public long getBatchOutputP50Nanos();
+    
+    public long getBatchOutputP99Nanos();
+    
+    public long getBatchOutputMaxNanos();
+    
+    /**
+     * Discards all recorded values.
+     */
+    public void reset();
+}
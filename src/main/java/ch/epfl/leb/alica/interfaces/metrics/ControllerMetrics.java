@@ -0,0 +1,110 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and counters of the ticks of a controller.
+ * 
+ * Recording does not allocate and does not lock, and the metrics can be read
+ * at any time, e.g. from a status panel or over JMX.
+ * 
+ * @author Marcel Stefko
+ * @see InstrumentedController
+ */
+public class ControllerMetrics implements ControllerMetricsMXBean {
+    
+    private final LatencyHistogram next_value = new LatencyHistogram();
+    private final AtomicLong nan_inputs = new AtomicLong(0);
+    private final AtomicLong exceptions = new AtomicLong(0);
+    
+    /**
+     * Records a call to nextValue.
+     * 
+     * @param nanos Duration of the call.
+     * @param input The analyzer output passed to the controller.
+     * @param completed False if the call threw.
+     */
+    public void recordNextValue(long nanos, double input, boolean completed) {
+        next_value.record(nanos);
+        if (Double.isNaN(input)) {
+            nan_inputs.incrementAndGet();
+        }
+        if (!completed) {
+            exceptions.incrementAndGet();
+        }
+    }
+    
+    /**
+     * @return The durations of the nextValue calls.
+     */
+    public LatencyHistogram getNextValueHistogram() {
+        return next_value;
+    }
+    
+    @Override
+    public long getTickCount() {
+        return next_value.getCount();
+    }
+    
+    @Override
+    public long getNanInputCount() {
+        return nan_inputs.get();
+    }
+    
+    @Override
+    public long getExceptionCount() {
+        return exceptions.get();
+    }
+    
+    @Override
+    public double getNextValueMeanNanos() {
+        return next_value.getMean();
+    }
+    
+    @Override
+    public long getNextValueP50Nanos() {
+        return next_value.getPercentile(50);
+    }
+    
+    @Override
+    public long getNextValueP99Nanos() {
+        return next_value.getPercentile(99);
+    }
+    
+    @Override
+    public long getNextValueMaxNanos() {
+        return next_value.getMax();
+    }
+    
+    @Override
+    public void reset() {
+        next_value.reset();
+        nan_inputs.set(0);
+        exceptions.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("ticks=%d, exceptions=%d, NaN inputs=%d%nnextValue: %s",
+                getTickCount(), getExceptionCount(), getNanInputCount(), next_value);
+    }
+}
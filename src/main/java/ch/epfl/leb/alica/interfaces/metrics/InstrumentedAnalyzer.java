@@ -0,0 +1,204 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerStatusPanel;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatch;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatchAnalyzer;
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ch.epfl.leb.alica.interfaces.frames.FrameAnalyzer;
+import ij.gui.Roi;
+import javax.management.ObjectName;
+
+/**
+ * Wraps an analyzer and records the duration of its processImage and
+ * getBatchOutput calls, the number of frames, of NaN batch outputs and of
+ * exceptions in {@link AnalyzerMetrics}.
+ * 
+ * Each call costs two reads of System.nanoTime() and a few atomic
+ * increments on top of the wrapped analyzer. Frames passed to
+ * {@link #processFrame(Frame)} reach the wrapped analyzer without a copy if
+ * it is a {@link FrameAnalyzer}. Use {@link #wrap(Analyzer)} to keep the
+ * {@link SampleBatchAnalyzer} interface of the wrapped analyzer, whose
+ * drainSamples calls are then recorded like getBatchOutput calls.
+ * 
+ * @author Marcel Stefko
+ * @see ch.epfl.leb.alica.interfaces.analyzers.AnalyzerFactory#setInstrumented(boolean)
+ */
+public class InstrumentedAnalyzer implements FrameAnalyzer {
+    
+    private final Analyzer analyzer;
+    private final AnalyzerMetrics metrics = new AnalyzerMetrics();
+    private ObjectName object_name = null;
+    
+    /**
+     * Wraps an analyzer.
+     * 
+     * @param analyzer The analyzer to instrument.
+     */
+    public InstrumentedAnalyzer(Analyzer analyzer) {
+        if (analyzer == null) {
+            throw new NullPointerException();
+        }
+        this.analyzer = analyzer;
+    }
+    
+    /**
+     * Wraps an analyzer, implementing {@link SampleBatchAnalyzer} as well if
+     * the analyzer does.
+     * 
+     * @param analyzer The analyzer to instrument.
+     * @return The instrumented analyzer.
+     */
+    public static InstrumentedAnalyzer wrap(Analyzer analyzer) {
+        if (analyzer instanceof SampleBatchAnalyzer) {
+            return new SampleBatchInstrumentedAnalyzer((SampleBatchAnalyzer) analyzer);
+        }
+        return new InstrumentedAnalyzer(analyzer);
+    }
+    
+    /**
+     * @return The wrapped analyzer.
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+    
+    /**
+     * @return The metrics of the wrapped analyzer.
+     */
+    public AnalyzerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Exposes the metrics over JMX as
+     * ch.epfl.leb.alica:type=Analyzer,name=&lt;analyzer name&gt;, replacing the
+     * metrics of an earlier analyzer with the same name. They are removed
+     * when the analyzer is disposed.
+     */
+    public synchronized void registerMBean() {
+        if (object_name == null) {
+            object_name = MetricsRegistry.register("Analyzer", analyzer.getName(), metrics);
+        }
+    }
+    
+    @Override
+    public void processImage(Object image, int image_width, int image_height,
+            double pixel_size_um, long time_ms) {
+        boolean completed = false;
+        long start = System.nanoTime();
+        try {
+            analyzer.processImage(image, image_width, image_height, pixel_size_um, time_ms);
+            completed = true;
+        } finally {
+            metrics.recordProcessImage(System.nanoTime() - start, completed);
+        }
+    }
+    
+    @Override
+    public void processFrame(Frame frame) {
+        boolean completed = false;
+        long start = System.nanoTime();
+        try {
+            frame.processWith(analyzer);
+            completed = true;
+        } finally {
+            metrics.recordProcessImage(System.nanoTime() - start, completed);
+        }
+    }
+    
+    @Override
+    public double getIntermittentOutput() {
+        return analyzer.getIntermittentOutput();
+    }
+    
+    @Override
+    public double getBatchOutput() {
+        boolean completed = false;
+        double value = Double.NaN;
+        long start = System.nanoTime();
+        try {
+            value = analyzer.getBatchOutput();
+            completed = true;
+            return value;
+        } finally {
+            metrics.recordBatchOutput(System.nanoTime() - start, value, completed);
+        }
+    }
+    
+    @Override
+    public void setROI(Roi roi) {
+        analyzer.setROI(roi);
+    }
+    
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            MetricsRegistry.unregister(object_name, metrics);
+            object_name = null;
+        }
+        analyzer.dispose();
+    }
+    
+    @Override
+    public String getName() {
+        return analyzer.getName();
+    }
+    
+    @Override
+    public AnalyzerStatusPanel getStatusPanel() {
+        return analyzer.getStatusPanel();
+    }
+    
+    @Override
+    public String getShortReturnDescription() {
+        return analyzer.getShortReturnDescription();
+    }
+    
+    /**
+     * Forwards the samples of a {@link SampleBatchAnalyzer}.
+     */
+    private static class SampleBatchInstrumentedAnalyzer extends InstrumentedAnalyzer
+            implements SampleBatchAnalyzer {
+        
+        private final SampleBatchAnalyzer sample_analyzer;
+        
+        SampleBatchInstrumentedAnalyzer(SampleBatchAnalyzer analyzer) {
+            super(analyzer);
+            this.sample_analyzer = analyzer;
+        }
+        
+        @Override
+        public int drainSamples(SampleBatch batch) {
+            boolean completed = false;
+            long start = System.nanoTime();
+            try {
+                int retval = sample_analyzer.drainSamples(batch);
+                completed = true;
+                return retval;
+            } finally {
+                getMetrics().recordBatchOutput(System.nanoTime() - start,
+                        completed ? batch.getMean() : Double.NaN, completed);
+            }
+        }
+    }
+}
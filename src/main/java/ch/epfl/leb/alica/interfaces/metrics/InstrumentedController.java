@@ -0,0 +1,168 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.SampleBatch;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerStatusPanel;
+import ch.epfl.leb.alica.interfaces.controllers.SampleBatchController;
+import javax.management.ObjectName;
+
+/**
+ * Wraps a controller and records the duration of its nextValue calls, the
+ * number of ticks, of NaN inputs and of exceptions in
+ * {@link ControllerMetrics}. Use {@link #wrap(Controller)} to keep the
+ * {@link SampleBatchController} interface of the wrapped controller.
+ * 
+ * @author Marcel Stefko
+ * @see ch.epfl.leb.alica.interfaces.controllers.ControllerFactory#setInstrumented(boolean)
+ */
+public class InstrumentedController implements Controller {
+    
+    private final Controller controller;
+    private final ControllerMetrics metrics = new ControllerMetrics();
+    private ObjectName object_name = null;
+    
+    /**
+     * Wraps a controller.
+     * 
+     * @param controller The controller to instrument.
+     */
+    public InstrumentedController(Controller controller) {
+        if (controller == null) {
+            throw new NullPointerException();
+        }
+        this.controller = controller;
+    }
+    
+    /**
+     * Wraps a controller, implementing {@link SampleBatchController} as well
+     * if the controller does.
+     * 
+     * @param controller The controller to instrument.
+     * @return The instrumented controller.
+     */
+    public static InstrumentedController wrap(Controller controller) {
+        if (controller instanceof SampleBatchController) {
+            return new SampleBatchInstrumentedController((SampleBatchController) controller);
+        }
+        return new InstrumentedController(controller);
+    }
+    
+    /**
+     * @return The wrapped controller.
+     */
+    public Controller getController() {
+        return controller;
+    }
+    
+    /**
+     * @return The metrics of the wrapped controller.
+     */
+    public ControllerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Exposes the metrics over JMX as
+     * ch.epfl.leb.alica:type=Controller,name=&lt;controller name&gt;, replacing
+     * the metrics of an earlier controller with the same name.
+     */
+    public synchronized void registerMBean() {
+        if (object_name == null) {
+            object_name = MetricsRegistry.register("Controller", controller.getName(), metrics);
+        }
+    }
+    
+    /**
+     * Removes the metrics from JMX, unless they were already replaced by
+     * those of a newer controller.
+     */
+    public synchronized void unregisterMBean() {
+        MetricsRegistry.unregister(object_name, metrics);
+        object_name = null;
+    }
+    
+    @Override
+    public void setSetpoint(double new_setpoint) {
+        controller.setSetpoint(new_setpoint);
+    }
+    
+    @Override
+    public double getSetpoint() {
+        return controller.getSetpoint();
+    }
+    
+    @Override
+    public double nextValue(double value) {
+        boolean completed = false;
+        long start = System.nanoTime();
+        try {
+            double retval = controller.nextValue(value);
+            completed = true;
+            return retval;
+        } finally {
+            metrics.recordNextValue(System.nanoTime() - start, value, completed);
+        }
+    }
+    
+    @Override
+    public double getCurrentOutput() {
+        return controller.getCurrentOutput();
+    }
+    
+    @Override
+    public String getName() {
+        return controller.getName();
+    }
+    
+    @Override
+    public ControllerStatusPanel getStatusPanel() {
+        return controller.getStatusPanel();
+    }
+    
+    /**
+     * Forwards the samples to a {@link SampleBatchController}, recording the
+     * mean of the samples as the input.
+     */
+    private static class SampleBatchInstrumentedController extends InstrumentedController
+            implements SampleBatchController {
+        
+        private final SampleBatchController sample_controller;
+        
+        SampleBatchInstrumentedController(SampleBatchController controller) {
+            super(controller);
+            this.sample_controller = controller;
+        }
+        
+        @Override
+        public double nextValue(SampleBatch samples) {
+            boolean completed = false;
+            long start = System.nanoTime();
+            try {
+                double retval = sample_controller.nextValue(samples);
+                completed = true;
+                return retval;
+            } finally {
+                getMetrics().recordNextValue(System.nanoTime() - start, samples.getMean(), completed);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Registers metrics with the platform MBean server, under
+ * ch.epfl.leb.alica:type=&lt;type&gt;,name=&lt;product name&gt;.
+ * 
+ * A new registration replaces the previous one with the same name, so that
+ * only the metrics of the latest analyzer or controller of each product are
+ * exposed. Failures are logged and otherwise ignored.
+ * 
+ * @author Marcel Stefko
+ */
+final class MetricsRegistry {
+    
+    static final String DOMAIN = "ch.epfl.leb.alica";
+    
+    /**
+     * The MXBean currently registered under each name.
+     */
+    private static final Map<ObjectName, Object> registered = new HashMap<ObjectName, Object>();
+    
+    private MetricsRegistry() {
+    }
+    
+    /**
+     * Registers an MXBean.
+     * 
+     * @param type Analyzer or Controller.
+     * @param name Name of the product.
+     * @param mbean The MXBean.
+     * @return The name under which it was registered, or null on failure.
+     */
+    static synchronized ObjectName register(String type, String name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName object_name = new ObjectName(DOMAIN + ":type=" + type +
+                    ",name=" + ObjectName.quote(String.valueOf(name)));
+            if (server.isRegistered(object_name)) {
+                server.unregisterMBean(object_name);
+            }
+            server.registerMBean(mbean, object_name);
+            registered.put(object_name, mbean);
+            return object_name;
+        } catch (MalformedObjectNameException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        } catch (InstanceAlreadyExistsException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        } catch (InstanceNotFoundException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        } catch (MBeanRegistrationException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        } catch (NotCompliantMBeanException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return null;
+    }
+    
+    /**
+     * Unregisters an MXBean, unless it was already replaced.
+     * 
+     * @param object_name The name returned by register, or null.
+     * @param mbean The registered MXBean.
+     */
+    static synchronized void unregister(ObjectName object_name, Object mbean) {
+        if (object_name == null || registered.get(object_name) != mbean) {
+            return;
+        }
+        registered.remove(object_name);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(object_name);
+        } catch (InstanceNotFoundException ex) {
+            // already unregistered
+        } catch (MBeanRegistrationException ex) {
+            Logger.getLogger(MetricsRegistry.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+}
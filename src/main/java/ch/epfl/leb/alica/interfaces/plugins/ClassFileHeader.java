@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The name, super class and access flags of a class, read from its class
+ * file without defining the class.
+ *
+ * Only the constant pool and the few fields that follow it are parsed.
+ *
+ * @author Marcel Stefko
+ */
+class ClassFileHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    // constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * Internal name of the class, e.g. java/lang/Object.
+     */
+    final String name;
+
+    /**
+     * Internal name of the super class, or null for java/lang/Object.
+     */
+    final String super_name;
+
+    /**
+     * Access flags of the class.
+     */
+    final int access_flags;
+
+    private ClassFileHeader(String name, String super_name, int access_flags) {
+        this.name = name;
+        this.super_name = super_name;
+        this.access_flags = access_flags;
+    }
+
+    /**
+     * Returns whether the class is abstract or an interface, i.e. can not
+     * be instantiated.
+     *
+     * @return True if the class can not be instantiated.
+     */
+    boolean isAbstract() {
+        return (access_flags & (ACC_ABSTRACT | ACC_INTERFACE)) != 0;
+    }
+
+    /**
+     * Reads the header of a class file. The stream is not closed.
+     *
+     * @param stream The class file contents.
+     * @return The header of the class.
+     * @throws IOException If the stream is not a valid class file.
+     */
+    static ClassFileHeader read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file.");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int pool_count = in.readUnsignedShort();
+        String[] utf8 = new String[pool_count];
+        int[] class_name_index = new int[pool_count];
+        for (int i = 1; i < pool_count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    class_name_index[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    // 8-byte constants take up two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + ".");
+            }
+        }
+
+        int access_flags = in.readUnsignedShort();
+        String name = resolveClassName(utf8, class_name_index, in.readUnsignedShort());
+        int super_index = in.readUnsignedShort();
+        String super_name = null;
+        if (super_index != 0) {
+            super_name = resolveClassName(utf8, class_name_index, super_index);
+        }
+        return new ClassFileHeader(name, super_name, access_flags);
+    }
+
+    private static String resolveClassName(String[] utf8, int[] class_name_index, int index) throws IOException {
+        if (index <= 0 || index >= class_name_index.length ||
+            class_name_index[index] <= 0 || class_name_index[index] >= utf8.length ||
+            utf8[class_name_index[index]] == null) {
+            throw new IOException("Invalid class reference in constant pool.");
+        }
+        return utf8[class_name_index[index]];
+    }
+}
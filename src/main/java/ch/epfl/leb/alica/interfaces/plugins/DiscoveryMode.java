@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How the classes of a plugin jar without provider-configuration file are
+ * checked.
+ *
+ * @author Marcel Stefko
+ */
+public enum DiscoveryMode {
+
+    /**
+     * The super class chain of each class is read from its class file, and
+     * only the concrete classes whose chain reaches a base class are loaded.
+     * Unrelated classes are never defined or initialized.
+     */
+    BYTECODE,
+
+    /**
+     * Every class of the jar is loaded and checked with isAssignableFrom.
+     */
+    CLASS_LOADING;
+
+    /**
+     * System property selecting the mode, either "bytecode" or
+     * "class_loading".
+     */
+    public static final String MODE_PROPERTY = "alica.plugins.discovery";
+
+    /**
+     * Returns the mode selected by the alica.plugins.discovery system
+     * property, or BYTECODE if it is not set.
+     *
+     * @return The default discovery mode.
+     */
+    public static DiscoveryMode getDefault() {
+        String value = System.getProperty(MODE_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return BYTECODE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(DiscoveryMode.class.getName()).log(Level.WARNING,
+                    "Unknown plugin discovery mode " + value + ", using " + BYTECODE + ".");
+            return BYTECODE;
+        }
+    }
+}
@@ -0,0 +1,658 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerBuilder;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerSetupPanel;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerBuilder;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerSetupPanel;
+import ij.io.PluginClassLoader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the plugin classes of all ALICA_ jars.
+ *
+ * Each jar is scanned once, on a thread pool, for all base classes at the
+ * same time, and gets a single class loader. The results are kept, so that
+ * the analyzer and controller factories share both the discovered classes
+ * and their class loaders.
+ *
+ * After the initial scan, single jars can be loaded again or removed with
+ * {@link #loadJar(File)} and {@link #removeJar(File)}, which notify the
+ * registered {@link PluginListener}s. The classes of the other jars are not
+ * affected. The class loader of a reloaded or removed jar is closed right
+ * after the listeners were notified, so products created from its classes
+ * must be stopped before the jar is replaced.
+ *
+ * @author Marcel Stefko
+ */
+public class PluginDiscovery {
+
+    private static PluginDiscovery default_discovery = null;
+
+    /**
+     * The plugin jars, in the order in which they are scanned.
+     */
+    private final List<File> jars;
+
+    /**
+     * The base classes whose subclasses are looked for.
+     */
+    private final List<Class<?>> bases;
+
+    private final PluginIndex index;
+
+    /**
+     * How jars without provider-configuration files are scanned.
+     */
+    private DiscoveryMode mode = DiscoveryMode.getDefault();
+
+    /**
+     * Class loaders of the plugin jars, keyed by jar.
+     */
+    private final LinkedHashMap<File, ClassLoader> class_loaders;
+
+    /**
+     * Discovered classes, keyed by the base class they extend.
+     */
+    private final LinkedHashMap<Class<?>, List<Class<?>>> classes;
+
+    /**
+     * The jar of each discovered class.
+     */
+    private final HashMap<Class<?>, File> class_jars;
+
+    /**
+     * The scan results of the jars, keyed by jar.
+     */
+    private final HashMap<File, JarResult> results;
+
+    /**
+     * Listeners are held weakly, so that factories which are no longer used
+     * can be collected.
+     */
+    private final CopyOnWriteArrayList<WeakReference<PluginListener>> listeners;
+
+    private boolean scanned = false;
+
+    /**
+     * Returns the discovery of analyzer and controller setup panels and
+     * builders in the ALICA_ jars of the working directory, shared by the factories.
+     *
+     * @return The default plugin discovery.
+     */
+    public static synchronized PluginDiscovery getDefault() {
+        if (default_discovery == null) {
+            // I use this just to list jars in the working dir
+            PluginClassLoader class_loader = new PluginClassLoader("./");
+            default_discovery = new PluginDiscovery(
+                    findPluginJars(class_loader.getURLs()),
+                    PluginIndex.getDefault(),
+                    AnalyzerSetupPanel.class, ControllerSetupPanel.class,
+                    AnalyzerBuilder.class, ControllerBuilder.class);
+        }
+        return default_discovery;
+    }
+
+    /**
+     * Selects the ALICA plugin jars from a list of urls.
+     *
+     * The jar filename MUST begin with "ALICA_" for the jar to be recognized.
+     * The ALICA_interfaces jar is skipped.
+     *
+     * @param urls Urls of the files in the plugin folder.
+     * @return The plugin jars.
+     */
+    public static List<File> findPluginJars(URL[] urls) {
+        ArrayList<File> retval = new ArrayList<File>();
+        for (URL u: urls) {
+            // if it doesnt match desired filename, skip it
+            if (!u.toString().toUpperCase().contains("ALICA_") ||
+                !u.toString().contains(".jar")) {
+                continue;
+            } else if (u.toString().contains("ALICA_interfaces")) {
+                 //This prevents a non-critical error from being raised by
+                 //forcing the dynamic class loader to skip the interfaces .jar.
+                continue;
+            }
+            try {
+                retval.add(new File(u.toURI()));
+            } catch (URISyntaxException ex) {
+                Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns whether a file name denotes an ALICA plugin jar, following the
+     * same rules as {@link #findPluginJars(URL[])}.
+     *
+     * @param name The file name.
+     * @return True for ALICA_ jars other than ALICA_interfaces.
+     */
+    static boolean isPluginJarName(String name) {
+        return name.toUpperCase().contains("ALICA_") && name.contains(".jar") &&
+                !name.contains("ALICA_interfaces");
+    }
+
+    /**
+     * Initializes the discovery. No jar is scanned before the results are
+     * first needed.
+     *
+     * @param jars The plugin jars.
+     * @param index Index used to skip jars which did not change.
+     * @param bases Base classes whose subclasses are looked for.
+     */
+    public PluginDiscovery(List<File> jars, PluginIndex index, Class<?>... bases) {
+        this.jars = new ArrayList<File>(jars);
+        this.index = index;
+        this.bases = Collections.unmodifiableList(Arrays.asList(bases));
+        this.class_loaders = new LinkedHashMap<File, ClassLoader>();
+        this.classes = new LinkedHashMap<Class<?>, List<Class<?>>>();
+        this.class_jars = new HashMap<Class<?>, File>();
+        this.results = new HashMap<File, JarResult>();
+        this.listeners = new CopyOnWriteArrayList<WeakReference<PluginListener>>();
+        for (Class<?> base: bases) {
+            classes.put(base, new ArrayList<Class<?>>());
+        }
+    }
+
+    /**
+     * Selects how jars without provider-configuration files are scanned.
+     * Has no effect once the jars were scanned.
+     *
+     * @param mode The discovery mode.
+     */
+    public synchronized void setDiscoveryMode(DiscoveryMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Returns how jars without provider-configuration files are scanned.
+     *
+     * @return The discovery mode.
+     */
+    public synchronized DiscoveryMode getDiscoveryMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the discovered subclasses of a base class, scanning the jars
+     * if this was not done yet.
+     *
+     * @param <T> The type of the base class.
+     * @param base One of the base classes of this discovery.
+     * @return The discovered subclasses, in jar order.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> List<Class<? extends T>> getClasses(Class<T> base) {
+        if (!classes.containsKey(base)) {
+            throw new IllegalArgumentException("Not a plugin base class: " + base.getName());
+        }
+        scan();
+        ArrayList<Class<? extends T>> retval = new ArrayList<Class<? extends T>>();
+        for (Class<?> c: classes.get(base)) {
+            retval.add((Class<? extends T>) c);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the discovered subclasses of a base class in a single jar.
+     *
+     * If the jars were not scanned yet, only this jar is scanned, so that
+     * the products of the first jars can be listed while the others are
+     * still being scanned.
+     *
+     * @param <T> The type of the base class.
+     * @param jar The plugin jar.
+     * @param base One of the base classes of this discovery.
+     * @return The discovered subclasses, empty if the jar is not loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> List<Class<? extends T>> getClasses(File jar, Class<T> base) {
+        if (!classes.containsKey(base)) {
+            throw new IllegalArgumentException("Not a plugin base class: " + base.getName());
+        }
+        File known = findJar(jar);
+        if (known != null && !scanned && !results.containsKey(known)) {
+            JarResult result = scanJar(known);
+            if (result != null) {
+                results.put(known, result);
+                rebuildClasses();
+            }
+            index.save();
+        }
+        ArrayList<Class<? extends T>> retval = new ArrayList<Class<? extends T>>();
+        JarResult result = results.get(known);
+        if (result != null) {
+            for (Class<?> c: result.classes.get(base)) {
+                retval.add((Class<? extends T>) c);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the jar a discovered class was loaded from.
+     *
+     * @param c A discovered plugin class.
+     * @return The plugin jar, or null if the class was not discovered or its
+     * jar was unloaded.
+     */
+    public synchronized File getJar(Class<?> c) {
+        return class_jars.get(c);
+    }
+
+    /**
+     * Returns the plugin jars.
+     *
+     * @return The jars, in the order in which they are scanned.
+     */
+    public synchronized List<File> getJars() {
+        return new ArrayList<File>(jars);
+    }
+
+    /**
+     * Registers a listener which is notified when jars are loaded or
+     * unloaded after the initial scan. The discovery only keeps a weak
+     * reference to the listener, which must be referenced by its owner.
+     *
+     * @param listener The listener.
+     */
+    public void addPluginListener(PluginListener listener) {
+        listeners.add(new WeakReference<PluginListener>(listener));
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener.
+     */
+    public void removePluginListener(PluginListener listener) {
+        for (WeakReference<PluginListener> reference: listeners) {
+            PluginListener current = reference.get();
+            if (current == null || current == listener) {
+                listeners.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * Loads a new or updated plugin jar in a new class loader. If the jar
+     * was loaded before, its classes are unloaded first and its old class
+     * loader is closed; running products created from the old classes must
+     * be stopped before. Listeners are notified on the calling thread.
+     *
+     * @param jar The plugin jar.
+     * @return True if the jar could be scanned.
+     */
+    public boolean loadJar(File jar) {
+        File known;
+        JarResult old_result;
+        synchronized (this) {
+            scan();
+            known = findJar(jar);
+            old_result = known == null ? null : results.get(known);
+        }
+        if (old_result != null) {
+            unload(known, old_result);
+        }
+        File added = known == null ? jar.getAbsoluteFile() : known;
+        JarResult result = scanJar(added);
+        synchronized (this) {
+            if (!jars.contains(added)) {
+                jars.add(added);
+            }
+            if (result != null) {
+                results.put(added, result);
+            }
+            rebuildClasses();
+        }
+        index.save();
+        if (result == null) {
+            return false;
+        }
+        for (PluginListener listener: getListeners()) {
+            listener.jarLoaded(this, added);
+        }
+        return true;
+    }
+
+    /**
+     * Unloads the classes of a removed plugin jar and closes its class
+     * loader; running products created from these classes must be stopped
+     * before. Listeners are notified on the calling thread.
+     *
+     * @param jar The plugin jar.
+     */
+    public void removeJar(File jar) {
+        File known;
+        JarResult old_result;
+        synchronized (this) {
+            scan();
+            known = findJar(jar);
+            if (known == null) {
+                return;
+            }
+            old_result = results.get(known);
+            jars.remove(known);
+            index.retainJars(jars);
+        }
+        if (old_result != null) {
+            unload(known, old_result);
+        }
+        index.save();
+    }
+
+    /**
+     * Drops the classes of a jar, notifies the listeners and closes the
+     * class loader of the jar.
+     */
+    private void unload(File jar, JarResult result) {
+        synchronized (this) {
+            results.remove(jar);
+            rebuildClasses();
+        }
+        for (PluginListener listener: getListeners()) {
+            listener.jarUnloaded(this, jar);
+        }
+        if (result.class_loader instanceof URLClassLoader) {
+            try {
+                ((URLClassLoader) result.class_loader).close();
+            } catch (IOException ex) {
+                Logger.getLogger(PluginDiscovery.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    private List<PluginListener> getListeners() {
+        ArrayList<PluginListener> retval = new ArrayList<PluginListener>();
+        for (WeakReference<PluginListener> reference: listeners) {
+            PluginListener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+            } else {
+                retval.add(listener);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the known jar denoting the same file, or null.
+     */
+    private File findJar(File jar) {
+        if (jars.contains(jar)) {
+            return jar;
+        }
+        Path path = jar.getAbsoluteFile().toPath().normalize();
+        for (File known: jars) {
+            if (known.getAbsoluteFile().toPath().normalize().equals(path)) {
+                return known;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges the classes of all loaded jars in jar order.
+     */
+    private void rebuildClasses() {
+        class_loaders.clear();
+        class_jars.clear();
+        for (List<Class<?>> list: classes.values()) {
+            list.clear();
+        }
+        for (File jar: jars) {
+            JarResult result = results.get(jar);
+            if (result == null) {
+                continue;
+            }
+            class_loaders.put(jar, result.class_loader);
+            for (Map.Entry<Class<?>, List<Class<?>>> entry: result.classes.entrySet()) {
+                classes.get(entry.getKey()).addAll(entry.getValue());
+                for (Class<?> c: entry.getValue()) {
+                    class_jars.put(c, jar);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the class loader shared by all classes of a plugin jar.
+     *
+     * @param jar The plugin jar.
+     * @return The class loader of the jar, or null if the jar is not part of
+     * this discovery.
+     */
+    public synchronized ClassLoader getClassLoader(File jar) {
+        scan();
+        return class_loaders.get(jar);
+    }
+
+    /**
+     * Returns the product name of a discovered class, as stored by
+     * {@link #cacheName(Class, String)} during a previous startup.
+     *
+     * @param c A discovered plugin class.
+     * @return The cached name, or null if it is not known or the jar of the
+     * class changed since.
+     */
+    public synchronized String getCachedName(Class<?> c) {
+        File jar = class_jars.get(c);
+        if (jar == null) {
+            return null;
+        }
+        return index.lookupName(jar, c.getName());
+    }
+
+    /**
+     * Remembers the product name of a discovered class, so that the class
+     * does not need to be instantiated to list it on the next startup. Call
+     * {@link #saveIndex()} to persist the names.
+     *
+     * @param c A discovered plugin class.
+     * @param name The product name of the class.
+     */
+    public synchronized void cacheName(Class<?> c, String name) {
+        File jar = class_jars.get(c);
+        if (jar != null) {
+            index.updateName(jar, c.getName(), name);
+        }
+    }
+
+    /**
+     * Writes cached names to the plugin index.
+     */
+    public void saveIndex() {
+        index.save();
+    }
+
+    /**
+     * Scans all jars, unless this was already done. Jars are scanned in
+     * parallel, the results are merged in jar order. Jars which were already
+     * scanned on their own by {@link #getClasses(File, Class)} are skipped.
+     */
+    public synchronized void scan() {
+        if (scanned) {
+            return;
+        }
+        scanned = true;
+        ArrayList<File> pending = new ArrayList<File>();
+        for (File jar: jars) {
+            if (!results.containsKey(jar)) {
+                pending.add(jar);
+            }
+        }
+        if (pending.isEmpty()) {
+            index.retainJars(jars);
+            index.save();
+            return;
+        }
+
+        int n_threads = Math.min(pending.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(n_threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ALICA plugin discovery");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            ArrayList<Future<JarResult>> futures = new ArrayList<Future<JarResult>>();
+            for (final File jar: pending) {
+                futures.add(executor.submit(new Callable<JarResult>() {
+                    @Override
+                    public JarResult call() {
+                        return scanJar(jar);
+                    }
+                }));
+            }
+            for (Future<JarResult> future: futures) {
+                JarResult result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+                    return;
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                    continue;
+                }
+                if (result != null) {
+                    results.put(result.jar, result);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            rebuildClasses();
+        }
+        index.retainJars(jars);
+        index.save();
+    }
+
+    /**
+     * Finds and loads the plugin classes of a single jar.
+     *
+     * @param jar The plugin jar.
+     * @return The classes found in the jar, or null if it can not be read.
+     */
+    private JarResult scanJar(File jar) {
+        Logger.getLogger(PluginDiscovery.class.getName()).log(Level.FINE, "Loading ALICA plugins from:\n" + jar);
+        URL[] urls;
+        try {
+            urls = new URL[] { jar.toURI().toURL() };
+        } catch (MalformedURLException ex) {
+            Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        // it is vital to include a parent classloader from original ALICA package
+        URLClassLoader cl = URLClassLoader.newInstance(urls, PluginDiscovery.class.getClassLoader());
+
+        // only open the jar if it changed since it was last indexed
+        LinkedHashMap<Class<?>, List<String>> class_names = new LinkedHashMap<Class<?>, List<String>>();
+        for (Class<?> base: bases) {
+            List<String> names = index.lookup(jar, base);
+            if (names == null) {
+                class_names = null;
+                break;
+            }
+            class_names.put(base, names);
+        }
+        if (class_names == null) {
+            Map<Class<?>, List<String>> found;
+            try {
+                found = PluginScanner.findSubclasses(jar, cl, bases, mode);
+            } catch (IOException ex) {
+                Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            }
+            class_names = new LinkedHashMap<Class<?>, List<String>>(found);
+            for (Map.Entry<Class<?>, List<String>> entry: class_names.entrySet()) {
+                index.update(jar, entry.getKey(), entry.getValue());
+            }
+        }
+
+        JarResult result = new JarResult(jar, cl);
+        for (Map.Entry<Class<?>, List<String>> entry: class_names.entrySet()) {
+            Class<?> base = entry.getKey();
+            ArrayList<Class<?>> loaded = new ArrayList<Class<?>>();
+            for (String className: entry.getValue()) {
+                Class<?> c;
+                try {
+                    c = cl.loadClass(className);
+                } catch (ClassNotFoundException ex) {
+                    Logger.getLogger(PluginDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+                    continue;
+                }
+                if (!base.isAssignableFrom(c)) {
+                    Logger.getLogger(PluginDiscovery.class.getName()).log(Level.WARNING,
+                            className + " is not a " + base.getSimpleName() + ".");
+                    continue;
+                }
+                loaded.add(c);
+            }
+            result.classes.put(base, loaded);
+        }
+        return result;
+    }
+
+    /**
+     * The classes found in a single jar.
+     */
+    private static class JarResult {
+        final File jar;
+        final ClassLoader class_loader;
+        final LinkedHashMap<Class<?>, List<Class<?>>> classes;
+
+        JarResult(File jar, ClassLoader class_loader) {
+            this.jar = jar;
+            this.class_loader = class_loader;
+            this.classes = new LinkedHashMap<Class<?>, List<Class<?>>>();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of the plugin classes found in each ALICA_ jar, and of
+ * the names under which they are listed.
+ *
+ * Entries are keyed by the absolute path of the jar and are only trusted
+ * while the size and modification time of the jar are unchanged, so a
+ * startup in which no plugin was touched does not need to open any jar.
+ *
+ * The index is stored as a properties file in the .alica folder of the
+ * user's home directory. Its location can be changed with the
+ * alica.plugins.index system property.
+ *
+ * @author Marcel Stefko
+ */
+public class PluginIndex {
+
+    /**
+     * System property overriding the location of the index file.
+     */
+    public static final String INDEX_FILE_PROPERTY = "alica.plugins.index";
+
+    private static final String STAMP_KEY = "stamp";
+    private static final String NAME_KEY_PREFIX = "name:";
+    private static final char KEY_SEPARATOR = '#';
+
+    private static PluginIndex default_index = null;
+
+    /**
+     * The file the index is persisted to.
+     */
+    private final File file;
+
+    /**
+     * Cached records, keyed by the absolute path of the jar.
+     */
+    private final LinkedHashMap<String, JarRecord> records;
+
+    /**
+     * Whether the index differs from its persisted state.
+     */
+    private boolean modified = false;
+
+    /**
+     * Returns the index shared by all plugin loaders.
+     *
+     * @return The default plugin index.
+     */
+    public static synchronized PluginIndex getDefault() {
+        if (default_index == null) {
+            String path = System.getProperty(INDEX_FILE_PROPERTY);
+            File file;
+            if (path == null || path.isEmpty()) {
+                file = new File(new File(System.getProperty("user.home"), ".alica"), "plugin-index.properties");
+            } else {
+                file = new File(path);
+            }
+            default_index = new PluginIndex(file);
+        }
+        return default_index;
+    }
+
+    /**
+     * Initializes the index from a file. A missing or unreadable file results
+     * in an empty index.
+     *
+     * @param file The file the index is read from and saved to.
+     */
+    public PluginIndex(File file) {
+        this.file = file;
+        this.records = new LinkedHashMap<String, JarRecord>();
+        load();
+    }
+
+    /**
+     * Returns the cached names of the classes in the jar that extend a base
+     * class.
+     *
+     * @param jar The plugin jar.
+     * @param base The base class the plugin classes extend.
+     * @return The cached class names, or null if the jar was modified since
+     * it was indexed or was never indexed for this base class.
+     */
+    public synchronized List<String> lookup(File jar, Class<?> base) {
+        JarRecord record = records.get(jar.getAbsolutePath());
+        if (record == null || !record.matches(jar)) {
+            return null;
+        }
+        List<String> class_names = record.classes.get(base.getName());
+        if (class_names == null) {
+            return null;
+        }
+        return new ArrayList<String>(class_names);
+    }
+
+    /**
+     * Stores the names of the classes in the jar that extend a base class.
+     *
+     * Records of other base classes for this jar are dropped if the jar was
+     * modified since they were stored.
+     *
+     * @param jar The plugin jar.
+     * @param base The base class the plugin classes extend.
+     * @param class_names Names of the classes that extend the base class.
+     */
+    public synchronized void update(File jar, Class<?> base, List<String> class_names) {
+        String path = jar.getAbsolutePath();
+        JarRecord record = records.get(path);
+        if (record == null || !record.matches(jar)) {
+            record = new JarRecord(jar.length(), jar.lastModified());
+            records.put(path, record);
+        }
+        record.classes.put(base.getName(), new ArrayList<String>(class_names));
+        modified = true;
+    }
+
+    /**
+     * Returns the cached product name of a plugin class.
+     *
+     * @param jar The plugin jar containing the class.
+     * @param class_name The name of the plugin class.
+     * @return The cached product name, or null if the jar was modified since
+     * the name was stored, or it was never stored.
+     */
+    public synchronized String lookupName(File jar, String class_name) {
+        JarRecord record = records.get(jar.getAbsolutePath());
+        if (record == null || !record.matches(jar)) {
+            return null;
+        }
+        return record.names.get(class_name);
+    }
+
+    /**
+     * Stores the product name of a plugin class, so that it can be listed
+     * without instantiating it on the next startup.
+     *
+     * @param jar The plugin jar containing the class.
+     * @param class_name The name of the plugin class.
+     * @param name The product name.
+     */
+    public synchronized void updateName(File jar, String class_name, String name) {
+        String path = jar.getAbsolutePath();
+        JarRecord record = records.get(path);
+        if (record == null || !record.matches(jar)) {
+            record = new JarRecord(jar.length(), jar.lastModified());
+            records.put(path, record);
+        }
+        if (!name.equals(record.names.put(class_name, name))) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Forgets all jars which are not in the given collection, e.g. because
+     * they were removed from the plugin folder.
+     *
+     * @param jars The jars that are still present.
+     */
+    public synchronized void retainJars(Collection<File> jars) {
+        Set<String> paths = new HashSet<String>();
+        for (File jar: jars) {
+            paths.add(jar.getAbsolutePath());
+        }
+        Iterator<String> it = records.keySet().iterator();
+        while (it.hasNext()) {
+            if (!paths.contains(it.next())) {
+                it.remove();
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the index to its file if it was modified. Failures are logged
+     * and otherwise ignored, since the index is only a cache.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, JarRecord> entry: records.entrySet()) {
+            String path = entry.getKey();
+            JarRecord record = entry.getValue();
+            properties.setProperty(path + KEY_SEPARATOR + STAMP_KEY,
+                    record.size + "," + record.last_modified);
+            for (Map.Entry<String, List<String>> classes: record.classes.entrySet()) {
+                properties.setProperty(path + KEY_SEPARATOR + classes.getKey(),
+                        join(classes.getValue()));
+            }
+            for (Map.Entry<String, String> name: record.names.entrySet()) {
+                properties.setProperty(path + KEY_SEPARATOR + NAME_KEY_PREFIX + name.getKey(),
+                        name.getValue());
+            }
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            Logger.getLogger(PluginIndex.class.getName()).log(Level.WARNING,
+                    "Unable to create plugin index folder " + parent);
+            return;
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, "ALICA plugin index");
+            modified = false;
+        } catch (IOException ex) {
+            Logger.getLogger(PluginIndex.class.getName()).log(Level.WARNING, null, ex);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Reads the index file into the records map.
+     */
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException ex) {
+            Logger.getLogger(PluginIndex.class.getName()).log(Level.WARNING, null, ex);
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+
+        // stamps first, so that class lists can be attached to their record
+        for (String key: properties.stringPropertyNames()) {
+            int split = key.lastIndexOf(KEY_SEPARATOR);
+            if (split < 0 || !key.substring(split + 1).equals(STAMP_KEY)) {
+                continue;
+            }
+            String[] stamp = properties.getProperty(key).split(",");
+            try {
+                records.put(key.substring(0, split), new JarRecord(
+                        Long.parseLong(stamp[0].trim()),
+                        Long.parseLong(stamp[1].trim())));
+            } catch (RuntimeException ex) {
+                // malformed stamp, the jar will simply be rescanned
+                Logger.getLogger(PluginIndex.class.getName()).log(Level.FINE,
+                        "Ignoring malformed plugin index entry " + key);
+            }
+        }
+        for (String key: properties.stringPropertyNames()) {
+            int split = key.lastIndexOf(KEY_SEPARATOR);
+            if (split < 0 || key.substring(split + 1).equals(STAMP_KEY)) {
+                continue;
+            }
+            JarRecord record = records.get(key.substring(0, split));
+            if (record == null) {
+                continue;
+            }
+            String suffix = key.substring(split + 1);
+            if (suffix.startsWith(NAME_KEY_PREFIX)) {
+                record.names.put(suffix.substring(NAME_KEY_PREFIX.length()), properties.getProperty(key));
+            } else {
+                record.classes.put(suffix, split(properties.getProperty(key)));
+            }
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value: values) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> split(String value) {
+        ArrayList<String> retval = new ArrayList<String>();
+        for (String s: value.split(",")) {
+            if (!s.trim().isEmpty()) {
+                retval.add(s.trim());
+            }
+        }
+        return retval;
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException ex) {
+            Logger.getLogger(PluginIndex.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+
+    /**
+     * Cached scan results of a single jar.
+     */
+    private static class JarRecord {
+        final long size;
+        final long last_modified;
+
+        /**
+         * Class names keyed by the name of the base class they extend.
+         */
+        final LinkedHashMap<String, List<String>> classes;
+
+        /**
+         * Product names keyed by the name of the plugin class.
+         */
+        final LinkedHashMap<String, String> names;
+
+        JarRecord(long size, long last_modified) {
+            this.size = size;
+            this.last_modified = last_modified;
+            this.classes = new LinkedHashMap<String, List<String>>();
+            this.names = new LinkedHashMap<String, String>();
+        }
+
+        boolean matches(File jar) {
+            return jar.length() == size && jar.lastModified() == last_modified;
+        }
+    }
+}
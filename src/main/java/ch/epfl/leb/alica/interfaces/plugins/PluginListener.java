@@ -0,0 +1,52 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.io.File;
+
+/**
+ * Notified when the classes of a plugin jar are loaded or unloaded after
+ * the initial scan of a {@link PluginDiscovery}, e.g. by a
+ * {@link PluginWatcher}.
+ * 
+ * @author Marcel Stefko
+ */
+public interface PluginListener {
+    
+    /**
+     * Called after the classes of a new or updated jar were loaded. They are
+     * returned by {@link PluginDiscovery#getClasses(File, Class)}.
+     * 
+     * @param discovery The discovery which loaded the jar.
+     * @param jar The plugin jar.
+     */
+    public void jarLoaded(PluginDiscovery discovery, File jar);
+    
+    /**
+     * Called when the classes of a removed or updated jar are unloaded,
+     * before its class loader is closed. Products created from these
+     * classes should be dropped; running ones can not load further classes
+     * once the class loader is closed.
+     * 
+     * @param discovery The discovery which unloaded the jar.
+     * @param jar The plugin jar.
+     */
+    public void jarUnloaded(PluginDiscovery discovery, File jar);
+}
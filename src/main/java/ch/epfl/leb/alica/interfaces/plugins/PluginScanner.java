@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ *
+ * Author: Marcel Stefko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the plugin classes contained in an ALICA_ jar.
+ *
+ * A plugin jar can list its setup panels in a provider-configuration file
+ * named after the base class, e.g.
+ * META-INF/services/ch.epfl.leb.alica.interfaces.analyzers.AnalyzerSetupPanel,
+ * with one fully qualified class name per line. In that case only the listed
+ * classes are considered. Otherwise the classes of the jar are checked as
+ * selected by the {@link DiscoveryMode}.
+ *
+ * @author Marcel Stefko
+ */
+public class PluginScanner {
+
+    /**
+     * Folder inside the jar containing the provider-configuration files.
+     */
+    public static final String SERVICES_FOLDER = "META-INF/services/";
+
+    /**
+     * Lists the names of the classes in the jar that extend each of the base
+     * classes. The jar is opened and walked only once, whatever the number
+     * of base classes.
+     *
+     * @param jar The plugin jar.
+     * @param cl The class loader of the jar, used for the base classes for
+     * which the jar has no provider-configuration file.
+     * @param bases The base classes of the plugin classes.
+     * @param mode How classes are checked in the absence of a
+     * provider-configuration file.
+     * @return Names of the classes that extend each base class.
+     * @throws IOException If the jar can not be read.
+     */
+    public static Map<Class<?>, List<String>> findSubclasses(File jar, ClassLoader cl, Collection<Class<?>> bases, DiscoveryMode mode) throws IOException {
+        LinkedHashMap<Class<?>, List<String>> retval = new LinkedHashMap<Class<?>, List<String>>();
+        ArrayList<Class<?>> unlisted = new ArrayList<Class<?>>();
+        JarFile jarFile = new JarFile(jar);
+        try {
+            for (Class<?> base: bases) {
+                List<String> class_names = readProviderConfiguration(jarFile, base);
+                if (class_names == null) {
+                    unlisted.add(base);
+                    class_names = new ArrayList<String>();
+                }
+                retval.put(base, class_names);
+            }
+            if (!unlisted.isEmpty()) {
+                if (mode == DiscoveryMode.BYTECODE) {
+                    inspectClasses(jarFile, cl, unlisted, retval);
+                } else {
+                    scanClasses(jarFile, cl, unlisted, retval);
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the provider-configuration file of the base class.
+     *
+     * @param jarFile The opened plugin jar.
+     * @param base The base class of the plugin classes.
+     * @return The listed class names, or null if the jar has no such file.
+     * @throws IOException If the file can not be read.
+     */
+    static List<String> readProviderConfiguration(JarFile jarFile, Class<?> base) throws IOException {
+        JarEntry je = jarFile.getJarEntry(SERVICES_FOLDER + base.getName());
+        if (je == null) {
+            return null;
+        }
+        ArrayList<String> retval = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(jarFile.getInputStream(je), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // strip comments and whitespace
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (!line.isEmpty() && !retval.contains(line)) {
+                    retval.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Loads every class of the jar and sorts those which extend one of the
+     * base classes into the corresponding list.
+     */
+    private static void scanClasses(JarFile jarFile, ClassLoader cl, List<Class<?>> bases, Map<Class<?>, List<String>> retval) {
+        Enumeration<JarEntry> e = jarFile.entries();
+        while (e.hasMoreElements()) {
+            JarEntry je = e.nextElement();
+            if (je.isDirectory() || !je.getName().endsWith(".class")) {
+                continue;
+            }
+            // remove .class from end of string
+            String className = je.getName().substring(0, je.getName().length() - 6);
+            className = className.replace('/', '.');
+            Class c = null;
+            // try to load class
+            try {
+                c = cl.loadClass(className);
+            } catch (ClassNotFoundException ex) {
+                Logger.getLogger(PluginScanner.class.getName()).log(Level.SEVERE, null, ex);
+                continue;
+            } catch (LinkageError ex) {
+                // e.g. a dependency of the class is missing
+                Logger.getLogger(PluginScanner.class.getName()).log(Level.SEVERE, null, ex);
+                continue;
+            }
+            for (Class<?> base: bases) {
+                if (base.isAssignableFrom(c)) {
+                    retval.get(base).add(className);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the class file header of every class of the jar, and sorts the
+     * concrete classes whose super class chain reaches one of the base classes
+     * into the corresponding list. No class of the jar is loaded.
+     */
+    private static void inspectClasses(JarFile jarFile, ClassLoader cl, List<Class<?>> bases, Map<Class<?>, List<String>> retval) throws IOException {
+        // internal names of the classes in the jar, in entry order
+        LinkedHashMap<String, ClassFileHeader> headers = new LinkedHashMap<String, ClassFileHeader>();
+        Enumeration<JarEntry> e = jarFile.entries();
+        while (e.hasMoreElements()) {
+            JarEntry je = e.nextElement();
+            if (je.isDirectory() || !je.getName().endsWith(".class") ||
+                je.getName().endsWith("module-info.class")) {
+                continue;
+            }
+            InputStream in = jarFile.getInputStream(je);
+            try {
+                ClassFileHeader header = ClassFileHeader.read(new BufferedInputStream(in));
+                headers.put(header.name, header);
+            } catch (IOException ex) {
+                Logger.getLogger(PluginScanner.class.getName()).log(Level.WARNING,
+                        "Unable to read " + je.getName() + ": " + ex.getMessage());
+            } finally {
+                in.close();
+            }
+        }
+
+        for (Class<?> base: bases) {
+            String base_name = base.getName().replace('.', '/');
+            // whether a class (internal name) extends the base class
+            HashMap<String, Boolean> known = new HashMap<String, Boolean>();
+            known.put(base_name, Boolean.TRUE);
+            for (ClassFileHeader header: headers.values()) {
+                if (!header.isAbstract() && extendsBase(header.name, headers, known, cl, base)) {
+                    retval.get(base).add(header.name.replace('/', '.'));
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks up the super class chain of a class until the base class, a
+     * class of the Java platform or a class outside of the jar is reached.
+     * Classes outside of the jar are resolved through the class loader
+     * without being initialized.
+     */
+    private static boolean extendsBase(String name, Map<String, ClassFileHeader> headers,
+            Map<String, Boolean> known, ClassLoader cl, Class<?> base) {
+        ArrayList<String> chain = new ArrayList<String>();
+        String current = name;
+        Boolean result = null;
+        while (result == null) {
+            result = known.get(current);
+            if (result != null) {
+                break;
+            }
+            chain.add(current);
+            ClassFileHeader header = headers.get(current);
+            if (header != null) {
+                if (header.super_name == null) {
+                    result = Boolean.FALSE;
+                } else {
+                    current = header.super_name;
+                }
+            } else if (current.startsWith("java/") || current.startsWith("javax/")) {
+                // the base classes are not part of the platform
+                result = Boolean.FALSE;
+            } else {
+                result = isAssignable(current.replace('/', '.'), cl, base);
+            }
+        }
+        for (String c: chain) {
+            known.put(c, result);
+        }
+        return result;
+    }
+
+    /**
+     * Checks a class from outside the jar, e.g. a base class shared between
+     * plugins, without initializing it.
+     */
+    private static Boolean isAssignable(String class_name, ClassLoader cl, Class<?> base) {
+        try {
+            return base.isAssignableFrom(Class.forName(class_name, false, cl));
+        } catch (ClassNotFoundException ex) {
+            Logger.getLogger(PluginScanner.class.getName()).log(Level.FINE,
+                    "Super class " + class_name + " is not available.");
+        } catch (LinkageError ex) {
+            Logger.getLogger(PluginScanner.class.getName()).log(Level.FINE,
+                    "Super class " + class_name + " can not be loaded: " + ex);
+        }
+        return Boolean.FALSE;
+    }
+}
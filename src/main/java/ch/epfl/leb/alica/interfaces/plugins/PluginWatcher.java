@@ -0,0 +1,348 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.plugins;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the plugin folder and loads added or updated ALICA_ jars, and
+ * unloads removed ones, without a restart.
+ * 
+ * Only the changed jars are scanned again, each in a new class loader, by
+ * {@link PluginDiscovery#loadJar(File)} and
+ * {@link PluginDiscovery#removeJar(File)}. The factories listening to the
+ * discovery then register or unregister the products of these jars; the
+ * products of the other jars are not affected.
+ * 
+ * As a jar is usually written in several steps, it is only loaded once no
+ * change was seen for the settle time. The discovery and its listeners are
+ * called on the thread of the watcher.
+ * 
+ * Besides the plugin folder, the subfolders which contain a discovered jar
+ * when the watcher starts are watched, e.g. mmplugins/. Jars put into other
+ * subfolders, or into subfolders created later, are only found after a
+ * restart.
+ * 
+ * The class loader of an updated or removed jar is closed once the factories
+ * dropped its products. Products created from the jar must be stopped before
+ * the jar is replaced, as they may fail to load further classes afterwards.
+ * 
+ * @author Marcel Stefko
+ */
+public class PluginWatcher implements Closeable {
+    
+    /**
+     * Default time without changes after which a jar is loaded.
+     */
+    public static final long DEFAULT_SETTLE_MS = 1000;
+    
+    private final PluginDiscovery discovery;
+    private final Path directory;
+    private volatile long settle_ns = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SETTLE_MS);
+    
+    private WatchService watch_service = null;
+    private Thread watch_thread = null;
+    
+    /**
+     * The watched folders, set before the watch thread is started.
+     */
+    private final ArrayList<Path> watched = new ArrayList<Path>();
+    
+    /**
+     * Size and modification time of the loaded jars, only accessed by the
+     * watch thread once it is started.
+     */
+    private final HashMap<Path, Stamp> stamps = new HashMap<Path, Stamp>();
+    
+    private final AtomicLong loaded_count = new AtomicLong(0);
+    private final AtomicLong removed_count = new AtomicLong(0);
+    
+    /**
+     * Initializes the watcher. Nothing is watched before {@link #start()}
+     * is called.
+     * 
+     * @param discovery The discovery loading the jars.
+     * @param directory The plugin folder.
+     */
+    public PluginWatcher(PluginDiscovery discovery, File directory) {
+        if (discovery == null || directory == null) {
+            throw new NullPointerException();
+        }
+        this.discovery = discovery;
+        this.directory = directory.getAbsoluteFile().toPath().normalize();
+    }
+    
+    /**
+     * Sets the time without changes after which a jar is loaded.
+     * 
+     * @param settle_ms The settle time in milliseconds.
+     */
+    public void setSettleTimeMs(long settle_ms) {
+        if (settle_ms < 0) {
+            throw new IllegalArgumentException("Settle time must not be negative.");
+        }
+        this.settle_ns = TimeUnit.MILLISECONDS.toNanos(settle_ms);
+    }
+    
+    /**
+     * Starts watching the plugin folder on a new thread. The jars of the
+     * discovery are scanned first if this was not done yet.
+     * 
+     * @throws IOException If the folder can not be watched.
+     */
+    public synchronized void start() throws IOException {
+        if (watch_thread != null) {
+            return;
+        }
+        discovery.scan();
+        stamps.clear();
+        watched.clear();
+        watched.add(directory);
+        for (File jar: discovery.getJars()) {
+            Path path = normalize(jar.toPath());
+            stamps.put(path, new Stamp(jar));
+            Path parent = path.getParent();
+            if (parent != null && parent.startsWith(directory) && !watched.contains(parent)) {
+                watched.add(parent);
+            }
+        }
+        final WatchService service = FileSystems.getDefault().newWatchService();
+        try {
+            register(directory, service);
+        } catch (IOException ex) {
+            service.close();
+            throw ex;
+        }
+        for (Path folder: watched.subList(1, watched.size())) {
+            try {
+                register(folder, service);
+            } catch (IOException ex) {
+                Logger.getLogger(PluginWatcher.class.getName()).log(Level.WARNING,
+                        "Unable to watch " + folder, ex);
+            }
+        }
+        watch_service = service;
+        watch_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(service);
+            }
+        }, "ALICA plugin watcher");
+        watch_thread.setDaemon(true);
+        watch_thread.start();
+    }
+    
+    /**
+     * Stops watching the plugin folder. Changes which did not settle yet are
+     * ignored.
+     * 
+     * @throws InterruptedException If interrupted while waiting for the
+     * watch thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (watch_thread == null) {
+            return;
+        }
+        try {
+            watch_service.close();
+        } catch (IOException ex) {
+            Logger.getLogger(PluginWatcher.class.getName()).log(Level.WARNING, null, ex);
+        }
+        watch_thread.join();
+        watch_thread = null;
+        watch_service = null;
+    }
+    
+    /**
+     * Stops watching the plugin folder.
+     */
+    @Override
+    public void close() {
+        try {
+            stop();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * @return The number of jars loaded or reloaded by the watcher.
+     */
+    public long getLoadedCount() {
+        return loaded_count.get();
+    }
+    
+    /**
+     * @return The number of jars unloaded because they were removed.
+     */
+    public long getRemovedCount() {
+        return removed_count.get();
+    }
+    
+    /**
+     * Body of the watch thread.
+     */
+    private void watch(WatchService service) {
+        // changed jars and the time of their last change
+        HashMap<Path, Long> changed = new HashMap<Path, Long>();
+        try {
+            while (true) {
+                WatchKey key;
+                if (changed.isEmpty()) {
+                    key = service.take();
+                } else {
+                    key = service.poll(settle_ns, TimeUnit.NANOSECONDS);
+                }
+                if (key != null) {
+                    long now = System.nanoTime();
+                    for (WatchEvent<?> event: key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // events were lost, check every jar
+                            for (Path path: listPluginJars()) {
+                                changed.put(path, now);
+                            }
+                            for (Path path: stamps.keySet()) {
+                                changed.put(path, now);
+                            }
+                            continue;
+                        }
+                        Path name = (Path) event.context();
+                        if (PluginDiscovery.isPluginJarName(name.toString())) {
+                            Path folder = (Path) key.watchable();
+                            changed.put(normalize(folder.resolve(name)), now);
+                        }
+                    }
+                    key.reset();
+                }
+                processSettled(changed);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // stopped
+        }
+    }
+    
+    /**
+     * Loads or removes the jars which did not change for the settle time.
+     */
+    private void processSettled(HashMap<Path, Long> changed) {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Long>> iterator = changed.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (now - entry.getValue() < settle_ns) {
+                continue;
+            }
+            iterator.remove();
+            Path path = entry.getKey();
+            File jar = path.toFile();
+            try {
+                if (jar.isFile()) {
+                    Stamp stamp = new Stamp(jar);
+                    if (stamp.equals(stamps.get(path))) {
+                        continue;
+                    }
+                    stamps.put(path, stamp);
+                    Logger.getLogger(PluginWatcher.class.getName()).log(Level.INFO,
+                            "Loading ALICA plugins from " + jar);
+                    discovery.loadJar(jar);
+                    loaded_count.incrementAndGet();
+                } else if (stamps.remove(path) != null) {
+                    Logger.getLogger(PluginWatcher.class.getName()).log(Level.INFO,
+                            "Unloading ALICA plugins from " + jar);
+                    discovery.removeJar(jar);
+                    removed_count.incrementAndGet();
+                }
+            } catch (RuntimeException ex) {
+                Logger.getLogger(PluginWatcher.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+    
+    private static void register(Path folder, WatchService service) throws IOException {
+        folder.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    
+    private ArrayList<Path> listPluginJars() {
+        ArrayList<Path> retval = new ArrayList<Path>();
+        for (Path folder: watched) {
+            File[] files = folder.toFile().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file: files) {
+                if (file.isFile() && PluginDiscovery.isPluginJarName(file.getName())) {
+                    retval.add(normalize(file.toPath()));
+                }
+            }
+        }
+        return retval;
+    }
+    
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+    
+    /**
+     * Size and modification time of a jar.
+     */
+    private static class Stamp {
+        final long length;
+        final long last_modified;
+        
+        Stamp(File jar) {
+            this.length = jar.length();
+            this.last_modified = jar.lastModified();
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return length == other.length && last_modified == other.last_modified;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (length ^ last_modified);
+        }
+    }
+}
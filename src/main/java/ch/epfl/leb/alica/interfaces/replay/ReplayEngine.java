@@ -0,0 +1,193 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.replay;
+
+import ch.epfl.leb.alica.interfaces.Analyzer;
+import ch.epfl.leb.alica.interfaces.Controller;
+import ch.epfl.leb.alica.interfaces.analyzers.AnalyzerFactory;
+import ch.epfl.leb.alica.interfaces.controllers.ControllerFactory;
+import ch.epfl.leb.alica.interfaces.frames.Frame;
+import ch.epfl.leb.alica.interfaces.frames.FrameSource;
+import java.io.IOException;
+
+/**
+ * Replays a recorded session through an analyzer and a controller without
+ * the GUI and without waiting for the wall clock.
+ * 
+ * Time is driven only by the recorded time_ms of the frames or trace
+ * records. Before a frame is analyzed, every controller tick that was due
+ * before its acquisition time is run, so that the controller sees the same
+ * batch outputs as during a live session with the same tick period. A
+ * session can therefore be replayed as fast as the analyzer and controller
+ * allow, and the result is reproducible.
+ * 
+ * Each tick can be written to a {@link TraceWriter}, which allows the
+ * setpoints and outputs of different analyzers or controllers to be
+ * compared offline.
+ * 
+ * @author Marcel Stefko
+ */
+public class ReplayEngine {
+    
+    private final Analyzer analyzer;
+    private final Controller controller;
+    private final double tick_rate_ms;
+    
+    private TraceWriter trace_writer = null;
+    
+    /**
+     * Initializes the engine.
+     * 
+     * @param analyzer The analyzer fed with the recorded frames.
+     * @param controller The controller fed with the batch outputs.
+     * @param tick_rate_ms Period of the controller ticks in recorded time.
+     */
+    public ReplayEngine(Analyzer analyzer, Controller controller, double tick_rate_ms) {
+        if (analyzer == null || controller == null) {
+            throw new NullPointerException();
+        }
+        if (!(tick_rate_ms > 0)) {
+            throw new IllegalArgumentException("Tick rate must be positive.");
+        }
+        this.analyzer = analyzer;
+        this.controller = controller;
+        this.tick_rate_ms = tick_rate_ms;
+    }
+    
+    /**
+     * Initializes the engine with the products selected in the factories.
+     * 
+     * @param analyzer_factory Factory with a selected analyzer.
+     * @param controller_factory Factory with a selected controller, whose
+     * tick rate is also used by the engine.
+     * @return The engine.
+     */
+    public static ReplayEngine fromFactories(AnalyzerFactory analyzer_factory,
+            ControllerFactory controller_factory) {
+        return new ReplayEngine(analyzer_factory.build(), controller_factory.build(),
+                controller_factory.getControllerTickRateMs());
+    }
+    
+    /**
+     * Sets the writer which receives every tick, or null for no trace.
+     * The writer is not closed by the engine.
+     * 
+     * @param trace_writer The trace writer.
+     */
+    public void setTraceWriter(TraceWriter trace_writer) {
+        this.trace_writer = trace_writer;
+    }
+    
+    /**
+     * @return The analyzer of the engine.
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+    
+    /**
+     * @return The controller of the engine.
+     */
+    public Controller getController() {
+        return controller;
+    }
+    
+    /**
+     * Analyzes all frames of the source and runs the controller ticks in
+     * between. The first tick is due one tick period after the first frame,
+     * and one last tick is run after the last frame so that its output
+     * reaches the controller. Each frame is released once analyzed. The
+     * source is not closed.
+     * 
+     * @param source The recorded frames, in acquisition order.
+     * @return The summary of the replay.
+     * @throws IOException If the source can not be read or the trace can not
+     * be written.
+     */
+    public ReplayResult replayFrames(FrameSource source) throws IOException {
+        long start_nanos = System.nanoTime();
+        long frame_count = 0;
+        long tick_count = 0;
+        long first_time_ms = 0;
+        long last_time_ms = 0;
+        double next_tick_ms = 0.0;
+        
+        Frame frame;
+        while ((frame = source.nextFrame()) != null) {
+            try {
+                long time_ms = frame.getTimeMs();
+                if (frame_count == 0) {
+                    first_time_ms = time_ms;
+                    next_tick_ms = time_ms + tick_rate_ms;
+                }
+                while (next_tick_ms <= time_ms) {
+                    tick((long) next_tick_ms, analyzer.getBatchOutput());
+                    tick_count++;
+                    next_tick_ms += tick_rate_ms;
+                }
+                frame.processWith(analyzer);
+                frame_count++;
+                last_time_ms = time_ms;
+            } finally {
+                frame.release();
+            }
+        }
+        if (frame_count > 0) {
+            last_time_ms = (long) next_tick_ms;
+            tick(last_time_ms, analyzer.getBatchOutput());
+            tick_count++;
+        }
+        return new ReplayResult(frame_count, tick_count, first_time_ms,
+                last_time_ms, System.nanoTime() - start_nanos);
+    }
+    
+    /**
+     * Feeds the analyzer outputs of a recorded trace into the controller,
+     * one tick per record, without running the analyzer.
+     * 
+     * @param reader The recorded trace, e.g. from an earlier session.
+     * @return The summary of the replay.
+     * @throws IOException If the trace can not be read or written.
+     */
+    public ReplayResult replayBatchOutputs(TraceReader reader) throws IOException {
+        long start_nanos = System.nanoTime();
+        long tick_count = 0;
+        long first_time_ms = 0;
+        long last_time_ms = 0;
+        while (reader.next()) {
+            last_time_ms = reader.getTimeMs();
+            if (tick_count == 0) {
+                first_time_ms = last_time_ms;
+            }
+            tick(last_time_ms, reader.getAnalyzerOutput());
+            tick_count++;
+        }
+        return new ReplayResult(0, tick_count, first_time_ms, last_time_ms,
+                System.nanoTime() - start_nanos);
+    }
+    
+    private void tick(long time_ms, double analyzer_output) throws IOException {
+        double controller_output = controller.nextValue(analyzer_output);
+        if (trace_writer != null) {
+            trace_writer.write(time_ms, analyzer_output, controller.getSetpoint(),
+                    controller_output);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.replay;
+
+/**
+ * Summary of a replay run.
+ * 
+ * @author Marcel Stefko
+ */
+public class ReplayResult {
+    
+    private final long frame_count;
+    private final long tick_count;
+    private final long first_time_ms;
+    private final long last_time_ms;
+    private final long elapsed_nanos;
+    
+    ReplayResult(long frame_count, long tick_count, long first_time_ms,
+            long last_time_ms, long elapsed_nanos) {
+        this.frame_count = frame_count;
+        this.tick_count = tick_count;
+        this.first_time_ms = first_time_ms;
+        this.last_time_ms = last_time_ms;
+        this.elapsed_nanos = elapsed_nanos;
+    }
+    
+    /**
+     * @return The number of frames passed to the analyzer.
+     */
+    public long getFrameCount() {
+        return frame_count;
+    }
+    
+    /**
+     * @return The number of controller ticks.
+     */
+    public long getTickCount() {
+        return tick_count;
+    }
+    
+    /**
+     * @return The recorded time of the first frame or tick in milliseconds.
+     */
+    public long getFirstTimeMs() {
+        return first_time_ms;
+    }
+    
+    /**
+     * @return The recorded time of the last frame or tick in milliseconds.
+     */
+    public long getLastTimeMs() {
+        return last_time_ms;
+    }
+    
+    /**
+     * @return The recorded duration of the session in milliseconds.
+     */
+    public long getRecordedDurationMs() {
+        return last_time_ms - first_time_ms;
+    }
+    
+    /**
+     * @return The wall-clock duration of the replay in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsed_nanos;
+    }
+    
+    /**
+     * Returns how many times faster than the recording the replay ran.
+     * 
+     * @return The ratio of recorded to replay duration, or NaN if the replay
+     * took no measurable time.
+     */
+    public double getSpeedup() {
+        if (elapsed_nanos <= 0) {
+            return Double.NaN;
+        }
+        return getRecordedDurationMs() * 1e6 / elapsed_nanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d frames, %d ticks, %d ms recorded in %.1f ms (%.1fx)",
+                frame_count, tick_count, getRecordedDurationMs(),
+                elapsed_nanos / 1e6, getSpeedup());
+    }
+}
@@ -0,0 +1,141 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a trace written by a {@link TraceWriter}, one tick at a time.
+ * 
+ * The values of the current tick are available through the getters after
+ * each successful call to {@link #next()}.
+ * 
+ * @author Marcel Stefko
+ */
+public class TraceReader implements Closeable {
+    
+    private final DataInputStream in;
+    private final double tick_rate_ms;
+    
+    private long time_ms;
+    private double analyzer_output;
+    private double setpoint;
+    private double controller_output;
+    
+    /**
+     * Opens a trace file.
+     * 
+     * @param file The trace file.
+     * @throws IOException If the file can not be read or is not a trace.
+     */
+    public TraceReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+    
+    /**
+     * Reads a trace from a stream, which is closed with the reader.
+     * 
+     * @param stream The stream to read from.
+     * @throws IOException If the stream does not contain a trace.
+     */
+    public TraceReader(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        try {
+            if (in.readInt() != TraceWriter.MAGIC) {
+                throw new IOException("Not an ALICA trace.");
+            }
+            short version = in.readShort();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace version " + version + ".");
+            }
+            this.tick_rate_ms = in.readDouble();
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Returns the tick period of the traced control loop.
+     * 
+     * @return The tick period in milliseconds.
+     */
+    public double getTickRateMs() {
+        return tick_rate_ms;
+    }
+    
+    /**
+     * Reads the next tick.
+     * 
+     * @return False at the end of the trace.
+     * @throws IOException If the trace can not be read.
+     */
+    public boolean next() throws IOException {
+        try {
+            time_ms = in.readLong();
+        } catch (EOFException ex) {
+            return false;
+        }
+        analyzer_output = in.readDouble();
+        setpoint = in.readDouble();
+        controller_output = in.readDouble();
+        return true;
+    }
+    
+    /**
+     * @return Time of the current tick in milliseconds.
+     */
+    public long getTimeMs() {
+        return time_ms;
+    }
+    
+    /**
+     * @return The analyzer output of the current tick.
+     */
+    public double getAnalyzerOutput() {
+        return analyzer_output;
+    }
+    
+    /**
+     * @return The controller setpoint of the current tick.
+     */
+    public double getSetpoint() {
+        return setpoint;
+    }
+    
+    /**
+     * @return The controller output of the current tick.
+     */
+    public double getControllerOutput() {
+        return controller_output;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
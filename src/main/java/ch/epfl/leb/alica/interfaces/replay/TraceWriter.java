@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a compact binary trace of the ticks of a control loop.
+ * 
+ * The trace starts with a header made of the magic number "ALTR", the format
+ * version (short) and the tick period in milliseconds (double). Each tick is
+ * then stored as a fixed-size record of 32 bytes: the tick time in
+ * milliseconds (long), the analyzer output, the controller setpoint and the
+ * controller output (doubles), all big-endian.
+ * 
+ * @author Marcel Stefko
+ * @see TraceReader
+ */
+public class TraceWriter implements Closeable {
+    
+    /**
+     * Magic number at the start of every trace, "ALTR" in ASCII.
+     */
+    public static final int MAGIC = 0x414C5452;
+    
+    /**
+     * Version of the trace format.
+     */
+    public static final short VERSION = 1;
+    
+    private final DataOutputStream out;
+    private long record_count = 0;
+    
+    /**
+     * Creates a trace file.
+     * 
+     * @param file The file to write to; it is overwritten.
+     * @param tick_rate_ms The tick period of the traced control loop.
+     * @throws IOException If the file can not be written.
+     */
+    public TraceWriter(File file, double tick_rate_ms) throws IOException {
+        this(new FileOutputStream(file), tick_rate_ms);
+    }
+    
+    /**
+     * Writes a trace to a stream, which is closed with the writer.
+     * 
+     * @param stream The stream to write to.
+     * @param tick_rate_ms The tick period of the traced control loop.
+     * @throws IOException If the header can not be written.
+     */
+    public TraceWriter(OutputStream stream, double tick_rate_ms) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeDouble(tick_rate_ms);
+    }
+    
+    /**
+     * Appends a tick to the trace.
+     * 
+     * @param time_ms Time of the tick in milliseconds.
+     * @param analyzer_output The batch output of the analyzer, possibly NaN.
+     * @param setpoint The setpoint of the controller.
+     * @param controller_output The value returned by nextValue.
+     * @throws IOException If the record can not be written.
+     */
+    public void write(long time_ms, double analyzer_output, double setpoint,
+            double controller_output) throws IOException {
+        out.writeLong(time_ms);
+        out.writeDouble(analyzer_output);
+        out.writeDouble(setpoint);
+        out.writeDouble(controller_output);
+        record_count++;
+    }
+    
+    /**
+     * Returns the number of written ticks.
+     * 
+     * @return The number of records.
+     */
+    public long getRecordCount() {
+        return record_count;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
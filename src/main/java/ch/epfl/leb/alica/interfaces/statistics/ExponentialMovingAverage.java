@@ -0,0 +1,99 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.statistics;
+
+/**
+ * Exponential moving average of a stream of values.
+ * 
+ * Each new value contributes with weight alpha, so the average responds
+ * within about 1 / alpha values. NaN values are ignored.
+ * 
+ * Not thread-safe.
+ * 
+ * @author Marcel Stefko
+ */
+public class ExponentialMovingAverage {
+    
+    private final double alpha;
+    private double value = Double.NaN;
+    
+    /**
+     * Initializes the average.
+     * 
+     * @param alpha Weight of each new value, in (0, 1].
+     */
+    public ExponentialMovingAverage(double alpha) {
+        if (!(alpha > 0.0 && alpha <= 1.0)) {
+            throw new IllegalArgumentException("Alpha must be in (0, 1].");
+        }
+        this.alpha = alpha;
+    }
+    
+    /**
+     * Returns the weight which halves the contribution of a value after the
+     * given number of new values.
+     * 
+     * @param half_life Half-life in number of values.
+     * @return The corresponding alpha.
+     */
+    public static double alphaForHalfLife(double half_life) {
+        if (!(half_life > 0.0)) {
+            throw new IllegalArgumentException("Half-life must be positive.");
+        }
+        return 1.0 - Math.pow(0.5, 1.0 / half_life);
+    }
+    
+    /**
+     * Adds a value. The first value initializes the average.
+     * 
+     * @param value The new value.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (Double.isNaN(this.value)) {
+            this.value = value;
+        } else {
+            this.value += alpha * (value - this.value);
+        }
+    }
+    
+    /**
+     * Forgets all values.
+     */
+    public void clear() {
+        value = Double.NaN;
+    }
+    
+    /**
+     * @return The weight of each new value.
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+    
+    /**
+     * @return The average, or NaN if no value was added.
+     */
+    public double getValue() {
+        return value;
+    }
+}
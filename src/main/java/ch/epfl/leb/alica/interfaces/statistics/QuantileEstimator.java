@@ -0,0 +1,184 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantile of a stream of values in constant memory.
+ * 
+ * This is the P-square algorithm of Jain and Chlamtac (1985): five markers
+ * track the minimum, the maximum, the quantile and two intermediate
+ * quantiles, and their heights are adjusted by piecewise-parabolic
+ * interpolation as values arrive. No value is stored. NaN values are
+ * ignored.
+ * 
+ * Not thread-safe.
+ * 
+ * @author Marcel Stefko
+ */
+public class QuantileEstimator {
+    
+    private final double quantile;
+    
+    // marker heights, actual and desired positions, and position increments
+    private final double[] heights = new double[5];
+    private final int[] positions = new int[5];
+    private final double[] desired = new double[5];
+    private final double[] increments = new double[5];
+    
+    /**
+     * Scratch array for small counts.
+     */
+    private final double[] sorted = new double[5];
+    
+    private long count = 0;
+    
+    /**
+     * Initializes the estimator.
+     * 
+     * @param quantile The quantile to estimate, e.g. 0.5 for the median.
+     */
+    public QuantileEstimator(double quantile) {
+        if (!(quantile >= 0.0 && quantile <= 1.0)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1.");
+        }
+        this.quantile = quantile;
+        increments[0] = 0.0;
+        increments[1] = quantile / 2;
+        increments[2] = quantile;
+        increments[3] = (1 + quantile) / 2;
+        increments[4] = 1.0;
+    }
+    
+    /**
+     * Adds a value.
+     * 
+     * @param value The new value.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count < 5) {
+            heights[(int) count++] = value;
+            if (count == 5) {
+                Arrays.sort(heights);
+                for (int i = 0; i < 5; i++) {
+                    positions[i] = i + 1;
+                }
+                desired[0] = 1;
+                desired[1] = 1 + 2 * quantile;
+                desired[2] = 1 + 4 * quantile;
+                desired[3] = 3 + 2 * quantile;
+                desired[4] = 5;
+            }
+            return;
+        }
+        
+        int k;
+        if (value < heights[0]) {
+            heights[0] = value;
+            k = 0;
+        } else if (value >= heights[4]) {
+            heights[4] = value;
+            k = 3;
+        } else {
+            k = 0;
+            while (value >= heights[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) ||
+                (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = d > 0 ? 1 : -1;
+                double h = parabolic(i, step);
+                if (heights[i - 1] < h && h < heights[i + 1]) {
+                    heights[i] = h;
+                } else {
+                    heights[i] = linear(i, step);
+                }
+                positions[i] += step;
+            }
+        }
+        count++;
+    }
+    
+    private double parabolic(int i, int d) {
+        double n_prev = positions[i - 1];
+        double n = positions[i];
+        double n_next = positions[i + 1];
+        return heights[i] + d / (n_next - n_prev) *
+                ((n - n_prev + d) * (heights[i + 1] - heights[i]) / (n_next - n) +
+                 (n_next - n - d) * (heights[i] - heights[i - 1]) / (n - n_prev));
+    }
+    
+    private double linear(int i, int d) {
+        return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+    }
+    
+    /**
+     * Forgets all values.
+     */
+    public void clear() {
+        count = 0;
+    }
+    
+    /**
+     * @return The estimated quantile.
+     */
+    public double getQuantile() {
+        return quantile;
+    }
+    
+    /**
+     * @return Number of added values.
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Returns the estimate. Up to five values, it is exact.
+     * 
+     * @return The estimated quantile of the added values, or NaN if there
+     * are none.
+     */
+    public double getValue() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count <= 5) {
+            int n = (int) count;
+            System.arraycopy(heights, 0, sorted, 0, n);
+            Arrays.sort(sorted, 0, n);
+            return sorted[(int) Math.round(quantile * (n - 1))];
+        }
+        return heights[2];
+    }
+}
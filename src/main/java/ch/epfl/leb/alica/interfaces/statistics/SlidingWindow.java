@@ -0,0 +1,142 @@
+/* 
+ * Copyright (C) 2017-2018 Laboratory of Experimental Biophysics
+ * Ecole Polytechnique Federale de Lausanne
+ * 
+ * Author: Marcel Stefko
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.epfl.leb.alica.interfaces.statistics;
+
+/**
+ * Mean and variance of the last values of a stream.
+ * 
+ * The values are kept in a ring of primitive doubles, and the mean and the
+ * sum of squared deviations are updated in constant time when a value enters
+ * and the oldest one leaves the window. NaN values are ignored.
+ * 
+ * Not thread-safe.
+ * 
+ * @author Marcel Stefko
+ */
+public class SlidingWindow {
+    
+    private final double[] values;
+    private int head = 0;
+    private int count = 0;
+    private double mean = 0.0;
+    
+    /**
+     * Sum of squared deviations from the mean.
+     */
+    private double m2 = 0.0;
+    
+    /**
+     * Initializes an empty window.
+     * 
+     * @param size Number of values in a full window.
+     */
+    public SlidingWindow(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Window size must be positive.");
+        }
+        this.values = new double[size];
+    }
+    
+    /**
+     * Adds a value, removing the oldest one if the window is full.
+     * 
+     * @param value The new value.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count < values.length) {
+            values[head] = value;
+            head = (head + 1) % values.length;
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+            return;
+        }
+        double old = values[head];
+        values[head] = value;
+        head = (head + 1) % values.length;
+        double old_mean = mean;
+        mean += (value - old) / count;
+        m2 += (value - old) * (value - mean + old - old_mean);
+        if (m2 < 0.0) {
+            // rounding errors of nearly constant values
+            m2 = 0.0;
+        }
+    }
+    
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+    }
+    
+    /**
+     * @return Number of values in a full window.
+     */
+    public int getSize() {
+        return values.length;
+    }
+    
+    /**
+     * @return Number of values in the window.
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * @return The mean of the window, or NaN if it is empty.
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+    
+    /**
+     * @return The sample variance of the window, or NaN if it holds less
+     * than two values.
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+    
+    /**
+     * @return The sample standard deviation of the window.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+    
+    /**
+     * @return The most recent value, or NaN if the window is empty.
+     */
+    public double getLast() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return values[(head + values.length - 1) % values.length];
+    }
+}